@@ -0,0 +1,205 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Micro-batching provider: requests, from however many server threads, are gathered into batches looked up with a single call to the batch provider. <br />
+ * A batch is flushed as soon as it holds the configured number of distinct UUIDs, or once the configured window has elapsed since its first request,
+ * whichever comes first: the window bounds the latency added to a lone request. Lookups run in the provided executor, which the caller owns. <br />
+ * Requests for the same UUID within a batch share its payload: each request gets its own view of it, and it is only released to the batch provider
+ * once all of them have been released.
+ */
+@ThreadSafe
+public final class BatchingProvider implements IAsyncProvider {
+	private final IBatchProvider provider;
+	private final int maxBatchSize;
+	private final long windowInNanos;
+	private final ScheduledExecutorService executor;
+
+	private Batch pending = null; // Guarded by this. Batch gathering requests, if any.
+
+	private final ConcurrentMap<ByteBuffer, Lookup> views = new MapMaker().weakKeys().makeMap(); // Views handed over: compared by identity.
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * @param maxBatchSize
+	 *            Maximum number of distinct UUIDs looked up per call to the batch provider.
+	 * @param window
+	 *            Maximum time a request waits for other requests to be batched with.
+	 */
+	public BatchingProvider(final IBatchProvider provider, final int maxBatchSize, final Duration window, final ScheduledExecutorService executor) {
+		this.provider = checkNotNull(provider, "Provider must NOT be null.");
+		checkArgument(maxBatchSize > 0, "Maximum batch size must be strictly positive, but was [%s].", maxBatchSize);
+		this.maxBatchSize = maxBatchSize;
+		this.windowInNanos = checkNotNull(window, "Window must NOT be null.").toNanos();
+		this.executor = checkNotNull(executor, "Executor must NOT be null.");
+	}
+
+	@Override
+	public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+		checkNotNull(uuid, "UUID must NOT be null.");
+		final SettableFuture<ByteBuffer> payload = SettableFuture.create();
+		requests.incrementAndGet();
+
+		final Batch full;
+		synchronized (this) {
+			if (pending == null)
+				pending = schedule(new Batch());
+			pending.add(uuid, payload);
+			if (pending.size() < maxBatchSize)
+				return payload;
+
+			full = pending;
+			pending = null;
+		}
+
+		try {
+			executor.execute(full);
+		} catch (RejectedExecutionException e) {
+			full.fail(e);
+		}
+		return payload;
+	}
+
+	private Batch schedule(final Batch batch) {
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (BatchingProvider.this) {
+					if (pending != batch)
+						return; // Already flushed, as full.
+					pending = null;
+				}
+				batch.run();
+			}
+		}, windowInNanos, TimeUnit.NANOSECONDS);
+		return batch;
+	}
+
+	@Override
+	public void release(final UUID uuid, final ByteBuffer buffer) {
+		final Lookup lookup = views.remove(buffer);
+		if (lookup != null)
+			lookup.release();
+	}
+
+	/**
+	 * @return number of calls actually made to the batch provider.
+	 */
+	public long batches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return number of requests looked up in batches.
+	 */
+	public long requests() {
+		return requests.get();
+	}
+
+	private final class Batch implements Runnable {
+		private final Map<UUID, Lookup> lookups = new LinkedHashMap<UUID, Lookup>(); // Guarded by BatchingProvider.this until flushed.
+
+		private void add(final UUID uuid, final SettableFuture<ByteBuffer> payload) {
+			Lookup lookup = lookups.get(uuid);
+			if (lookup == null) {
+				lookup = new Lookup(uuid);
+				lookups.put(uuid, lookup);
+			}
+			lookup.waiters.add(payload);
+		}
+
+		private int size() {
+			return lookups.size();
+		}
+
+		@Override
+		public void run() {
+			batches.incrementAndGet();
+			final Map<UUID, ByteBuffer> payloads;
+			try {
+				payloads = checkNotNull(provider.apply(new ArrayList<UUID>(lookups.keySet())), "Payloads must NOT be null.");
+			} catch (RuntimeException e) {
+				fail(e);
+				return;
+			}
+
+			for (final Map.Entry<UUID, ByteBuffer> entry : payloads.entrySet())
+				if (!lookups.containsKey(entry.getKey()) && (entry.getValue() != null))
+					provider.release(entry.getKey(), entry.getValue()); // Not requested: nobody to hand it over to.
+
+			for (final Lookup lookup : lookups.values())
+				lookup.complete(payloads.get(lookup.uuid));
+		}
+
+		private void fail(final Throwable cause) {
+			for (final Lookup lookup : lookups.values())
+				for (final SettableFuture<ByteBuffer> waiter : lookup.waiters)
+					waiter.setException(cause);
+		}
+	}
+
+	private final class Lookup {
+		private final UUID uuid;
+		private final List<SettableFuture<ByteBuffer>> waiters = new ArrayList<SettableFuture<ByteBuffer>>(1);
+		private ByteBuffer payload = null; // Guarded by this.
+		private int references = 0; // Guarded by this. One per view NOT released yet.
+
+		private Lookup(final UUID uuid) {
+			this.uuid = uuid;
+		}
+
+		private void complete(final ByteBuffer payload) {
+			if (payload == null) {
+				for (final SettableFuture<ByteBuffer> waiter : waiters)
+					waiter.set(null);
+				return;
+			}
+
+			synchronized (this) {
+				this.payload = payload;
+				references = waiters.size(); // Before handing views over, as they may be released right away.
+			}
+			for (final SettableFuture<ByteBuffer> waiter : waiters) {
+				final ByteBuffer view = payload.duplicate();
+				views.put(view, this);
+				if (!waiter.set(view)) {
+					views.remove(view); // Cancelled: never handed over.
+					release();
+				}
+			}
+		}
+
+		private void release() {
+			final ByteBuffer released;
+			synchronized (this) {
+				if (--references > 0)
+					return;
+				released = payload;
+			}
+			provider.release(uuid, released);
+		}
+	}
+}
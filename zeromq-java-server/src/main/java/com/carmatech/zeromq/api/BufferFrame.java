@@ -0,0 +1,93 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * Frame sending a {@link ByteBuffer} as-is, rather than a copy of it in a heap byte[], and releasing it to its provider once sent or destroyed. <br />
+ * Heap buffers wrapping a whole array are sent as that array, direct buffers as buffers. Slices of heap buffers are the only ones to be copied, as
+ * ZeroMQ ignores their offset in the backing array.
+ */
+final class BufferFrame extends ZFrame {
+	private final UUID uuid;
+	private final IBufferProvider provider;
+
+	private ByteBuffer original;
+	private ByteBuffer buffer;
+
+	/**
+	 * Frame over the provided buffer, which is owned by someone else, and therefore never released.
+	 */
+	BufferFrame(final ByteBuffer buffer) {
+		this(null, buffer, null);
+	}
+
+	BufferFrame(final UUID uuid, final ByteBuffer buffer, final IBufferProvider provider) {
+		this.uuid = uuid;
+		this.provider = provider;
+		this.original = checkNotNull(buffer, "Buffer must NOT be null.");
+		this.buffer = buffer.slice(); // ZeroMQ requires the position to be zero.
+	}
+
+	@Override
+	public boolean send(final Socket socket, final int flags) {
+		checkNotNull(socket, "Socket must NOT be null.");
+		checkState(buffer != null, "Frame has already been destroyed.");
+
+		if (buffer.isDirect())
+			return socket.sendByteBuffer(buffer, flags) != -1;
+		if (buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length)
+			return socket.send(buffer.array(), flags);
+		return socket.send(getData(), flags);
+	}
+
+	@Override
+	public void destroy() {
+		if (buffer == null)
+			return;
+
+		buffer = null;
+		if (provider != null)
+			provider.release(uuid, original);
+		original = null;
+	}
+
+	@Override
+	public boolean hasData() {
+		return buffer != null;
+	}
+
+	@Override
+	public int size() {
+		return (buffer == null) ? 0 : buffer.remaining();
+	}
+
+	/**
+	 * @return a copy of the buffer's content: only meant for debugging and testing, as it defeats the purpose of this frame.
+	 */
+	@Override
+	public byte[] getData() {
+		if (buffer == null)
+			return null;
+
+		final byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+
+	@Override
+	public ZFrame duplicate() {
+		return new ZFrame(getData());
+	}
+
+	@Override
+	public String toString() {
+		return hasData() ? new ZFrame(getData()).toString() : "";
+	}
+}
@@ -0,0 +1,256 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Cache of payloads in front of a provider, bounded by the total size of the payloads it holds, rather than by their number. <br />
+ * Admission is frequency-aware: once the cache is full, a payload only makes room for itself by evicting least recently used payloads which were
+ * requested less often than itself, so that a scan of cold UUIDs does NOT flush the hot ones. Payloads expire the configured time after being loaded. <br />
+ * Cached payloads are shared: each request gets its own view of them, and they are only released to the provider once evicted and all views handed
+ * over have been released, e.g. once the replies over them have been sent. Payloads which were NOT admitted are released to the provider as usual.
+ */
+@ThreadSafe
+public final class CachingProvider implements IBufferProvider {
+	private static final int SKETCH_WIDTH = 1 << 16;
+
+	private final IBufferProvider provider;
+	private final long maxBytes;
+	private final long ttlInNanos;
+	private final Ticker ticker;
+
+	// Guarded by this:
+	private final Map<UUID, Entry> entries = new LinkedHashMap<UUID, Entry>(16, 0.75f, true); // Least recently used first.
+	private final FrequencySketch sketch = new FrequencySketch(SKETCH_WIDTH);
+	private long weight = 0L;
+
+	// Payloads handed over as is, as they were NOT admitted, and views of cached payloads handed over: compared by identity.
+	private final Set<ByteBuffer> notAdmitted = Collections.newSetFromMap(new MapMaker().weakKeys().<ByteBuffer, Boolean> makeMap());
+	private final ConcurrentMap<ByteBuffer, Entry> views = new MapMaker().weakKeys().makeMap();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong failedLoads = new AtomicLong();
+	private final AtomicLong loadTimeInNanos = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+
+	public CachingProvider(final IBufferProvider provider, final long maxBytes, final Duration ttl) {
+		this(provider, maxBytes, ttl, Ticker.systemTicker());
+	}
+
+	public CachingProvider(final IBufferProvider provider, final long maxBytes, final Duration ttl, final Ticker ticker) {
+		this.provider = checkNotNull(provider, "Provider must NOT be null.");
+		checkArgument(maxBytes > 0, "Maximum size of cached payloads must be strictly positive, but was [%s].", maxBytes);
+		this.maxBytes = maxBytes;
+		this.ttlInNanos = checkNotNull(ttl, "TTL must NOT be null.").toNanos();
+		this.ticker = checkNotNull(ticker, "Time ticker must NOT be null.");
+	}
+
+	@Override
+	public ByteBuffer apply(final UUID uuid) {
+		final ByteBuffer cached = get(uuid);
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+
+		misses.incrementAndGet();
+		final ByteBuffer payload = load(uuid);
+		if (payload == null)
+			return null;
+
+		final ByteBuffer view = admit(uuid, payload);
+		if (view != null)
+			return view;
+
+		notAdmitted.add(payload);
+		return payload;
+	}
+
+	private synchronized ByteBuffer get(final UUID uuid) {
+		sketch.increment(uuid);
+		final Entry entry = entries.get(uuid);
+		if (entry == null)
+			return null;
+
+		if (entry.isExpired(ticker.read())) {
+			evict(uuid);
+			return null;
+		}
+		return viewOf(entry);
+	}
+
+	/**
+	 * Only called while holding the lock, so that the entry can NOT be evicted meanwhile: it still holds the cache's reference.
+	 */
+	private ByteBuffer viewOf(final Entry entry) {
+		entry.join();
+		final ByteBuffer view = entry.payload.duplicate();
+		views.put(view, entry);
+		return view;
+	}
+
+	private ByteBuffer load(final UUID uuid) {
+		final long start = ticker.read();
+		try {
+			final ByteBuffer payload = provider.apply(uuid);
+			loads.incrementAndGet();
+			return payload;
+		} catch (RuntimeException e) {
+			failedLoads.incrementAndGet();
+			throw e;
+		} finally {
+			loadTimeInNanos.addAndGet(ticker.read() - start);
+		}
+	}
+
+	/**
+	 * @return a view of the payload if it is now cached, null if it is either too big, or less frequently requested than the payloads it would evict.
+	 */
+	private synchronized ByteBuffer admit(final UUID uuid, final ByteBuffer payload) {
+		final int size = payload.remaining();
+		if (size > maxBytes) {
+			rejections.incrementAndGet();
+			return null;
+		}
+
+		if (entries.containsKey(uuid)) // Loaded concurrently: the latest load wins.
+			evict(uuid);
+
+		final List<UUID> victims = victims(uuid, size);
+		if (victims == null) {
+			rejections.incrementAndGet();
+			return null;
+		}
+
+		for (final UUID victim : victims)
+			evict(victim);
+		final Entry entry = new Entry(uuid, payload, ticker.read() + ttlInNanos);
+		entries.put(uuid, entry);
+		weight += size;
+		return viewOf(entry);
+	}
+
+	/**
+	 * @return least recently used payloads to evict to make room for the candidate, or null if any of them is requested at least as often as it.
+	 */
+	private List<UUID> victims(final UUID candidate, final int size) {
+		final List<UUID> victims = new ArrayList<UUID>();
+		final int frequency = sketch.frequency(candidate);
+		final long now = ticker.read();
+		long freed = 0L;
+		final Iterator<Map.Entry<UUID, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+		while (weight - freed + size > maxBytes) {
+			final Map.Entry<UUID, Entry> victim = leastRecentlyUsed.next();
+			if (!victim.getValue().isExpired(now) && sketch.frequency(victim.getKey()) >= frequency)
+				return null;
+			victims.add(victim.getKey());
+			freed += victim.getValue().payload.remaining();
+		}
+		return victims;
+	}
+
+	private void evict(final UUID uuid) {
+		final Entry entry = entries.remove(uuid);
+		weight -= entry.payload.remaining();
+		evictions.incrementAndGet();
+		entry.release(); // The cache's reference.
+	}
+
+	/**
+	 * Cached payloads are only released once evicted and their last view released: only payloads which were NOT admitted are released right away.
+	 */
+	@Override
+	public void release(final UUID uuid, final ByteBuffer buffer) {
+		if (notAdmitted.remove(buffer)) {
+			provider.release(uuid, buffer);
+			return;
+		}
+
+		final Entry entry = views.remove(buffer);
+		if (entry != null)
+			entry.release();
+	}
+
+	public synchronized void invalidate(final UUID uuid) {
+		if (entries.containsKey(uuid))
+			evict(uuid);
+	}
+
+	/**
+	 * @return total size, in bytes, of the cached payloads.
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	public synchronized long size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return hit, miss, load and eviction counts, as well as the total time spent loading payloads from the provider.
+	 */
+	public CacheStats stats() {
+		return new CacheStats(hits.get(), misses.get(), loads.get(), failedLoads.get(), loadTimeInNanos.get(), evictions.get());
+	}
+
+	/**
+	 * @return number of loaded payloads which were NOT admitted in the cache.
+	 */
+	public long rejections() {
+		return rejections.get();
+	}
+
+	private final class Entry {
+		private final UUID uuid;
+		private final ByteBuffer payload;
+		private final long expiresAt;
+		private int references = 1; // Guarded by this. The cache's, then one per view handed over.
+
+		private Entry(final UUID uuid, final ByteBuffer payload, final long expiresAt) {
+			this.uuid = uuid;
+			this.payload = payload;
+			this.expiresAt = expiresAt;
+		}
+
+		private boolean isExpired(final long now) {
+			return expiresAt - now <= 0;
+		}
+
+		private synchronized void join() {
+			++references;
+		}
+
+		private void release() {
+			final boolean isLastReference;
+			synchronized (this) {
+				isLastReference = (--references == 0);
+			}
+
+			if (isLastReference)
+				provider.release(uuid, payload);
+		}
+	}
+}
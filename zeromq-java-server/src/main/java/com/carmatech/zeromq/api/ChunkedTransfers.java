@@ -0,0 +1,164 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Payloads of the chunked transfers in progress, so that the provider is called once per transfer rather than once per chunk. <br />
+ * Chunks are fetched independently from one another, so a transfer is never explicitly closed: its payload is evicted once not accessed for the
+ * configured expiry, or when the total size of open transfers exceeds the configured maximum. <br />
+ * Each chunk gets its own view of the payload, which is only released to its provider once evicted and all views handed over have been released,
+ * i.e. once chunks in flight have been sent: see {@link #release(UUID, ByteBuffer)}. <br />
+ * Payloads bigger than the configured maximum are evicted as soon as loaded: each chunk of them is then served from its own load of the payload.
+ */
+@ThreadSafe
+public final class ChunkedTransfers {
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final Cache<UUID, Payload> payloads;
+	private final ConcurrentMap<ByteBuffer, Payload> views = new MapMaker().weakKeys().makeMap(); // Views handed over: compared by identity.
+
+	private final IBufferProvider releaser = new IBufferProvider() {
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			throw new UnsupportedOperationException("Views are only handed over by ChunkedTransfers.payload(UUID, IBufferProvider).");
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer view) {
+			ChunkedTransfers.this.release(uuid, view);
+		}
+	};
+
+	public ChunkedTransfers(final long maxBytes, final Duration expiry) {
+		checkArgument(maxBytes > 0, "Maximum size of open transfers must be strictly positive, but was [%s].", maxBytes);
+		checkNotNull(expiry, "Expiry must NOT be null.");
+		// Single segment: the maximum is NOT split across segments, which would evict any payload over a fraction of it right away.
+		this.payloads = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maxBytes).weigher(new Weigher<UUID, Payload>() {
+			@Override
+			public int weigh(final UUID uuid, final Payload payload) {
+				return payload.buffer.remaining();
+			}
+		}).expireAfterAccess(expiry.duration(), expiry.unit()).removalListener(new RemovalListener<UUID, Payload>() {
+			@Override
+			public void onRemoval(final RemovalNotification<UUID, Payload> notification) {
+				notification.getValue().release(notification.getKey()); // The cache's reference.
+			}
+		}).build();
+	}
+
+	/**
+	 * @return a view of the payload of the transfer for the provided UUID, calling the provider only if no such transfer is already open. <br />
+	 *         The view must be released once done with, e.g. once the chunk over it is sent: see {@link #release(UUID, ByteBuffer)}.
+	 */
+	public ByteBuffer payload(final UUID uuid, final IBufferProvider provider) {
+		while (true) {
+			final Loader loader = new Loader(uuid, provider);
+			final Payload payload = open(uuid, loader);
+			if (payload == loader.loaded || payload.join()) { // The loader's reference is taken on load, before it can be evicted.
+				final ByteBuffer view = payload.buffer.duplicate();
+				views.put(view, payload);
+				return view;
+			}
+			// Otherwise, the transfer was evicted and its payload released in the meantime: open it again.
+		}
+	}
+
+	private Payload open(final UUID uuid, final Loader loader) {
+		try {
+			return payloads.get(uuid, loader);
+		} catch (ExecutionException e) {
+			throw new UncheckedExecutionException(e.getCause());
+		}
+	}
+
+	/**
+	 * Release a view handed over by {@link #payload(UUID, IBufferProvider)}: the payload is released to its provider once its transfer is evicted and
+	 * this was its last view.
+	 */
+	public void release(final UUID uuid, final ByteBuffer view) {
+		final Payload payload = views.remove(view);
+		if (payload != null)
+			payload.release(uuid);
+	}
+
+	/**
+	 * @return a provider releasing views of payloads, for frames sending chunks: it provides none.
+	 */
+	IBufferProvider releaser() {
+		return releaser;
+	}
+
+	public boolean isOpen(final UUID uuid) {
+		return payloads.getIfPresent(uuid) != null;
+	}
+
+	public long size() {
+		return payloads.size();
+	}
+
+	private static final class Loader implements Callable<Payload> {
+		private final UUID uuid;
+		private final IBufferProvider provider;
+		private Payload loaded; // Only read by the thread calling the loader.
+
+		private Loader(final UUID uuid, final IBufferProvider provider) {
+			this.uuid = uuid;
+			this.provider = provider;
+		}
+
+		@Override
+		public Payload call() {
+			loaded = new Payload(provider.apply(uuid), provider);
+			return loaded;
+		}
+	}
+
+	private static final class Payload {
+		private final ByteBuffer buffer;
+		private final IBufferProvider provider;
+		private int references = 2; // Guarded by this. The cache's and its loader's, then one per other view handed over.
+
+		private Payload(final ByteBuffer buffer, final IBufferProvider provider) {
+			this.buffer = (buffer == null) ? EMPTY : buffer;
+			this.provider = (buffer == null) ? null : provider;
+		}
+
+		/**
+		 * @return false if the payload was already released: too late to hand it over.
+		 */
+		private synchronized boolean join() {
+			if (references == 0)
+				return false;
+			++references;
+			return true;
+		}
+
+		private void release(final UUID uuid) {
+			final boolean isLastReference;
+			synchronized (this) {
+				isLastReference = (--references == 0);
+			}
+
+			if (isLastReference && provider != null)
+				provider.release(uuid, buffer);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Single-flight provider: concurrent requests for the same UUID are merged into a single call to the provider, whose result, or failure, is shared by
+ * all of them. <br />
+ * The payload is shared too: each request gets its own view of it, and it is only released to the provider once all of them have been released. <br />
+ * Wrap it in a {@link CachingProvider} so that the hot UUIDs of an expiring cache do NOT stampede the provider.
+ */
+@ThreadSafe
+public final class CoalescingProvider implements IBufferProvider {
+	private final IBufferProvider provider;
+
+	private final ConcurrentMap<UUID, Call> calls = new ConcurrentHashMap<UUID, Call>(); // Calls in flight.
+	private final ConcurrentMap<ByteBuffer, Call> views = new MapMaker().weakKeys().makeMap(); // Views handed over: compared by identity.
+
+	private final AtomicLong leaders = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	public CoalescingProvider(final IBufferProvider provider) {
+		this.provider = checkNotNull(provider, "Provider must NOT be null.");
+	}
+
+	@Override
+	public ByteBuffer apply(final UUID uuid) {
+		while (true) {
+			final Call call = new Call(uuid);
+			final Call inFlight = calls.putIfAbsent(uuid, call);
+			if (inFlight == null)
+				return lead(call);
+
+			if (inFlight.join()) {
+				coalesced.incrementAndGet();
+				return inFlight.viewOf(waitFor(inFlight));
+			}
+			// Otherwise, the call completed and its payload is already released: call the provider again.
+		}
+	}
+
+	private ByteBuffer lead(final Call call) {
+		leaders.incrementAndGet();
+		try {
+			final ByteBuffer payload = provider.apply(call.uuid);
+			call.result.set(payload);
+			return call.viewOf(payload);
+		} catch (RuntimeException e) {
+			call.result.setException(e);
+			throw e;
+		} finally {
+			calls.remove(call.uuid, call);
+		}
+	}
+
+	private static ByteBuffer waitFor(final Call call) {
+		try {
+			return Uninterruptibles.getUninterruptibly(call.result);
+		} catch (ExecutionException e) {
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	@Override
+	public void release(final UUID uuid, final ByteBuffer buffer) {
+		final Call call = views.remove(buffer);
+		if (call != null)
+			call.release();
+	}
+
+	/**
+	 * @return number of calls actually made to the provider.
+	 */
+	public long calls() {
+		return leaders.get();
+	}
+
+	/**
+	 * @return number of requests which were merged into a call already in flight, instead of calling the provider.
+	 */
+	public long coalesced() {
+		return coalesced.get();
+	}
+
+	private final class Call {
+		private final UUID uuid;
+		private final SettableFuture<ByteBuffer> result = SettableFuture.create();
+		private int references = 1; // Guarded by this. The leader's, then one per request joining.
+
+		private Call(final UUID uuid) {
+			this.uuid = uuid;
+		}
+
+		/**
+		 * @return false if the payload was already released: too late to share it.
+		 */
+		private synchronized boolean join() {
+			if (references == 0)
+				return false;
+			++references;
+			return true;
+		}
+
+		private ByteBuffer viewOf(final ByteBuffer payload) {
+			if (payload == null) {
+				release(); // Nothing to hand over.
+				return null;
+			}
+
+			final ByteBuffer view = payload.duplicate();
+			views.put(view, this);
+			return view;
+		}
+
+		private void release() {
+			final boolean isLastReference;
+			synchronized (this) {
+				isLastReference = (--references == 0);
+			}
+
+			if (isLastReference) {
+				final ByteBuffer payload = Futures.getUnchecked(result); // Already set: only successful calls hand views over.
+				if (payload != null)
+					provider.release(uuid, payload);
+			}
+		}
+	}
+}
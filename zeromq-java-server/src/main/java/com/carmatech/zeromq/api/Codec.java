@@ -0,0 +1,197 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.UUID;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+
+/**
+ * Wire encodings of UUIDs and sequence numbers: <br />
+ * - {@link #STRING}: legacy, human-readable, encoding (36-byte UUIDs, decimal sequence numbers), still used by the Python clients, <br />
+ * - {@link #BINARY}: compact encoding (one-byte opcodes, 16-byte UUIDs, 8-byte big-endian sequence numbers), negotiated per peer on PING/PONG. <br />
+ * Decoding reads straight from the frame's bytes: no intermediate String is ever built.
+ */
+public enum Codec {
+	STRING {
+		@Override
+		public byte[] encode(final Command command) {
+			return command.encodedName();
+		}
+
+		@Override
+		public byte[] encode(final UUID uuid) {
+			final byte[] data = new byte[STRING_UUID_SIZE];
+			toHex(uuid.getMostSignificantBits() >>> 32, data, 0, 8);
+			data[8] = DASH;
+			toHex(uuid.getMostSignificantBits() >>> 16, data, 9, 13);
+			data[13] = DASH;
+			toHex(uuid.getMostSignificantBits(), data, 14, 18);
+			data[18] = DASH;
+			toHex(uuid.getLeastSignificantBits() >>> 48, data, 19, 23);
+			data[23] = DASH;
+			toHex(uuid.getLeastSignificantBits(), data, 24, 36);
+			return data;
+		}
+
+		@Override
+		public UUID decodeUuid(final ZFrame frame) {
+			final byte[] data = frame.getData();
+			if (data.length != STRING_UUID_SIZE) // Non-canonical form, let the JDK deal with it.
+				return UUID.fromString(new String(data, ZMQ.CHARSET));
+
+			checkDashes(data);
+			final long mostSignificantBits = (fromHex(data, 0, 8) << 32) | (fromHex(data, 9, 13) << 16) | fromHex(data, 14, 18);
+			final long leastSignificantBits = (fromHex(data, 19, 23) << 48) | fromHex(data, 24, 36);
+			return new UUID(mostSignificantBits, leastSignificantBits);
+		}
+
+		@Override
+		public byte[] encode(final long sequenceNumber) {
+			return Long.toString(sequenceNumber).getBytes(ZMQ.CHARSET);
+		}
+
+		@Override
+		public long decodeSequenceNumber(final ZFrame frame) {
+			final byte[] data = frame.getData();
+			if (data == null || data.length == 0)
+				throw new NumberFormatException("Sequence number must NOT be empty.");
+
+			long sequenceNumber = 0L;
+			for (final byte digit : data) {
+				if (digit < '0' || digit > '9')
+					throw new NumberFormatException("Invalid digit [" + (char) digit + "] in sequence number.");
+				sequenceNumber = (sequenceNumber * 10) + (digit - '0');
+			}
+			return sequenceNumber;
+		}
+	},
+
+	BINARY {
+		@Override
+		public byte[] encode(final Command command) {
+			return new byte[] { command.opcode() };
+		}
+
+		@Override
+		public byte[] encode(final UUID uuid) {
+			final byte[] data = new byte[BINARY_UUID_SIZE];
+			toBytes(uuid.getMostSignificantBits(), data, 0);
+			toBytes(uuid.getLeastSignificantBits(), data, Long.SIZE / Byte.SIZE);
+			return data;
+		}
+
+		@Override
+		public UUID decodeUuid(final ZFrame frame) {
+			final byte[] data = frame.getData();
+			checkArgument(data.length == BINARY_UUID_SIZE, "Binary UUID must be %s bytes long, but was %s.", BINARY_UUID_SIZE, data.length);
+			return new UUID(fromBytes(data, 0), fromBytes(data, Long.SIZE / Byte.SIZE));
+		}
+
+		@Override
+		public byte[] encode(final long sequenceNumber) {
+			final byte[] data = new byte[BINARY_SEQUENCE_NUMBER_SIZE];
+			toBytes(sequenceNumber, data, 0);
+			return data;
+		}
+
+		@Override
+		public long decodeSequenceNumber(final ZFrame frame) {
+			final byte[] data = frame.getData();
+			if (data == null || data.length != BINARY_SEQUENCE_NUMBER_SIZE)
+				throw new NumberFormatException("Binary sequence number must be " + BINARY_SEQUENCE_NUMBER_SIZE + " bytes long.");
+			return fromBytes(data, 0);
+		}
+	};
+
+	public static final int STRING_UUID_SIZE = 36;
+	public static final int BINARY_UUID_SIZE = 16;
+	public static final int BINARY_SEQUENCE_NUMBER_SIZE = 8;
+
+	private static final byte DASH = '-';
+	private static final byte[] HEXADECIMALS = "0123456789abcdef".getBytes(ZMQ.CHARSET);
+
+	public abstract byte[] encode(final Command command);
+
+	public abstract byte[] encode(final UUID uuid);
+
+	public abstract UUID decodeUuid(final ZFrame frame);
+
+	public abstract byte[] encode(final long sequenceNumber);
+
+	public abstract long decodeSequenceNumber(final ZFrame frame);
+
+	/**
+	 * Decode a number (offset, size, ...), encoded with {@link #encode(long)}, like sequence numbers.
+	 */
+	public long decodeNumber(final ZFrame frame) {
+		return decodeSequenceNumber(frame);
+	}
+
+	/**
+	 * Detect the codec used to encode the provided UUID frame, based on its size.
+	 */
+	public static Codec of(final ZFrame uuid) {
+		return (uuid.size() == BINARY_UUID_SIZE) ? BINARY : STRING;
+	}
+
+	/**
+	 * Detect the codec used to encode the provided command frame: {@link #BINARY} commands are one-byte opcodes.
+	 */
+	public static Codec ofCommand(final ZFrame command) {
+		return (command.size() == 1) ? BINARY : STRING;
+	}
+
+	/**
+	 * Parse the provided codec name, falling back on {@link #STRING}, which all peers understand, if invalid.
+	 */
+	public static Codec parse(final String string) {
+		for (final Codec codec : values())
+			if (codec.name().equals(string))
+				return codec;
+		return STRING;
+	}
+
+	private static void toHex(final long value, final byte[] data, final int from, final int to) {
+		long remaining = value;
+		for (int i = to - 1; i >= from; --i) {
+			data[i] = HEXADECIMALS[(int) (remaining & 0xF)];
+			remaining >>>= 4;
+		}
+	}
+
+	private static long fromHex(final byte[] data, final int from, final int to) {
+		long value = 0L;
+		for (int i = from; i < to; ++i)
+			value = (value << 4) | hexDigit(data[i]);
+		return value;
+	}
+
+	private static int hexDigit(final byte digit) {
+		if (digit >= '0' && digit <= '9')
+			return digit - '0';
+		if (digit >= 'a' && digit <= 'f')
+			return digit - 'a' + 10;
+		if (digit >= 'A' && digit <= 'F')
+			return digit - 'A' + 10;
+		throw new IllegalArgumentException("Invalid hexadecimal digit [" + (char) digit + "] in UUID.");
+	}
+
+	private static void checkDashes(final byte[] data) {
+		if (data[8] != DASH || data[13] != DASH || data[18] != DASH || data[23] != DASH)
+			throw new IllegalArgumentException("Invalid UUID string: dashes are missing.");
+	}
+
+	private static void toBytes(final long value, final byte[] data, final int offset) {
+		for (int i = 7; i >= 0; --i)
+			data[offset + 7 - i] = (byte) (value >>> (i * Byte.SIZE));
+	}
+
+	private static long fromBytes(final byte[] data, final int offset) {
+		long value = 0L;
+		for (int i = 0; i < 8; ++i)
+			value = (value << Byte.SIZE) | (data[offset + i] & 0xFF);
+		return value;
+	}
+}
@@ -1,25 +1,84 @@
 package com.carmatech.zeromq.api;
 
-import org.apache.commons.lang3.StringUtils;
+import java.util.Arrays;
 
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+
+/**
+ * Commands of the {@link Protocol}, which are sent either: <br />
+ * - as their name (e.g. "REQUEST"), or as a decimal number for {@link #SEQUENCE_NUMBER}, with {@link Codec#STRING}, <br />
+ * - as a one-byte opcode frame, with {@link Codec#BINARY}, sequence numbers then being sent in a separate frame. <br />
+ * Opcodes are all below '0' in the ASCII table, so that they never collide with single-digit sequence numbers.
+ */
 public enum Command {
-	CONNECT, PING, PONG, REQUEST, SEQUENCE_NUMBER, OK, ERROR, UNKNOWN;
+	CONNECT(0x01), PING(0x02), PONG(0x03), REQUEST(0x04), SEQUENCE_NUMBER(0x05), OK(0x06), ERROR(0x07), UNKNOWN(0x08), MREQUEST(0x09), FETCH(0x0A), CHUNK(0x0B), CREDIT(0x0C), CANCEL(0x0D), STATS(0x0E), NOT_FOUND(0x0F);
+
+	private static final Command[] BY_OPCODE = new Command[0x10];
+	private static final Command[] VALUES = values();
+
+	static {
+		for (final Command command : VALUES)
+			BY_OPCODE[command.opcode] = command;
+	}
+
+	private final byte opcode;
+	private final byte[] name;
+
+	private Command(final int opcode) {
+		this.opcode = (byte) opcode;
+		this.name = name().getBytes(ZMQ.CHARSET);
+	}
+
+	public byte opcode() {
+		return opcode;
+	}
+
+	/**
+	 * @return a copy of the pre-encoded name of this command.
+	 */
+	public byte[] encodedName() {
+		return name.clone();
+	}
 
 	public static Command parse(final String string) {
 		if (string == null || string.isEmpty())
 			return UNKNOWN;
 
-		if (StringUtils.isNumeric(string))
-			return SEQUENCE_NUMBER;
+		return parse(string.getBytes(ZMQ.CHARSET));
+	}
+
+	/**
+	 * Parse the command straight from the frame's bytes, be it an opcode, a name or a sequence number.
+	 */
+	public static Command decode(final ZFrame frame) {
+		if (frame == null || !frame.hasData())
+			return UNKNOWN;
 
-		return tryParse(string);
+		return parse(frame.getData());
 	}
 
-	private static Command tryParse(final String string) {
-		try {
-			return valueOf(string);
-		} catch (Exception e) {
+	private static Command parse(final byte[] data) {
+		if (data.length == 0)
 			return UNKNOWN;
-		}
+
+		if (data.length == 1 && data[0] >= 0 && data[0] < BY_OPCODE.length && BY_OPCODE[data[0]] != null)
+			return BY_OPCODE[data[0]];
+
+		if (isNumeric(data))
+			return SEQUENCE_NUMBER;
+
+		for (final Command command : VALUES)
+			if (Arrays.equals(command.name, data))
+				return command;
+
+		return UNKNOWN;
+	}
+
+	private static boolean isNumeric(final byte[] data) {
+		for (final byte digit : data)
+			if (digit < '0' || digit > '9')
+				return false;
+		return true;
 	}
 }
@@ -0,0 +1,21 @@
+package com.carmatech.zeromq.api;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.zeromq.ZFrame;
+
+/**
+ * Frame whose content never changes, e.g. a pre-encoded command or identity, shared by all the messages it is added to. <br />
+ * It is never destroyed, so that it can be sent again and again, from any thread, without ever being re-allocated.
+ */
+@Immutable
+final class ConstantFrame extends ZFrame {
+	ConstantFrame(final byte[] data) {
+		super(data);
+	}
+
+	@Override
+	public void destroy() {
+		// No-op: shared with other messages.
+	}
+}
@@ -0,0 +1,70 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.UUID;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Approximate access frequency of UUIDs, in constant memory: count-min sketch of 4-bit counters. <br />
+ * Counters are halved every "10 x width" increments, so that past popularity fades away, and a new hot UUID can eventually win over an old one.
+ */
+@NotThreadSafe
+final class FrequencySketch {
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final int MAX_COUNT = 15;
+
+	private final byte[][] counters = new byte[SEEDS.length][];
+	private final int mask;
+	private final int sampleSize;
+	private int increments = 0;
+
+	/**
+	 * @param width
+	 *            Number of counters per row: a power of two, ideally greater than the number of distinct UUIDs in a sample.
+	 */
+	public FrequencySketch(final int width) {
+		checkArgument(width > 0 && Integer.bitCount(width) == 1, "Width must be a strictly positive power of two, but was [%s].", width);
+		for (int i = 0; i < SEEDS.length; ++i)
+			counters[i] = new byte[width];
+		this.mask = width - 1;
+		this.sampleSize = 10 * width;
+	}
+
+	public void increment(final UUID uuid) {
+		final long hash = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+		boolean isIncremented = false;
+		for (int i = 0; i < SEEDS.length; ++i) {
+			final int index = index(hash, i);
+			if (counters[i][index] < MAX_COUNT) {
+				++counters[i][index];
+				isIncremented = true;
+			}
+		}
+
+		if (isIncremented && (++increments >= sampleSize))
+			age();
+	}
+
+	public int frequency(final UUID uuid) {
+		final long hash = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; ++i)
+			frequency = Math.min(frequency, counters[i][index(hash, i)]);
+		return frequency;
+	}
+
+	private int index(final long hash, final int row) {
+		long mixed = (hash + SEEDS[row]) * SEEDS[row];
+		mixed ^= mixed >>> 32;
+		return (int) mixed & mask;
+	}
+
+	private void age() {
+		for (final byte[] row : counters)
+			for (int i = 0; i < row.length; ++i)
+				row[i] >>= 1;
+		increments /= 2;
+	}
+}
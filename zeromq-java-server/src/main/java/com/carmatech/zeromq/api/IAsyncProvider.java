@@ -0,0 +1,26 @@
+package com.carmatech.zeromq.api;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Asynchronous provider of payloads, e.g. backed by a remote store, so that slow lookups do not pin the threads and sockets serving requests. <br />
+ * Blocking {@link IBufferProvider}s can be adapted with {@link Providers#async(IBufferProvider, com.google.common.util.concurrent.ListeningExecutorService)}.
+ */
+public interface IAsyncProvider {
+
+	/**
+	 * MUST NOT block: the lookup should complete the returned future from another thread.
+	 * 
+	 * @return a future of the payload for the provided UUID, between the buffer's position and limit, or of null if none.
+	 */
+	ListenableFuture<ByteBuffer> apply(final UUID uuid);
+
+	/**
+	 * Same as {@link IBufferProvider#release(UUID, ByteBuffer)}.
+	 */
+	void release(final UUID uuid, final ByteBuffer buffer);
+
+}
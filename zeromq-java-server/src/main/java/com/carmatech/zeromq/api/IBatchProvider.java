@@ -0,0 +1,26 @@
+package com.carmatech.zeromq.api;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Provider of payloads looked up many at a time, e.g. backed by a database where querying 200 keys costs about as much as querying 1. <br />
+ * Requests are gathered into micro-batches by {@link BatchingProvider}, see {@link Providers#batched(IBatchProvider, int, com.carmatech.zeromq.utilities.Duration, java.util.concurrent.ScheduledExecutorService)}.
+ */
+public interface IBatchProvider {
+
+	/**
+	 * @param uuids
+	 *            Distinct UUIDs to look up.
+	 * @return the payloads found, by UUID, between each buffer's position and limit: UUIDs without payload may be missing or mapped to null.
+	 */
+	Map<UUID, ByteBuffer> apply(final List<UUID> uuids);
+
+	/**
+	 * Same as {@link IBufferProvider#release(UUID, ByteBuffer)}, called once per payload returned by {@link #apply(List)}.
+	 */
+	void release(final UUID uuid, final ByteBuffer buffer);
+
+}
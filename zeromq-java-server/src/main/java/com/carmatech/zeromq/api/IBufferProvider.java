@@ -0,0 +1,23 @@
+package com.carmatech.zeromq.api;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Provider of payloads as {@link ByteBuffer}s, e.g. slices of direct or memory-mapped buffers, sent without first being copied to a heap byte[]. <br />
+ * Alternative to {@code Function<UUID, byte[]>} providers, which can be adapted with {@link Providers#of(com.google.common.base.Function)}.
+ */
+public interface IBufferProvider {
+
+	/**
+	 * @return the payload for the provided UUID, between the buffer's position and limit, or null if none.
+	 */
+	ByteBuffer apply(final UUID uuid);
+
+	/**
+	 * Called once the buffer returned by {@link #apply(UUID)} has been handed over to ZeroMQ, or dropped. <br />
+	 * WARNING: ZeroMQ may still read the buffer until it is written to the wire, so its content must NOT be overwritten right away.
+	 */
+	void release(final UUID uuid, final ByteBuffer buffer);
+
+}
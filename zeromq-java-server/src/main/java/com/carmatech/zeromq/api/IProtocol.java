@@ -1,10 +1,13 @@
 package com.carmatech.zeromq.api;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 
 import org.zeromq.ZMsg;
 
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public interface IProtocol {
 
@@ -12,14 +15,34 @@ public interface IProtocol {
 
 	ZMsg ping(final String destination);
 
+	ZMsg ping(final String destination, final Codec offeredCodec);
+
 	ZMsg pong(final String destination);
 
+	ZMsg stats(final String destination);
+
+	ZMsg stats(final ZMsg request, final Map<String, Long> stats);
+
 	ZMsg request(final String destination, final UUID uuid);
 
 	ZMsg request(final String destination, final UUID uuid, final int sequenceNumber);
 
+	ZMsg request(final String destination, final UUID uuid, final long sequenceNumber, final Codec codec);
+
+	ZMsg request(final String destination, final Collection<UUID> uuids);
+
+	ZMsg request(final String destination, final Collection<UUID> uuids, final long sequenceNumber, final Codec codec);
+
+	ZMsg fetch(final String destination, final UUID uuid, final long sequenceNumber, final long offset, final int chunkSize, final Codec codec);
+
 	ZMsg reply(final ZMsg request, Function<UUID, byte[]> provider);
 
+	ZMsg reply(final ZMsg request, IBufferProvider provider);
+
+	ListenableFuture<ZMsg> reply(final ZMsg request, IAsyncProvider provider);
+
 	ZMsg error(final String destination, final String errorMessage);
 
+	ZMsg error(final ZMsg request, final String errorMessage);
+
 }
\ No newline at end of file
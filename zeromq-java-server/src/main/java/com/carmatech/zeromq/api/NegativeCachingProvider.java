@@ -0,0 +1,134 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Ticker;
+
+/**
+ * Cache of the UUIDs a provider has no payload for, so that requests for unknown UUIDs, replied to with NOT_FOUND, do NOT hit the backing store every
+ * time. <br />
+ * Bounded by its number of entries, the oldest being evicted first, and with its own TTL, typically much shorter than that of payloads: a UUID
+ * created in the backing store is found at the latest once its negative entry expires, or right away if {@link #invalidate(UUID)} is called.
+ */
+@ThreadSafe
+public final class NegativeCachingProvider implements IBufferProvider {
+	private final IBufferProvider provider;
+	private final int maxEntries;
+	private final long ttlInNanos;
+	private final Ticker ticker;
+
+	// Guarded by this:
+	private final Map<UUID, Long> expiries = new LinkedHashMap<UUID, Long>(); // Oldest, thus first to expire, first.
+	private long invalidations = 0L; // UUIDs found missing are only remembered if none happened since their lookup.
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public NegativeCachingProvider(final IBufferProvider provider, final int maxEntries, final Duration ttl) {
+		this(provider, maxEntries, ttl, Ticker.systemTicker());
+	}
+
+	public NegativeCachingProvider(final IBufferProvider provider, final int maxEntries, final Duration ttl, final Ticker ticker) {
+		this.provider = checkNotNull(provider, "Provider must NOT be null.");
+		checkArgument(maxEntries > 0, "Maximum number of entries must be strictly positive, but was [%s].", maxEntries);
+		this.maxEntries = maxEntries;
+		this.ttlInNanos = checkNotNull(ttl, "TTL must NOT be null.").toNanos();
+		this.ticker = checkNotNull(ticker, "Time ticker must NOT be null.");
+	}
+
+	@Override
+	public ByteBuffer apply(final UUID uuid) {
+		if (isKnownMissing(uuid)) {
+			hits.incrementAndGet();
+			return null;
+		}
+
+		final long invalidationsAtLookup = invalidations();
+		final ByteBuffer payload = provider.apply(uuid);
+		if (payload == null) {
+			misses.incrementAndGet();
+			remember(uuid, invalidationsAtLookup);
+		}
+		return payload;
+	}
+
+	private synchronized boolean isKnownMissing(final UUID uuid) {
+		final Long expiresAt = expiries.get(uuid);
+		if (expiresAt == null)
+			return false;
+		if (expiresAt - ticker.read() > 0)
+			return true;
+
+		expiries.remove(uuid);
+		return false;
+	}
+
+	private synchronized long invalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * The UUID may have been created, and invalidated, while being looked up: it is then NOT remembered, as its lookup may be stale.
+	 */
+	private synchronized void remember(final UUID uuid, final long invalidationsAtLookup) {
+		if (invalidations != invalidationsAtLookup)
+			return;
+
+		final long now = ticker.read();
+		expiries.remove(uuid); // Re-inserted last, as the latest to expire.
+		expiries.put(uuid, now + ttlInNanos);
+
+		final Iterator<Long> oldest = expiries.values().iterator();
+		while (oldest.hasNext()) {
+			final long expiresAt = oldest.next();
+			if (expiries.size() <= maxEntries && expiresAt - now > 0)
+				break;
+			oldest.remove(); // Expired, or evicted to make room.
+		}
+	}
+
+	@Override
+	public void release(final UUID uuid, final ByteBuffer buffer) {
+		provider.release(uuid, buffer);
+	}
+
+	/**
+	 * Forget that the provided UUID has no payload, e.g. once it is created in the backing store.
+	 */
+	public synchronized void invalidate(final UUID uuid) {
+		++invalidations;
+		expiries.remove(uuid);
+	}
+
+	/**
+	 * @return number of requests replied to as NOT_FOUND without calling the provider.
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of calls to the provider which found no payload.
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of UUIDs currently known to have no payload, some of which may have expired.
+	 */
+	public synchronized int size() {
+		return expiries.size();
+	}
+}
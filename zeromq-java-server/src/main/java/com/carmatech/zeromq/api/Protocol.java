@@ -1,23 +1,42 @@
 package com.carmatech.zeromq.api;
 
+import static com.carmatech.zeromq.api.Command.CHUNK;
 import static com.carmatech.zeromq.api.Command.CONNECT;
 import static com.carmatech.zeromq.api.Command.ERROR;
+import static com.carmatech.zeromq.api.Command.FETCH;
+import static com.carmatech.zeromq.api.Command.MREQUEST;
+import static com.carmatech.zeromq.api.Command.NOT_FOUND;
 import static com.carmatech.zeromq.api.Command.OK;
 import static com.carmatech.zeromq.api.Command.PING;
 import static com.carmatech.zeromq.api.Command.PONG;
 import static com.carmatech.zeromq.api.Command.REQUEST;
+import static com.carmatech.zeromq.api.Command.STATS;
 import static com.carmatech.zeromq.api.Command.UNKNOWN;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.utilities.Duration;
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 /**
  * {@link Protocol} follows this general structure: <br/>
@@ -39,10 +58,36 @@ import com.google.common.base.Function;
 public final class Protocol implements IProtocol {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Protocol.class);
 
-	private final String source;
+	public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	/** Message of the ERROR replied to requests rejected by an overloaded server: the requester should try another server. **/
+	public static final String BUSY = "BUSY";
+
+	private static final long DEFAULT_TRANSFERS_MAX_BYTES = 64 * 1024 * 1024;
+	private static final Duration DEFAULT_TRANSFERS_EXPIRY = new Duration(30, TimeUnit.SECONDS);
+	private static final byte[] EMPTY = new byte[0];
+
+	private static final ZFrame[][] HEADERS = new ZFrame[Codec.values().length][Command.values().length]; // Pre-encoded commands, by codec.
+	private static final ZFrame[] CODECS = new ZFrame[Codec.values().length]; // Pre-encoded codec names.
+
+	static {
+		for (final Codec codec : Codec.values()) {
+			CODECS[codec.ordinal()] = new ConstantFrame(codec.name().getBytes(ZMQ.CHARSET));
+			for (final Command command : Command.values())
+				HEADERS[codec.ordinal()][command.ordinal()] = new ConstantFrame(codec.encode(command));
+		}
+	}
+
+	private final ZFrame source; // Pre-encoded identity.
+	private final ChunkedTransfers transfers;
 
 	public Protocol(final String source) {
-		this.source = validate(source, "Source's identity");
+		this(source, new ChunkedTransfers(DEFAULT_TRANSFERS_MAX_BYTES, DEFAULT_TRANSFERS_EXPIRY));
+	}
+
+	public Protocol(final String source, final ChunkedTransfers transfers) {
+		this.source = new ConstantFrame(validate(source, "Source's identity").getBytes(ZMQ.CHARSET));
+		this.transfers = checkNotNull(transfers, "Chunked transfers must NOT be null.");
 	}
 
 	private static String validate(final String value, final String name) {
@@ -60,7 +105,7 @@ public final class Protocol implements IProtocol {
 	 *            Destination of this message.
 	 * @return Message pre-configured with provided destination, provided command and current agent's identity.
 	 */
-	private ZMsg create(final String command, final String destination) {
+	private ZMsg create(final ZFrame command, final ZFrame destination) {
 		final ZMsg message = new ZMsg();
 		message.add(destination);
 		message.add(command);
@@ -68,28 +113,35 @@ public final class Protocol implements IProtocol {
 		return message;
 	}
 
-	private ZMsg create(final String command, final ZFrame destination) {
-		final ZMsg message = new ZMsg();
-		message.add(destination);
-		message.add(command);
-		message.add(source);
-		return message;
+	private ZMsg create(final ZFrame command, final String destination) {
+		return create(command, new ZFrame(destination));
+	}
+
+	private ZMsg create(final Command command, final Codec codec, final ZFrame destination) {
+		return create(header(command, codec), destination);
+	}
+
+	private ZMsg create(final Command command, final Codec codec, final String destination) {
+		return create(header(command, codec), destination);
 	}
 
 	private ZMsg create(final Command command, final ZFrame destination) {
-		final ZMsg message = new ZMsg();
-		message.add(destination);
-		message.add(command.toString());
-		message.add(source);
-		return message;
+		return create(command, Codec.STRING, destination);
 	}
 
 	private ZMsg create(final Command command, final String destination) {
-		return create(command.toString(), destination);
+		return create(command, Codec.STRING, destination);
+	}
+
+	/**
+	 * {@link Codec#STRING}'s legacy request: the sequence number replaces the command.
+	 */
+	private ZMsg create(final long sequenceNumber, final String destination) {
+		return create(new ZFrame(Codec.STRING.encode(sequenceNumber)), destination);
 	}
 
-	private ZMsg create(final int command, final String destination) {
-		return create(Integer.toString(command), destination);
+	private static ZFrame header(final Command command, final Codec codec) {
+		return HEADERS[codec.ordinal()][command.ordinal()];
 	}
 
 	/**
@@ -128,6 +180,30 @@ public final class Protocol implements IProtocol {
 		return ping;
 	}
 
+	/**
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: PING            |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: Offered codec   |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * The PONG reply carries the codec accepted by the destination as an extra frame. Peers which do not know about codecs simply ignore the extra frame
+	 * and keep using {@link Codec#STRING}.
+	 */
+	@Override
+	public ZMsg ping(final String destination, final Codec offeredCodec) {
+		checkNotNull(offeredCodec, "%s must not be null.", "Offered codec");
+		final ZMsg ping = ping(destination);
+		ping.add(CODECS[offeredCodec.ordinal()]);
+		return ping;
+	}
+
 	/**
 	 * <pre>
 	 * +--------------------+
@@ -145,6 +221,60 @@ public final class Protocol implements IProtocol {
 		return create(PONG, destination);
 	}
 
+	/**
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: STATS           |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * </pre>
+	 */
+	@Override
+	public ZMsg stats(final String destination) {
+		validate(destination, "Destination's endpoint");
+		return create(STATS, destination);
+	}
+
+	/**
+	 * Reply to the provided STATS request with the provided metrics, as pairs of frames:
+	 * 
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: STATS           |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: Name            |
+	 * +--------------------+
+	 * | 4: Value           |
+	 * +--------------------+
+	 * | ...                |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * The request is destroyed.
+	 */
+	@Override
+	public ZMsg stats(final ZMsg request, final Map<String, Long> stats) {
+		checkNotNull(request, "%s must not be null.", "Request");
+		checkNotNull(stats, "%s must not be null.", "Stats");
+		try {
+			final ZMsg reply = create(STATS, request.pop());
+			for (final Map.Entry<String, Long> stat : stats.entrySet()) {
+				reply.add(stat.getKey());
+				reply.add(String.valueOf(stat.getValue()));
+			}
+			return reply;
+		} finally {
+			request.destroy();
+		}
+	}
+
 	/**
 	 * <pre>
 	 * +--------------------+
@@ -163,7 +293,7 @@ public final class Protocol implements IProtocol {
 		checkNotNull(uuid, "%s must not be null.", "Requested UUID");
 		validate(destination, "Destination's endpoint");
 		final ZMsg request = create(REQUEST, destination);
-		request.add(uuid.toString());
+		request.add(Codec.STRING.encode(uuid));
 		return request;
 	}
 
@@ -185,12 +315,222 @@ public final class Protocol implements IProtocol {
 		checkNotNull(uuid, "%s must not be null.", "Requested UUID");
 		validate(destination, "Destination's endpoint");
 		final ZMsg request = create(sequenceNumber, destination);
-		request.add(uuid.toString());
+		request.add(Codec.STRING.encode(uuid));
+		return request;
+	}
+
+	/**
+	 * {@link Codec#STRING}: same as {@link #request(String, UUID, int)}. <br />
+	 * {@link Codec#BINARY}:
+	 * 
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: REQUEST (1B)    |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: ID request (8B) |
+	 * +--------------------+
+	 * | 4: UUID (16B)      |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * And its reply:
+	 * 
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: OK (1B)         |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: ID request (8B) |
+	 * +--------------------+
+	 * | 4: UUID (16B)      |
+	 * +--------------------+
+	 * | 5: Payload         |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * Or, if the provider has no payload for the UUID, the same reply without payload, and with NOT_FOUND (1B) instead of OK. <br />
+	 * With {@link Codec#STRING}, the reply to a UUID without payload still carries an empty payload, as legacy requesters expect.
+	 */
+	@Override
+	public ZMsg request(final String destination, final UUID uuid, final long sequenceNumber, final Codec codec) {
+		checkNotNull(uuid, "%s must not be null.", "Requested UUID");
+		checkNotNull(codec, "%s must not be null.", "Codec");
+		validate(destination, "Destination's endpoint");
+		if (codec == Codec.STRING) {
+			final ZMsg request = create(sequenceNumber, destination);
+			request.add(codec.encode(uuid));
+			return request;
+		}
+
+		final ZMsg request = create(REQUEST, codec, destination);
+		request.add(codec.encode(sequenceNumber));
+		request.add(codec.encode(uuid));
+		return request;
+	}
+
+	/**
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: MREQUEST        |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: UUID 1          |
+	 * +--------------------+
+	 * | ...                |
+	 * +--------------------+
+	 * | N+2: UUID N        |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * And its reply, with one (UUID, payload) pair per requested UUID, in the same order:
+	 * 
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: OK              |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: UUID 1          |
+	 * +--------------------+
+	 * | 4: Payload 1       |
+	 * +--------------------+
+	 * | ...                |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * UUIDs the provider has no payload for are left out of the pairs, and listed after a NOT_FOUND frame instead, in the same order:
+	 * 
+	 * <pre>
+	 * +--------------------+
+	 * | ...                |
+	 * +--------------------+
+	 * | F+2: Payload F     |
+	 * +--------------------+
+	 * | F+3: NOT_FOUND     |
+	 * +--------------------+
+	 * | F+4: UUID 1        |
+	 * +--------------------+
+	 * | ...                |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * If none of the UUIDs has a payload, the reply is NOT_FOUND instead of OK, followed by the UUIDs: [NOT_FOUND][source]([UUID])*N.
+	 */
+	@Override
+	public ZMsg request(final String destination, final Collection<UUID> uuids) {
+		validate(uuids);
+		validate(destination, "Destination's endpoint");
+		final ZMsg request = create(MREQUEST, destination);
+		for (final UUID uuid : uuids)
+			request.add(Codec.STRING.encode(uuid));
 		return request;
 	}
 
+	/**
+	 * Same as {@link #request(String, Collection)}, with the ID of the request inserted right after the source's ID, in both the request and its reply.
+	 * With {@link Codec#BINARY}, MREQUEST and OK are sent as opcodes.
+	 */
+	@Override
+	public ZMsg request(final String destination, final Collection<UUID> uuids, final long sequenceNumber, final Codec codec) {
+		validate(uuids);
+		checkNotNull(codec, "%s must not be null.", "Codec");
+		validate(destination, "Destination's endpoint");
+		final ZMsg request = create(MREQUEST, codec, destination);
+		request.add(codec.encode(sequenceNumber));
+		for (final UUID uuid : uuids)
+			request.add(codec.encode(uuid));
+		return request;
+	}
+
+	/**
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: FETCH           |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: ID request      |
+	 * +--------------------+
+	 * | 4: UUID            |
+	 * +--------------------+
+	 * | 5: Offset          |
+	 * +--------------------+
+	 * | 6: Chunk size      |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * And its reply, carrying at most chunk size bytes of the payload, starting at offset:
+	 * 
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: CHUNK           |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: ID request      |
+	 * +--------------------+
+	 * | 4: UUID            |
+	 * +--------------------+
+	 * | 5: Offset          |
+	 * +--------------------+
+	 * | 6: Total size      |
+	 * +--------------------+
+	 * | 7: Chunk           |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * Each chunk is fetched independently: the requester controls the flow by only keeping as many FETCH in flight as it has credit for, and simply
+	 * fetches again any chunk it did not get. Chunks fetched past the end of the payload are empty.
+	 */
+	@Override
+	public ZMsg fetch(final String destination, final UUID uuid, final long sequenceNumber, final long offset, final int chunkSize, final Codec codec) {
+		checkNotNull(uuid, "%s must not be null.", "Requested UUID");
+		checkNotNull(codec, "%s must not be null.", "Codec");
+		checkArgument(offset >= 0, "Offset must be positive, but was [%s].", offset);
+		checkArgument(chunkSize > 0 && chunkSize <= MAX_CHUNK_SIZE, "Chunk size must be in ]0, %s], but was [%s].", MAX_CHUNK_SIZE, chunkSize);
+		validate(destination, "Destination's endpoint");
+		final ZMsg fetch = create(FETCH, codec, destination);
+		fetch.add(codec.encode(sequenceNumber));
+		fetch.add(codec.encode(uuid));
+		fetch.add(codec.encode(offset));
+		fetch.add(codec.encode(chunkSize));
+		return fetch;
+	}
+
+	private static void validate(final Collection<UUID> uuids) {
+		checkNotNull(uuids, "%s must not be null.", "Requested UUIDs");
+		checkArgument(!uuids.isEmpty(), "%s must NOT be empty.", "Requested UUIDs");
+		for (final UUID uuid : uuids)
+			checkNotNull(uuid, "%s must not be null.", "Requested UUID");
+	}
+
 	@Override
 	public ZMsg reply(final ZMsg request, final Function<UUID, byte[]> provider) {
+		checkNotNull(provider, "%s must not be null.", "Provider");
+		return reply(request, Providers.of(provider));
+	}
+
+	/**
+	 * Payloads are added to the reply as frames over the provider's buffers, released once the reply is sent or destroyed.
+	 */
+	@Override
+	public ZMsg reply(final ZMsg request, final IBufferProvider provider) {
 		checkNotNull(provider, "%s must not be null.", "Provider");
 		try {
 			log(request);
@@ -202,61 +542,294 @@ public final class Protocol implements IProtocol {
 		}
 	}
 
-	private ZMsg tryReply(final ZMsg request, final Function<UUID, byte[]> provider) {
+	/**
+	 * Asynchronous version of {@link #reply(ZMsg, IBufferProvider)}: the payloads of all requested UUIDs are looked up concurrently, and the reply is
+	 * built on the thread completing the last lookup. If any lookup fails, or building the reply does, the reply is an ERROR: the returned future
+	 * never fails, so that the request is always replied to.
+	 */
+	@Override
+	public ListenableFuture<ZMsg> reply(final ZMsg request, final IAsyncProvider provider) {
+		checkNotNull(provider, "%s must not be null.", "Provider");
+		final List<UUID> uuids = requestedUuids(request);
+		if (uuids.isEmpty()) // E.g. PING, or FETCH of an open transfer.
+			return Futures.immediateFuture(reply(request, new CompletedPayloads(Collections.<ByteBuffer> emptyList(), provider)));
+
+		final List<ListenableFuture<ByteBuffer>> lookups = new ArrayList<ListenableFuture<ByteBuffer>>(uuids.size());
+		for (final UUID uuid : uuids)
+			lookups.add(provider.apply(uuid));
+
+		final SettableFuture<ZMsg> reply = SettableFuture.create();
+		Futures.addCallback(Futures.allAsList(lookups), new FutureCallback<List<ByteBuffer>>() {
+			@Override
+			public void onSuccess(final List<ByteBuffer> payloads) {
+				final ZMsg original = request.duplicate(); // Building the reply consumes the request: kept to reply with an ERROR should it fail.
+				try {
+					reply.set(reply(request, new CompletedPayloads(payloads, provider)));
+					original.destroy();
+				} catch (RuntimeException e) {
+					reply.set(failed(original, e));
+				}
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				releaseOnceComplete(uuids, lookups, provider);
+				reply.set(failed(request, t));
+			}
+		});
+		return reply;
+	}
+
+	/**
+	 * @return the UUIDs whose payload a reply to the provided request needs, without consuming the request.
+	 */
+	private List<UUID> requestedUuids(final ZMsg request) {
+		if (request.size() < 4)
+			return Collections.emptyList();
+
+		final Iterator<ZFrame> frames = request.iterator();
+		frames.next(); // Destination.
+		final ZFrame commandFrame = frames.next();
+		frames.next(); // Source.
+
+		switch (Command.decode(commandFrame)) {
+		case REQUEST:
+		case SEQUENCE_NUMBER:
+			return Collections.singletonList(decodeUuid(request.peekLast()));
+		case MREQUEST:
+			final List<UUID> uuids = new ArrayList<UUID>(request.size() - 3);
+			ZFrame frame = frames.next();
+			if (hasSequenceNumber(frame, Codec.ofCommand(commandFrame)))
+				frame = frames.hasNext() ? frames.next() : null;
+			for (; frame != null; frame = frames.hasNext() ? frames.next() : null)
+				uuids.add(decodeUuid(frame));
+			return uuids;
+		case FETCH:
+			frames.next(); // Sequence number.
+			final UUID uuid = decodeUuid(frames.next());
+			final Codec codec = Codec.ofCommand(commandFrame);
+			final long offset = codec.decodeNumber(frames.next());
+			final long chunkSize = codec.decodeNumber(frames.next());
+			if (!isValidChunk(offset, chunkSize))
+				return Collections.emptyList(); // Its reply is an ERROR: no payload to look up.
+			return transfers.isOpen(uuid) ? Collections.<UUID> emptyList() : Collections.singletonList(uuid);
+		default:
+			return Collections.emptyList();
+		}
+	}
+
+	private static boolean isValidChunk(final long offset, final long chunkSize) {
+		return offset >= 0 && chunkSize > 0;
+	}
+
+	private static UUID decodeUuid(final ZFrame uuid) {
+		return Codec.of(uuid).decodeUuid(uuid);
+	}
+
+	private static void releaseOnceComplete(final List<UUID> uuids, final List<ListenableFuture<ByteBuffer>> lookups, final IAsyncProvider provider) {
+		for (int i = 0; i < uuids.size(); ++i) {
+			final UUID uuid = uuids.get(i);
+			Futures.addCallback(lookups.get(i), new FutureCallback<ByteBuffer>() {
+				@Override
+				public void onSuccess(final ByteBuffer payload) {
+					if (payload != null)
+						provider.release(uuid, payload);
+				}
+
+				@Override
+				public void onFailure(final Throwable t) {
+					// Nothing to release.
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return an ERROR echoing the request's sequence number, if any, as for any other failed request: see {@link #error(ZMsg, String)}.
+	 */
+	private ZMsg failed(final ZMsg request, final Throwable t) {
+		LOGGER.warn("Failed to reply: replying with [" + ERROR + "].", t);
+		return error(request, String.valueOf(t.getMessage()));
+	}
+
+	/**
+	 * Payloads already looked up, in the order the reply asks for them. <br />
+	 * Should the reply ask for more, e.g. if a chunked transfer expired in the meantime, they are looked up again, blocking.
+	 */
+	private static final class CompletedPayloads implements IBufferProvider {
+		private final Iterator<ByteBuffer> payloads;
+		private final IAsyncProvider provider;
+
+		private CompletedPayloads(final List<ByteBuffer> payloads, final IAsyncProvider provider) {
+			this.payloads = payloads.iterator();
+			this.provider = provider;
+		}
+
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			return payloads.hasNext() ? payloads.next() : Futures.getUnchecked(provider.apply(uuid));
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			provider.release(uuid, buffer);
+		}
+	}
+
+	private ZMsg tryReply(final ZMsg request, final IBufferProvider provider) {
 		final ZFrame destination = request.pop();
-		final String commandAsString = request.popString();
-		final Command command = Command.parse(commandAsString);
-		final String source = request.popString();
+		final ZFrame commandFrame = request.pop();
+		final Command command = Command.decode(commandFrame);
+		final ZFrame source = request.pop();
 
-		return chooseReply(request, provider, destination, commandAsString, command, source);
+		return chooseReply(request, provider, destination, commandFrame, command, source);
 	}
 
-	private ZMsg chooseReply(final ZMsg request, final Function<UUID, byte[]> provider, final ZFrame destination, final String commandAsString,
-			final Command command, final String source) {
+	private ZMsg chooseReply(final ZMsg request, final IBufferProvider provider, final ZFrame destination, final ZFrame commandFrame,
+			final Command command, final ZFrame source) {
 		switch (command) {
 		case PING:
-			request.destroy();
-			return create(PONG, destination);
+			return doPong(request, destination);
 		case REQUEST:
-			return doReply(request, provider, destination);
+			return doReply(request, provider, destination, Codec.ofCommand(commandFrame));
 		case SEQUENCE_NUMBER:
-			return doReply(request, provider, destination, commandAsString);
+			return doReply(request, provider, destination, commandFrame);
+		case MREQUEST:
+			return doMultiReply(request, provider, destination, Codec.ofCommand(commandFrame));
+		case FETCH:
+			return doChunk(request, provider, destination, Codec.ofCommand(commandFrame));
 		default:
 			request.destroy();
-			return unknown(commandAsString, destination, source);
+			return unknown(commandFrame, destination, source);
 		}
 	}
 
-	private ZMsg doReply(final ZMsg request, final Function<UUID, byte[]> provider, final ZFrame destination, final String sequenceNumberAsString) {
-		final UUID uuid = extractUuidAndDestroy(request);
-		return buildReply(uuid, provider, create(sequenceNumberAsString, destination));
+	private ZMsg doPong(final ZMsg request, final ZFrame destination) {
+		final String offeredCodec = request.isEmpty() ? null : request.popString();
+		request.destroy();
+
+		final ZMsg pong = create(PONG, destination);
+		if (offeredCodec != null)
+			pong.add(CODECS[Codec.parse(offeredCodec).ordinal()]); // Accept any codec we know of, or fall back on STRING.
+		return pong;
 	}
 
-	private ZMsg doReply(final ZMsg request, final Function<UUID, byte[]> provider, final ZFrame destination) {
-		final UUID uuid = extractUuidAndDestroy(request);
-		return buildReply(uuid, provider, create(OK, destination));
+	private ZMsg doReply(final ZMsg request, final IBufferProvider provider, final ZFrame destination, final ZFrame sequenceNumber) {
+		final ZFrame uuidFrame = request.pop();
+		request.destroy(); // Free request's resources ASAP.
+		return buildReply(uuidFrame, provider, create(sequenceNumber, destination)); // Echo sequence number as-is.
 	}
 
-	private UUID extractUuidAndDestroy(final ZMsg request) {
-		final UUID uuid = UUID.fromString(request.popString());
+	private ZMsg doReply(final ZMsg request, final IBufferProvider provider, final ZFrame destination, final Codec codec) {
+		final ZFrame sequenceNumber = (request.size() == 2) ? request.pop() : null; // Binary codec: sequence number is in its own frame.
+		final ZFrame uuidFrame = request.pop();
 		request.destroy(); // Free request's resources ASAP.
-		return uuid;
+
+		final UUID uuid = Codec.of(uuidFrame).decodeUuid(uuidFrame);
+		final ByteBuffer payload = provider.apply(uuid);
+		final ZMsg reply = create((payload == null) ? NOT_FOUND : OK, codec, destination);
+		if (sequenceNumber != null)
+			reply.add(sequenceNumber); // Echo it as-is.
+		reply.add(uuidFrame); // Echo UUID in the codec it was sent in.
+		if (payload != null)
+			reply.add(new BufferFrame(uuid, payload, provider));
+		return reply;
+	}
+
+	private ZMsg doMultiReply(final ZMsg request, final IBufferProvider provider, final ZFrame destination, final Codec codec) {
+		final ZFrame sequenceNumber = (!request.isEmpty() && hasSequenceNumber(request.peek(), codec)) ? request.pop() : null;
+		final ZMsg found = new ZMsg(); // ([UUID][payload])*F
+		final ZMsg missing = new ZMsg(); // ([UUID])*M
+		try {
+			while (!request.isEmpty()) {
+				final ZFrame uuidFrame = request.pop();
+				final UUID uuid = Codec.of(uuidFrame).decodeUuid(uuidFrame);
+				final ByteBuffer payload = provider.apply(uuid);
+				if (payload == null) {
+					missing.add(uuidFrame);
+				} else {
+					found.add(uuidFrame);
+					found.add(new BufferFrame(uuid, payload, provider));
+				}
+			}
+		} catch (RuntimeException e) {
+			found.destroy(); // Release payloads already looked up.
+			missing.destroy();
+			throw e;
+		}
+
+		final boolean anyFound = !found.isEmpty();
+		final ZMsg reply = create(anyFound ? OK : NOT_FOUND, codec, destination);
+		if (sequenceNumber != null)
+			reply.add(sequenceNumber); // Echo it as-is.
+		moveFrames(found, reply);
+		if (anyFound && !missing.isEmpty())
+			reply.add(header(NOT_FOUND, codec));
+		moveFrames(missing, reply);
+		return reply;
+	}
+
+	private static void moveFrames(final ZMsg from, final ZMsg to) {
+		while (!from.isEmpty())
+			to.add(from.pop());
+	}
+
+	private static boolean hasSequenceNumber(final ZFrame first, final Codec codec) {
+		final int size = first.size();
+		return (codec == Codec.BINARY) ? (size == Codec.BINARY_SEQUENCE_NUMBER_SIZE) : (size != Codec.STRING_UUID_SIZE);
+	}
+
+	private ZMsg doChunk(final ZMsg request, final IBufferProvider provider, final ZFrame destination, final Codec codec) {
+		final ZFrame sequenceNumber = request.pop();
+		final ZFrame uuidFrame = request.pop();
+		final long offset = codec.decodeNumber(request.pop());
+		final long chunkSize = Math.min(codec.decodeNumber(request.pop()), MAX_CHUNK_SIZE);
+		request.destroy(); // Free request's resources ASAP.
+
+		if (!isValidChunk(offset, chunkSize)) {
+			final ZMsg error = create(ERROR, codec, destination);
+			error.add(sequenceNumber); // Echo it as-is.
+			error.add("Offset must be positive, and chunk size strictly positive, but were [" + offset + "] and [" + chunkSize + "].");
+			return error;
+		}
+
+		final UUID uuid = Codec.of(uuidFrame).decodeUuid(uuidFrame);
+		final ByteBuffer payload = transfers.payload(uuid, provider);
+		final int size = payload.remaining();
+		final int from = (int) Math.min(offset, size);
+		final int to = (int) Math.min(from + chunkSize, size);
+		payload.limit(payload.position() + to).position(payload.position() + from);
+
+		final ZMsg reply = create(CHUNK, codec, destination);
+		reply.add(sequenceNumber); // Echo sequence number and UUID as-is.
+		reply.add(uuidFrame);
+		reply.add(codec.encode(offset));
+		reply.add(codec.encode(size));
+		reply.add(new BufferFrame(uuid, payload, transfers.releaser())); // Slice of the transfer's payload: its view is released once sent.
+		return reply;
 	}
 
-	private ZMsg buildReply(final UUID uuid, final Function<UUID, byte[]> provider, final ZMsg reply) {
-		reply.add(uuid.toString());
-		reply.add(provider.apply(uuid));
+	private ZMsg buildReply(final ZFrame uuidFrame, final IBufferProvider provider, final ZMsg reply) {
+		final UUID uuid = Codec.of(uuidFrame).decodeUuid(uuidFrame);
+		reply.add(uuidFrame); // Echo UUID in the codec it was sent in.
+		final ByteBuffer payload = provider.apply(uuid);
+		reply.add((payload == null) ? new ZFrame(EMPTY) : new BufferFrame(uuid, payload, provider)); // Legacy requesters know no NOT_FOUND.
 		return reply;
 	}
 
-	private ZMsg unknown(final String commandAsString, final ZFrame destination, final String source) {
+	private ZMsg unknown(final ZFrame commandFrame, final ZFrame destination, final ZFrame source) {
+		final String commandAsString = toString(commandFrame); // Only ever built for invalid requests.
 		final Command unknown = UNKNOWN;
-		LOGGER.warn("Failed to handle [{}] request from [{}]: replying with [{}].", commandAsString, source, unknown);
+		LOGGER.warn("Failed to handle [{}] request from [{}]: replying with [{}].", commandAsString, toString(source), unknown);
 		final ZMsg reply = create(unknown, destination);
 		reply.add(commandAsString);
 		return reply;
 	}
 
+	private static String toString(final ZFrame frame) {
+		return (frame == null || !frame.hasData()) ? "" : new String(frame.getData(), ZMQ.CHARSET);
+	}
+
 	private void log(final ZMsg message) {
 		if (!LOGGER.isDebugEnabled())
 			return;
@@ -290,4 +863,63 @@ public final class Protocol implements IProtocol {
 		error.add(errorMessage);
 		return error;
 	}
+
+	/**
+	 * Reply to the provided request with an ERROR, in the request's codec, echoing its sequence number if it has any, so that the requester knows
+	 * which of its requests failed:
+	 * 
+	 * <pre>
+	 * +--------------------+
+	 * | 0: ID destination  |
+	 * +--------------------+
+	 * | 1: ERROR           |
+	 * +--------------------+
+	 * | 2: ID source       |
+	 * +--------------------+
+	 * | 3: ID request      |
+	 * +--------------------+
+	 * | 4: Message         |
+	 * +--------------------+
+	 * </pre>
+	 * 
+	 * The request is destroyed, and its payloads are never looked up.
+	 */
+	@Override
+	public ZMsg error(final ZMsg request, final String errorMessage) {
+		checkNotNull(request, "%s must not be null.", "Request");
+		try {
+			final ZFrame destination = request.pop();
+			final ZFrame commandFrame = request.pop();
+			final Command command = Command.decode(commandFrame);
+			final Codec codec = (command == Command.SEQUENCE_NUMBER) ? Codec.STRING : Codec.ofCommand(commandFrame); // Single-digit: NOT an opcode.
+			request.pop(); // Source.
+
+			final ZMsg error = create(ERROR, codec, destination);
+			final ZFrame sequenceNumber = sequenceNumberOf(request, command, commandFrame, codec);
+			if (sequenceNumber != null)
+				error.add(sequenceNumber); // Echo it as-is.
+			error.add(errorMessage);
+			return error;
+		} finally {
+			request.destroy();
+		}
+	}
+
+	/**
+	 * @return the request's sequence number, as sent, or null if none: the request's frames after its source are consumed.
+	 */
+	private static ZFrame sequenceNumberOf(final ZMsg request, final Command command, final ZFrame commandFrame, final Codec codec) {
+		switch (command) {
+		case SEQUENCE_NUMBER:
+			return commandFrame;
+		case REQUEST:
+			return (request.size() == 2) ? request.pop() : null;
+		case MREQUEST:
+			return (!request.isEmpty() && hasSequenceNumber(request.peek(), codec)) ? request.pop() : null;
+		case FETCH:
+			return request.pop();
+		default:
+			return null;
+		}
+	}
 }
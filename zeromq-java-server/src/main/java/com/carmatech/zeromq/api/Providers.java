@@ -0,0 +1,108 @@
+package com.carmatech.zeromq.api;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+public final class Providers {
+	private Providers() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	/**
+	 * Adapt the provided byte[] provider: payloads are wrapped, not copied.
+	 */
+	public static IBufferProvider of(final Function<UUID, byte[]> provider) {
+		checkNotNull(provider, "Provider must NOT be null.");
+		return new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				final byte[] payload = provider.apply(uuid);
+				return (payload == null) ? null : ByteBuffer.wrap(payload);
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				// No-op: heap buffers are simply garbage collected.
+			}
+		};
+	}
+
+	/**
+	 * Cache the payloads of the provided provider: see {@link CachingProvider}.
+	 * 
+	 * @param maxBytes
+	 *            Maximum total size of the cached payloads.
+	 * @param ttl
+	 *            Time after which a cached payload is loaded again.
+	 */
+	public static CachingProvider cached(final IBufferProvider provider, final long maxBytes, final Duration ttl) {
+		return new CachingProvider(provider, maxBytes, ttl);
+	}
+
+	/**
+	 * Remember which UUIDs the provided provider has no payload for: see {@link NegativeCachingProvider}.
+	 * 
+	 * @param maxEntries
+	 *            Maximum number of UUIDs remembered.
+	 * @param ttl
+	 *            Time after which the provider is asked again for a UUID it had no payload for.
+	 */
+	public static NegativeCachingProvider negativelyCached(final IBufferProvider provider, final int maxEntries, final Duration ttl) {
+		return new NegativeCachingProvider(provider, maxEntries, ttl);
+	}
+
+	/**
+	 * Merge concurrent requests for the same UUID into a single call to the provided provider: see {@link CoalescingProvider}.
+	 */
+	public static CoalescingProvider coalesced(final IBufferProvider provider) {
+		return new CoalescingProvider(provider);
+	}
+
+	/**
+	 * Gather requests into micro-batches looked up with a single call to the provided batch provider: see {@link BatchingProvider}.
+	 * 
+	 * @param maxBatchSize
+	 *            Maximum number of distinct UUIDs looked up per call.
+	 * @param window
+	 *            Maximum time a request waits for other requests to be batched with.
+	 * @param executor
+	 *            Executor running the lookups, owned by the caller.
+	 */
+	public static BatchingProvider batched(final IBatchProvider provider, final int maxBatchSize, final Duration window,
+			final ScheduledExecutorService executor) {
+		return new BatchingProvider(provider, maxBatchSize, window, executor);
+	}
+
+	/**
+	 * Adapt the provided blocking provider, by running its lookups in the provided executor.
+	 */
+	public static IAsyncProvider async(final IBufferProvider provider, final ListeningExecutorService executor) {
+		checkNotNull(provider, "Provider must NOT be null.");
+		checkNotNull(executor, "Executor must NOT be null.");
+		return new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				return executor.submit(new Callable<ByteBuffer>() {
+					@Override
+					public ByteBuffer call() {
+						return provider.apply(uuid);
+					}
+				});
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				provider.release(uuid, buffer);
+			}
+		};
+	}
+}
@@ -0,0 +1,141 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.carmatech.zeromq.api.Command.CANCEL;
+import static com.carmatech.zeromq.api.Command.CREDIT;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Command;
+
+/**
+ * Stream of the chunks of a transfer, as handed over by the {@link Manager} through {@link Completions}, until the end of the transfer, or its failure. <br />
+ * Each chunk taken grants one credit back to the {@link Manager}, so that the next chunk is only fetched once the previous one has been consumed. <br />
+ * Only reading is NOT thread-safe: chunks are offered by the pipeline's thread.
+ */
+@NotThreadSafe
+class ChunkedInputStream extends InputStream {
+	private static final byte[] EMPTY = new byte[0];
+	private static final byte[] END = new byte[0]; // Compared by identity.
+	private static final byte[] FAILED = new byte[0]; // Compared by identity.
+
+	private final Socket pipe; // Shared with the client: guarded by itself.
+	private final String destination;
+	private final long sequenceNumber;
+	private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>(); // Bounded by the transfer's window.
+
+	private byte[] chunk = EMPTY;
+	private int position = 0;
+	private boolean isEndOfStream = false;
+
+	public ChunkedInputStream(final Socket pipe, final String destination, final long sequenceNumber) {
+		this.pipe = checkNotNull(pipe, "Pipe socket must NOT be null.");
+		this.destination = checkNotNull(destination, "Destination must NOT be null.");
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	void offer(final byte[] chunk) {
+		chunks.add(chunk);
+	}
+
+	void end() {
+		chunks.add(END);
+	}
+
+	void fail() {
+		chunks.add(FAILED);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!hasRemaining())
+			return -1;
+		return chunk[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+		checkPositionIndexes(offset, offset + length, buffer.length);
+		if (length == 0)
+			return 0;
+		if (!hasRemaining())
+			return -1;
+
+		final int read = Math.min(length, chunk.length - position);
+		System.arraycopy(chunk, position, buffer, offset, read);
+		position += read;
+		return read;
+	}
+
+	@Override
+	public int available() {
+		return chunk.length - position;
+	}
+
+	private boolean hasRemaining() throws IOException {
+		if (position < chunk.length)
+			return true;
+		if (isEndOfStream)
+			return false;
+
+		chunk = receive();
+		position = 0;
+		if (chunk.length == 0)
+			return false;
+
+		send(CREDIT);
+		return true;
+	}
+
+	private byte[] receive() throws IOException {
+		final byte[] data;
+		try {
+			data = chunks.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Transfer has been interrupted.");
+		}
+
+		if (data == FAILED) {
+			isEndOfStream = true;
+			throw new IOException("Transfer failed: no server replied in time.");
+		}
+		if (data == END)
+			isEndOfStream = true;
+		return data;
+	}
+
+	private void send(final Command command) {
+		final ZMsg message = new ZMsg();
+		message.add(destination);
+		message.add(command.toString());
+		message.add(Long.toString(sequenceNumber));
+		synchronized (pipe) {
+			message.send(pipe);
+		}
+	}
+
+	/**
+	 * Cancel the transfer if not complete yet, and discard whatever chunks were already handed over.
+	 */
+	@Override
+	public void close() {
+		if (!isEndOfStream) {
+			isEndOfStream = true;
+			send(CANCEL);
+		}
+		chunks.clear();
+		chunk = EMPTY;
+		position = 0;
+	}
+}
@@ -1,45 +1,91 @@
 package com.carmatech.zeromq.client.pull;
 
+import static com.carmatech.zeromq.api.Command.FETCH;
 import static com.carmatech.zeromq.utilities.ZeroMQ.createContext;
+import static com.carmatech.zeromq.utilities.ZeroMQ.isSigTerm;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.Closeable;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQException;
 import org.zeromq.ZMsg;
 import org.zeromq.ZThread;
 
+import com.carmatech.zeromq.api.Codec;
 import com.carmatech.zeromq.api.IProtocol;
 import com.carmatech.zeromq.api.Protocol;
+import com.carmatech.zeromq.utilities.LocalEndpoints;
 import com.carmatech.zeromq.utilities.LocalHost;
 import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Resilient, broker-less, request-reply client. <br />
- * Based on "Freelance pattern": http://rfc.zeromq.org/spec:10
+ * Based on "Freelance pattern": http://rfc.zeromq.org/spec:10 <br />
+ * Requests are pipelined: any number of them can be outstanding, from any number of threads, each one completing as soon as its reply arrives, in
+ * whatever order. At most "window" requests are in flight at any time, the others waiting for room in the window. <br />
+ * Requests are spread over the servers connected to as per the {@link ServerSelection}, and those slow to be replied to can be hedged to a second
+ * server: see {@link HedgingPolicy}. Repeated requests can be replied to from a {@link NearCache}, without any round trip. <br />
+ * All of which are set through {@link ClientOptions}.
  */
+@ThreadSafe
 public class Client implements Closeable {
 	private static final String UNUSED = "UNUSED";
 
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+	public static final int DEFAULT_WINDOW = 8;
+
 	private final ZContext context;
-	private final Socket pipe;
+	private final Socket pipe; // Guarded by itself.
 	private final IProtocol protocol;
+	private final Completions completions = new Completions();
+	private final AtomicLong sequenceNumber = new AtomicLong(); // Number of requests ever sent.
+	private final NearCache nearCache;
 
 	public Client() {
-		this(Ticker.systemTicker());
+		this(ClientOptions.DEFAULT);
 	}
 
 	public Client(final Ticker ticker) {
-		context = createContext();
-		pipe = ZThread.fork(context, new Pipeline(ticker));
+		this(ClientOptions.DEFAULT.withTicker(ticker));
+	}
+
+	public Client(final ClientOptions options) {
+		checkNotNull(options, "Options must NOT be null.");
+		context = createContext(options.transport());
+		pipe = ZThread.fork(context, new Pipeline(options, completions));
 		protocol = new Protocol(LocalHost.HOST_AND_IP);
+		nearCache = options.nearCache();
 	}
 
 	/**
-	 * Connect to the specified server. <br />
+	 * Client sharing the provided context, e.g. a co-located server's, which it does NOT terminate when closed: servers bound to INPROC in that
+	 * context are then connected to over INPROC.
+	 */
+	public Client(final ZContext shared, final ClientOptions options) {
+		checkNotNull(shared, "Context must NOT be null.");
+		checkNotNull(options, "Options must NOT be null.");
+		context = ZContext.shadow(shared);
+		pipe = ZThread.fork(context, new Pipeline(options, completions));
+		protocol = new Protocol(LocalHost.HOST_AND_IP);
+		nearCache = options.nearCache();
+	}
+
+	/**
+	 * Connect to the specified server, over the most local transport it is bound to: see {@link LocalEndpoints}. <br />
 	 * WARNING: Waits 100 milliseconds for the connection to come up, in order to avoid sending all requests to a single server, in case of multiple servers
 	 * being configured.
 	 * 
@@ -48,18 +94,124 @@ public class Client implements Closeable {
 	 */
 	public void connect(final String endpoint) {
 		final ZMsg connect = protocol.connect(endpoint);
-		connect.send(pipe);
+		final String localEndpoint = LocalEndpoints.preferred(endpoint, context);
+		if (!localEndpoint.equals(endpoint))
+			connect.add(localEndpoint);
+		send(connect);
 		Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
 	}
 
+	/**
+	 * Blocking version of {@link #requestAsync(UUID)}.
+	 */
 	public ZMsg request(final UUID uuid) {
-		final ZMsg request = protocol.request(UNUSED, uuid);
-		request.send(pipe);
-		return ZMsg.recvMsg(pipe);
+		return Futures.getUnchecked(requestAsync(uuid));
+	}
+
+	/**
+	 * Blocking version of {@link #requestAsync(Collection)}.
+	 */
+	public ZMsg request(final Collection<UUID> uuids) {
+		return Futures.getUnchecked(requestAsync(uuids));
+	}
+
+	/**
+	 * Same as {@link #requestAsync(Collection)}, for a single UUID.
+	 */
+	public ListenableFuture<ZMsg> requestAsync(final UUID uuid) {
+		checkNotNull(uuid, "Requested UUID must NOT be null.");
+		return requestAsync(Collections.singletonList(uuid));
+	}
+
+	/**
+	 * Request several UUIDs in a single round trip, without waiting for the reply. <br />
+	 * The reply contains one (UUID, payload) pair of frames per requested UUID found, in the order of the provided collection, followed by the UUIDs
+	 * the server has no payload for, if any: [OK][source]([UUID][payload])*F([NOT_FOUND]([UUID])*M). If none was found, the reply is
+	 * [NOT_FOUND][source]([UUID])*N, and if no server replied in time, [ERROR]. The returned future never fails. <br />
+	 * If all UUIDs are in the {@link NearCache}, the reply is built locally, with this process as its source.
+	 * 
+	 * @param uuids
+	 *            UUIDs to request, at least one.
+	 */
+	public ListenableFuture<ZMsg> requestAsync(final Collection<UUID> uuids) {
+		final ZMsg cached = nearCache.reply(uuids, LocalHost.HOST_AND_IP);
+		if (cached != null)
+			return Futures.immediateFuture(cached);
+
+		final long invalidations = nearCache.invalidations();
+		final long sequenceNumber = this.sequenceNumber.incrementAndGet();
+		final ZMsg request = protocol.request(UNUSED, uuids, sequenceNumber, Codec.STRING);
+		final ListenableFuture<ZMsg> reply = completions.register(sequenceNumber);
+		send(request);
+		return nearCache.isEnabled() ? Futures.transform(reply, nearCache.filler(invalidations)) : reply;
 	}
 
+	/**
+	 * Same as {@link #stream(UUID, int, int)}, with {@link #DEFAULT_CHUNK_SIZE} and {@link #DEFAULT_WINDOW}.
+	 */
+	public InputStream stream(final UUID uuid) {
+		return stream(uuid, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Request the payload for the provided UUID as a stream of chunks, which can be read before the last chunk arrives. <br />
+	 * At most "window" chunks are in flight or buffered at any time, so memory used by the transfer is bounded by (window + 1) * chunk size. <br />
+	 * The stream should be read until its end, or closed: the transfer fails if it is not read for too long.
+	 * 
+	 * @param uuid
+	 *            UUID to request.
+	 * @param chunkSize
+	 *            Size of each chunk, in bytes.
+	 * @param window
+	 *            Number of chunks to fetch ahead of the application.
+	 */
+	public InputStream stream(final UUID uuid, final int chunkSize, final int window) {
+		checkNotNull(uuid, "Requested UUID must NOT be null.");
+		checkArgument(chunkSize > 0 && chunkSize <= Protocol.MAX_CHUNK_SIZE, "Chunk size must be in ]0, %s], but was [%s].", Protocol.MAX_CHUNK_SIZE,
+				chunkSize);
+		checkArgument(window > 0, "Window must be strictly positive, but was [%s].", window);
+
+		final long sequenceNumber = this.sequenceNumber.incrementAndGet();
+		final ChunkedInputStream stream = new ChunkedInputStream(pipe, UNUSED, sequenceNumber);
+		completions.register(sequenceNumber, stream);
+
+		final ZMsg fetch = new ZMsg();
+		fetch.add(UNUSED);
+		fetch.add(FETCH.toString());
+		fetch.add(Long.toString(sequenceNumber));
+		fetch.add(uuid.toString());
+		fetch.add(Integer.toString(chunkSize));
+		fetch.add(Integer.toString(window));
+		send(fetch);
+		return stream;
+	}
+
+	private void send(final ZMsg message) {
+		synchronized (pipe) {
+			message.send(pipe);
+		}
+	}
+
+	private void stopPipeline() {
+		try {
+			pipe.send(Manager.STOP);
+			pipe.recv(); // Acknowledgement.
+		} catch (ZMQException e) {
+			if (!isSigTerm(e)) // Otherwise, the shared context was terminated, which already stopped the pipeline.
+				throw e;
+		}
+	}
+
+	/**
+	 * Close the client: requests still outstanding get [ERROR].
+	 */
 	@Override
 	public void close() {
-		context.destroy();
+		synchronized (pipe) {
+			if (!context.isMain()) // Shared context: stop the pipeline, as it will NOT be terminated.
+				stopPipeline();
+			context.destroy();
+		}
+		completions.failAll();
 	}
 }
\ No newline at end of file
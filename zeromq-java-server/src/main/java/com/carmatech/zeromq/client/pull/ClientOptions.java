@@ -0,0 +1,128 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.carmatech.zeromq.utilities.TransportProfile;
+import com.carmatech.zeromq.utilities.retry.ExponentialBackoff;
+import com.carmatech.zeromq.utilities.retry.IRetryPolicy;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+
+/**
+ * Settings of a {@link Client}: start from {@link #DEFAULT}, which behaves as clients always did, and only change what differs. <br />
+ * Options are immutable: each "with" method returns a modified copy.
+ */
+@Immutable
+public final class ClientOptions {
+	public static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 64;
+	/** Requests sent again after 1, 2, then every 4 seconds without reply, until they expire. **/
+	public static final Supplier<IRetryPolicy> DEFAULT_RETRIES = ExponentialBackoff.supplier(new Duration(1, TimeUnit.SECONDS), new Duration(4,
+			TimeUnit.SECONDS), Integer.MAX_VALUE);
+	/** All requests go to the first responsive server, as they always did. **/
+	public static final ServerSelection DEFAULT_SELECTION = ServerSelection.FIRST_ACTIVE;
+
+	public static final ClientOptions DEFAULT = new ClientOptions(Ticker.systemTicker(), DEFAULT_MAX_REQUESTS_IN_FLIGHT, TransportProfile.DEFAULT,
+			DEFAULT_RETRIES, HedgingPolicy.NONE, DEFAULT_SELECTION, NearCache.NONE);
+
+	private final Ticker ticker;
+	private final int maxRequestsInFlight;
+	private final TransportProfile transport;
+	private final Supplier<? extends IRetryPolicy> retries;
+	private final HedgingPolicy hedging;
+	private final ServerSelection selection;
+	private final NearCache nearCache;
+
+	private ClientOptions(final Ticker ticker, final int maxRequestsInFlight, final TransportProfile transport,
+			final Supplier<? extends IRetryPolicy> retries, final HedgingPolicy hedging, final ServerSelection selection, final NearCache nearCache) {
+		this.ticker = checkNotNull(ticker, "Time ticker must NOT be null.");
+		checkArgument(maxRequestsInFlight > 0, "Maximum number of requests in flight must be strictly positive, but was [%s].", maxRequestsInFlight);
+		this.maxRequestsInFlight = maxRequestsInFlight;
+		this.transport = checkNotNull(transport, "Transport profile must NOT be null.");
+		this.retries = checkNotNull(retries, "Retry policies must NOT be null.");
+		this.hedging = checkNotNull(hedging, "Hedging policy must NOT be null.");
+		this.selection = checkNotNull(selection, "Server selection must NOT be null.");
+		this.nearCache = checkNotNull(nearCache, "Near cache must NOT be null.");
+	}
+
+	public ClientOptions withTicker(final Ticker ticker) {
+		return new ClientOptions(ticker, maxRequestsInFlight, transport, retries, hedging, selection, nearCache);
+	}
+
+	/**
+	 * @param maxRequestsInFlight
+	 *            Maximum number of requests sent to servers and not replied to yet.
+	 */
+	public ClientOptions withMaxRequestsInFlight(final int maxRequestsInFlight) {
+		return new ClientOptions(ticker, maxRequestsInFlight, transport, retries, hedging, selection, nearCache);
+	}
+
+	public ClientOptions withTransport(final TransportProfile transport) {
+		return new ClientOptions(ticker, maxRequestsInFlight, transport, retries, hedging, selection, nearCache);
+	}
+
+	/**
+	 * @param retries
+	 *            Supplier of the retry policy of each request, which schedules when it is sent again if not replied to, until it expires.
+	 */
+	public ClientOptions withRetries(final Supplier<? extends IRetryPolicy> retries) {
+		return new ClientOptions(ticker, maxRequestsInFlight, transport, retries, hedging, selection, nearCache);
+	}
+
+	/**
+	 * @param hedging
+	 *            When to also send requests NOT replied to yet to a second server, or {@link HedgingPolicy#NONE}.
+	 */
+	public ClientOptions withHedging(final HedgingPolicy hedging) {
+		return new ClientOptions(ticker, maxRequestsInFlight, transport, retries, hedging, selection, nearCache);
+	}
+
+	/**
+	 * @param selection
+	 *            How requests are spread over the servers connected to.
+	 */
+	public ClientOptions withSelection(final ServerSelection selection) {
+		return new ClientOptions(ticker, maxRequestsInFlight, transport, retries, hedging, selection, nearCache);
+	}
+
+	/**
+	 * @param nearCache
+	 *            Payloads recently replied with, which requests are replied to locally from, or {@link NearCache#NONE}.
+	 */
+	public ClientOptions withNearCache(final NearCache nearCache) {
+		return new ClientOptions(ticker, maxRequestsInFlight, transport, retries, hedging, selection, nearCache);
+	}
+
+	public Ticker ticker() {
+		return ticker;
+	}
+
+	public int maxRequestsInFlight() {
+		return maxRequestsInFlight;
+	}
+
+	public TransportProfile transport() {
+		return transport;
+	}
+
+	public Supplier<? extends IRetryPolicy> retries() {
+		return retries;
+	}
+
+	public HedgingPolicy hedging() {
+		return hedging;
+	}
+
+	public ServerSelection selection() {
+		return selection;
+	}
+
+	public NearCache nearCache() {
+		return nearCache;
+	}
+}
@@ -0,0 +1,85 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.carmatech.zeromq.api.Command.ERROR;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.zeromq.ZMsg;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Hand-off of replies from the {@link Manager}, in the pipeline's thread, to the application's threads. <br />
+ * Requests travel through the pipe, but replies do not: they complete the futures, or feed the streams, registered here under their request's sequence
+ * number, so that any number of requests can be outstanding, and complete in any order.
+ */
+@ThreadSafe
+class Completions {
+	private final ConcurrentMap<Long, SettableFuture<ZMsg>> replies = new ConcurrentHashMap<Long, SettableFuture<ZMsg>>();
+	private final ConcurrentMap<Long, ChunkedInputStream> streams = new ConcurrentHashMap<Long, ChunkedInputStream>();
+
+	public ListenableFuture<ZMsg> register(final long sequenceNumber) {
+		final SettableFuture<ZMsg> reply = SettableFuture.create();
+		replies.put(sequenceNumber, reply);
+		return reply;
+	}
+
+	public void register(final long sequenceNumber, final ChunkedInputStream stream) {
+		streams.put(sequenceNumber, checkNotNull(stream, "Stream must NOT be null."));
+	}
+
+	/**
+	 * Complete the request, handing the reply over to the application, or destroying it if nobody is waiting for it anymore.
+	 */
+	public void complete(final long sequenceNumber, final ZMsg reply) {
+		final SettableFuture<ZMsg> future = replies.remove(sequenceNumber);
+		if (future == null || !future.set(reply))
+			reply.destroy();
+	}
+
+	/**
+	 * Fail the request: the application gets [ERROR].
+	 */
+	public void fail(final long sequenceNumber) {
+		complete(sequenceNumber, failed());
+	}
+
+	public void chunk(final long sequenceNumber, final byte[] chunk) {
+		final ChunkedInputStream stream = streams.get(sequenceNumber);
+		if (stream != null)
+			stream.offer(chunk);
+	}
+
+	public void end(final long sequenceNumber) {
+		final ChunkedInputStream stream = streams.remove(sequenceNumber);
+		if (stream != null)
+			stream.end();
+	}
+
+	public void failTransfer(final long sequenceNumber) {
+		final ChunkedInputStream stream = streams.remove(sequenceNumber);
+		if (stream != null)
+			stream.fail();
+	}
+
+	/**
+	 * Fail whatever is still outstanding, e.g. when the client is closed.
+	 */
+	public void failAll() {
+		for (final Long sequenceNumber : replies.keySet())
+			fail(sequenceNumber);
+		for (final Long sequenceNumber : streams.keySet())
+			failTransfer(sequenceNumber);
+	}
+
+	private static ZMsg failed() {
+		final ZMsg failed = new ZMsg();
+		failed.add(ERROR.toString());
+		return failed;
+	}
+}
@@ -0,0 +1,79 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Consistent hashing of UUIDs to servers, with bounded load. <br />
+ * Each server is placed on a ring of hashes at several points, i.e. virtual nodes, so that UUIDs spread evenly. A UUID goes to the first server
+ * clockwise from its hash which is responsive, and has fewer requests in flight than the load factor times the average: unresponsive servers' UUIDs
+ * move to the next server on the ring, and come back once they are responsive again, while hot UUIDs spill over to the next servers rather than
+ * overload theirs. <br />
+ * Each UUID thus mostly goes to the same server, whose cache only needs to hold its share of the hot set.
+ */
+@NotThreadSafe
+class ConsistentHashRing implements IServerSelector {
+	static final int DEFAULT_VIRTUAL_NODES = 128;
+	static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+	private static final HashFunction HASH = Hashing.murmur3_32();
+
+	private final int virtualNodes;
+	private final double loadFactor;
+
+	private final NavigableMap<Integer, ServerProxy> ring = new TreeMap<Integer, ServerProxy>();
+	private final Set<ServerProxy> placed = Collections.newSetFromMap(new IdentityHashMap<ServerProxy, Boolean>()); // Servers already on the ring.
+
+	ConsistentHashRing(final int virtualNodes, final double loadFactor) {
+		checkArgument(virtualNodes > 0, "Number of virtual nodes must be strictly positive, but was [%s].", virtualNodes);
+		checkArgument(loadFactor > 1, "Load factor must be greater than 1, but was [%s].", loadFactor);
+		this.virtualNodes = virtualNodes;
+		this.loadFactor = loadFactor;
+	}
+
+	@Override
+	public ServerProxy select(final List<ServerProxy> servers, final UUID key) {
+		final Set<ServerProxy> responsive = Collections.newSetFromMap(new IdentityHashMap<ServerProxy, Boolean>());
+		int inFlight = 0;
+		for (final ServerProxy server : servers) {
+			place(server);
+			responsive.add(server);
+			inFlight += server.inFlight();
+		}
+
+		final double capacity = Math.ceil(loadFactor * (inFlight + 1) / servers.size()); // At least one server is below, as the average is.
+		final int hash = HASH.newHasher().putLong(key.getMostSignificantBits()).putLong(key.getLeastSignificantBits()).hash().asInt();
+		for (final ServerProxy server : Iterables.concat(ring.tailMap(hash, true).values(), ring.values()))
+			if (responsive.contains(server) && server.inFlight() < capacity)
+				return server;
+		return servers.get(0); // Never, unless servers are NOT in the list they were said to be in.
+	}
+
+	/**
+	 * Servers are placed on the ring when first seen, and never removed: they are only skipped while unresponsive.
+	 */
+	private void place(final ServerProxy server) {
+		if (!placed.add(server))
+			return;
+
+		for (int i = 0; i < virtualNodes; ++i) {
+			final int point = HASH.hashString(server.endpoint() + "#" + i, Charsets.UTF_8).asInt();
+			if (!ring.containsKey(point)) // Collisions, rare, keep the server placed first.
+				ring.put(point, server);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.carmatech.zeromq.utilities.Histogram;
+import com.google.common.base.Objects;
+
+/**
+ * When to send a request, not replied to yet, to a second server as well, the first reply winning: a server which is slow but alive is only failed
+ * over from once it misses its TTL, which drives tail latency up. <br />
+ * A request is hedged once it has waited for its reply for longer than the threshold: either a fixed one, or the observed latency at the given
+ * percentile, e.g. the 95th. <br />
+ * Hedged requests are capped to a fraction of all requests, so that a slow cluster is NOT sent twice its load: each request earns that fraction of a
+ * hedge, and each hedge spends a whole one, a few being saved up at most for bursts.
+ */
+@ThreadSafe
+public final class HedgingPolicy {
+	/** Never hedge. **/
+	public static final HedgingPolicy NONE = new HedgingPolicy(Long.MAX_VALUE, Double.NaN, 0.0);
+
+	/** Observed latencies needed before trusting their percentile: until then, the minimum threshold applies. **/
+	static final int MIN_SAMPLES = 100;
+	private static final double MAX_SAVED_HEDGES = 10.0;
+
+	private final long minThresholdInMillis;
+	private final double quantile; // NaN for a fixed threshold.
+	private final double maxHedgedFraction;
+
+	private final Histogram latencies = new Histogram(); // In milliseconds, from the first send to the first reply.
+	private double budget = 0.0; // Guarded by this. Hedges which can be sent right away.
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedged = new AtomicLong();
+
+	private HedgingPolicy(final long minThresholdInMillis, final double quantile, final double maxHedgedFraction) {
+		this.minThresholdInMillis = minThresholdInMillis;
+		this.quantile = quantile;
+		this.maxHedgedFraction = maxHedgedFraction;
+	}
+
+	/**
+	 * @param threshold
+	 *            Time a request waits for its reply before being hedged.
+	 * @param maxHedgedFraction
+	 *            Maximum fraction of requests hedged, in ]0, 1].
+	 */
+	public static HedgingPolicy after(final Duration threshold, final double maxHedgedFraction) {
+		checkNotNull(threshold, "Threshold must NOT be null.");
+		checkArgument(threshold.toMillis() > 0, "Threshold must be strictly positive, but was [%s].", threshold);
+		checkFraction(maxHedgedFraction);
+		return new HedgingPolicy(threshold.toMillis(), Double.NaN, maxHedgedFraction);
+	}
+
+	/**
+	 * @param quantile
+	 *            Percentile of observed latencies requests wait for before being hedged, in ]0, 1[, e.g. 0.95.
+	 * @param minThreshold
+	 *            Time a request waits for its reply at least before being hedged, however fast replies usually are.
+	 * @param maxHedgedFraction
+	 *            Maximum fraction of requests hedged, in ]0, 1].
+	 */
+	public static HedgingPolicy atPercentile(final double quantile, final Duration minThreshold, final double maxHedgedFraction) {
+		checkArgument(quantile > 0 && quantile < 1, "Quantile must be in ]0, 1[, but was [%s].", quantile);
+		checkNotNull(minThreshold, "Minimum threshold must NOT be null.");
+		checkArgument(minThreshold.toMillis() > 0, "Minimum threshold must be strictly positive, but was [%s].", minThreshold);
+		checkFraction(maxHedgedFraction);
+		return new HedgingPolicy(minThreshold.toMillis(), quantile, maxHedgedFraction);
+	}
+
+	private static void checkFraction(final double maxHedgedFraction) {
+		checkArgument(maxHedgedFraction > 0 && maxHedgedFraction <= 1, "Maximum fraction of hedged requests must be in ]0, 1], but was [%s].",
+				maxHedgedFraction);
+	}
+
+	public boolean isEnabled() {
+		return this != NONE;
+	}
+
+	/**
+	 * @return time a request waits for its reply before being hedged, or {@link Long#MAX_VALUE} if requests are never hedged.
+	 */
+	public long thresholdInMillis() {
+		if (Double.isNaN(quantile) || latencies.count() < MIN_SAMPLES)
+			return minThresholdInMillis;
+		return Math.max(minThresholdInMillis, latencies.percentile(quantile));
+	}
+
+	/**
+	 * A request was sent for the first time: it earns its fraction of a hedge.
+	 */
+	void sent() {
+		if (!isEnabled())
+			return;
+		requests.incrementAndGet();
+		synchronized (this) {
+			budget = Math.min(budget + maxHedgedFraction, MAX_SAVED_HEDGES);
+		}
+	}
+
+	/**
+	 * @return true if the request can be hedged, within the maximum fraction of hedged requests: it is then counted as hedged.
+	 */
+	boolean tryHedge() {
+		synchronized (this) {
+			if (budget < 1.0)
+				return false;
+			budget -= 1.0;
+		}
+		hedged.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * A request was replied to, the provided time after it was first sent.
+	 */
+	void replied(final long latencyInMillis) {
+		if (!Double.isNaN(quantile))
+			latencies.record(latencyInMillis);
+	}
+
+	/**
+	 * @return number of requests sent, hedged or not.
+	 */
+	public long requests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of requests sent to a second server.
+	 */
+	public long hedged() {
+		return hedged.get();
+	}
+
+	@Override
+	public String toString() {
+		if (!isEnabled())
+			return "HedgingPolicy [NONE]";
+		return Objects.toStringHelper(this).add("thresholdInMillis", thresholdInMillis()).add("quantile", quantile)
+				.add("maxHedgedFraction", maxHedgedFraction).add("requests", requests()).add("hedged", hedged()).toString();
+	}
+}
@@ -0,0 +1,18 @@
+package com.carmatech.zeromq.client.pull;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Chooses which server to send a request to. <br />
+ * Only called from the pipeline's thread, so selectors may keep state, e.g. a turn.
+ */
+interface IServerSelector {
+	/**
+	 * @param servers
+	 *            Responsive servers, at least one, in the order they last became responsive.
+	 * @param key
+	 *            UUID requested, the first one for requests of several UUIDs.
+	 */
+	ServerProxy select(List<ServerProxy> servers, UUID key);
+}
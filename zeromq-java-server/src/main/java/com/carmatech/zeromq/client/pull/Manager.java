@@ -1,24 +1,33 @@
 package com.carmatech.zeromq.client.pull;
 
-import static com.carmatech.zeromq.api.Command.ERROR;
-import static com.carmatech.zeromq.api.Command.OK;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.api.Codec;
 import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.api.Protocol;
 import com.carmatech.zeromq.utilities.IMillisecondsTicker;
 import com.carmatech.zeromq.utilities.MillisecondsTicker;
+import com.carmatech.zeromq.utilities.retry.IRetryPolicy;
+import com.google.common.base.Supplier;
 import com.google.common.base.Ticker;
 
 class Manager {
@@ -31,27 +40,47 @@ class Manager {
 	/** Server considered dead if silent for this long. **/
 	private static final int SERVER_TTL_IN_MILLIS = 6_000;
 
+	/** Chunk fetched again if not received within this time. **/
+	private static final int FETCH_RETRY_IN_MILLIS = 1_000;
+
 	private static final long ONE_MINUTE_IN_MILLIS = TimeUnit.MINUTES.toMillis(1L);
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(Manager.class);
 
-	private final Map<String, ServerProxy> servers = new LinkedHashMap<String, ServerProxy>();
+	/** Single-frame message asking the pipeline to stop, from clients which cannot simply terminate a shared context. **/
+	static final String STOP = "STOP";
+
+	// Keyed by the servers' identity frames, so that replies are routed without decoding them to Strings. Keys must NEVER be destroyed.
+	private final Map<ZFrame, ServerProxy> servers = new LinkedHashMap<ZFrame, ServerProxy>();
 	private final Queue<ServerProxy> activeServers = new ArrayDeque<ServerProxy>();
 
 	private final Queue<Long> timeouts = new PriorityQueue<Long>();
 
-	private long sequenceNumber = 0L; // Number of requests ever sent.
-	private ZMsg currentRequest;
-	private long currentRequestTimeout;
+	// Keyed by sequence number, in order of arrival, hence of expiry: replies are matched whatever the order they arrive in.
+	private final Map<Long, OutstandingRequest> inFlight = new LinkedHashMap<Long, OutstandingRequest>();
+	private final Queue<OutstandingRequest> waiting = new ArrayDeque<OutstandingRequest>(); // Beyond the window, in order of arrival.
+	private final Map<Long, Transfer> transfers = new LinkedHashMap<Long, Transfer>();
+	private final int window; // Maximum number of requests in flight.
 
-	private final Socket pipe; // Socket to talk back to application.
+	private final Socket pipe; // Socket to receive requests from application.
 	private final Socket router; // Socket to talk to servers.
+	private final Completions completions; // To hand replies back to application.
 	private final IMillisecondsTicker ticker;
+	private final Supplier<? extends IRetryPolicy> retries; // One policy per request.
+	private final HedgingPolicy hedging;
+	private final IServerSelector selector;
 
-	public Manager(final Socket pipe, final Socket router, final Ticker ticker) {
+	public Manager(final Socket pipe, final Socket router, final Ticker ticker, final int window, final Completions completions,
+			final Supplier<? extends IRetryPolicy> retries, final HedgingPolicy hedging, final ServerSelection selection) {
 		this.pipe = checkNotNull(pipe, "Pipe socket must NOT be null.");
 		this.router = checkNotNull(router, "Router socket must NOT be null.");
 		this.ticker = new MillisecondsTicker(checkNotNull(ticker, "Time ticker must NOT be null."));
+		checkArgument(window > 0, "Window must be strictly positive, but was [%s].", window);
+		this.window = window;
+		this.completions = checkNotNull(completions, "Completions must NOT be null.");
+		this.retries = checkNotNull(retries, "Retry policies must NOT be null.");
+		this.hedging = checkNotNull(hedging, "Hedging policy must NOT be null.");
+		this.selector = checkNotNull(selection, "Server selection must NOT be null.").newSelector();
 	}
 
 	public long nextTimeout() {
@@ -73,50 +102,105 @@ class Manager {
 	}
 
 	public boolean isProcessingRequest() {
-		return currentRequest != null;
+		return !inFlight.isEmpty() || !waiting.isEmpty() || !transfers.isEmpty();
 	}
 
-	// Callback when we remove server from agent 'servers' hash table
 	/**
-	 * Processes one message from the frontend application (CONNECT or REQUEST).
+	 * Processes one message from the frontend application (CONNECT, MREQUEST, or FETCH, CREDIT and CANCEL for chunked transfers).
+	 * 
+	 * @return false if the application asked to {@link #STOP}, otherwise true.
 	 */
-	public void processOutbox() {
+	public boolean processOutbox() {
 		final ZMsg request = ZMsg.recvMsg(pipe);
+		if (request.size() == 1 && STOP.equals(request.peek().toString())) {
+			request.destroy();
+			return false;
+		}
 
-		final String destination = request.popString();
-		final Command command = Command.parse(request.popString());
+		final ZFrame destination = request.pop();
+		final Command command = Command.decode(request.pop());
 
 		switch (command) {
-		case REQUEST:
+		case MREQUEST:
 			takeOwnershipOf(request);
 			// Do NOT destroy the request.
 			break;
+		case FETCH:
+			startTransfer(request);
+			request.destroy();
+			break;
+		case CREDIT:
+			final Transfer transfer = transfers.get(Long.parseLong(request.popString()));
+			if (transfer != null) { // Otherwise, the transfer already ended.
+				transfer.credit();
+				extendTimeoutOf(transfer); // Application is still consuming.
+			}
+			request.destroy();
+			break;
+		case CANCEL:
+			endTransfer(Long.parseLong(request.popString()));
+			request.destroy();
+			break;
 		case CONNECT:
-			connectTo(destination);
+			request.pop().destroy(); // Source.
+			final String identity = new String(destination.getData(), ZMQ.CHARSET);
+			connectTo(identity, request.isEmpty() ? identity : request.popString());
 		default:
 			request.destroy();
 			break;
 		}
+		return true;
 	}
 
+	/**
+	 * Application's request: [source][sequence number][UUID 1]...[UUID N].
+	 */
 	private void takeOwnershipOf(final ZMsg request) {
-		assert (currentRequest == null); // Strict request-reply cycle.
+		request.pop().destroy(); // Source.
+		final long sequenceNumber = Codec.STRING.decodeSequenceNumber(request.pop());
+		// Request expires after global timeout, whether it waited for room in the window or not.
+		final long timeout = now() + REQUEST_TIMEOUT_IN_MILLIS;
+		final OutstandingRequest outstanding = new OutstandingRequest(sequenceNumber, request, timeout, retries.get());
+		if (inFlight.size() < window)
+			inFlight.put(sequenceNumber, outstanding);
+		else
+			waiting.add(outstanding);
+		timeouts.add(timeout);
+	}
 
-		currentRequest = request; // Take ownership of request message.
-		currentRequest.push(Long.toString(++sequenceNumber)); // Replace "REQUEST" by sequence number.
-		// Request expires after global timeout
-		currentRequestTimeout = now() + REQUEST_TIMEOUT_IN_MILLIS;
-		timeouts.add(currentRequestTimeout);
+	/**
+	 * Application's request: [sequence number][UUID][chunk size][window].
+	 */
+	private void startTransfer(final ZMsg request) {
+		final long sequenceNumber = Long.parseLong(request.popString());
+		final UUID uuid = Codec.STRING.decodeUuid(request.pop());
+		final int chunkSize = Integer.parseInt(request.popString());
+		final int window = Integer.parseInt(request.popString());
+		final Transfer transfer = new Transfer(sequenceNumber, uuid, chunkSize, window, FETCH_RETRY_IN_MILLIS);
+		transfers.put(sequenceNumber, transfer);
+		extendTimeoutOf(transfer);
 	}
 
-	private void connectTo(final String endpoint) {
-		final ServerProxy server = new ServerProxy(endpoint, PING_INTERVAL_IN_MILLIS, SERVER_TTL_IN_MILLIS, ticker);
-		servers.put(endpoint, server);
+	private void extendTimeoutOf(final Transfer transfer) {
+		final long timeout = now() + REQUEST_TIMEOUT_IN_MILLIS;
+		transfer.expireAt(timeout);
+		timeouts.add(timeout);
+	}
+
+	/**
+	 * @param identity
+	 *            Identity of the server, which requests are addressed to.
+	 * @param endpoint
+	 *            Endpoint to connect to, e.g. over a more local transport than the identity's.
+	 */
+	private void connectTo(final String identity, final String endpoint) {
+		final ServerProxy server = new ServerProxy(identity, PING_INTERVAL_IN_MILLIS, SERVER_TTL_IN_MILLIS, ticker);
+		servers.put(new ZFrame(identity), server);
 		activeServers.add(server);
 		server.refresh();
 		timeouts.add(server.timeoutAt());
 
-		LOGGER.info("Connecting to [{}]...", endpoint);
+		LOGGER.info("Connecting to [{}] through [{}]...", identity, endpoint);
 		router.connect(endpoint);
 	}
 
@@ -127,9 +211,9 @@ class Manager {
 		final ZMsg reply = ZMsg.recvMsg(router);
 
 		try {
-			final String endpoint = reply.popString();
-			final String commandOrSequenceNumber = reply.popString();
-			final Command command = Command.parse(commandOrSequenceNumber);
+			final ZFrame endpoint = reply.pop();
+			final ZFrame commandOrSequenceNumber = reply.pop();
+			final Command command = Command.decode(commandOrSequenceNumber);
 
 			final ServerProxy server = servers.get(endpoint);
 			if (server == null) {
@@ -138,78 +222,276 @@ class Manager {
 			}
 
 			if (!server.isAlive()) {
-				activeServers.add(server);
+				if (!activeServers.contains(server)) // Servers are active from the moment they are connected to.
+					activeServers.add(server);
 				server.enable();
 			}
 			timeouts.remove(server.timeoutAt());
 			server.refresh();
 			timeouts.add(server.timeoutAt());
 
-			doHandleReply(reply, endpoint, commandOrSequenceNumber, command);
+			doHandleReply(reply, server, commandOrSequenceNumber, command);
 		} finally {
 			reply.destroy();
 		}
 	}
 
-	private void doHandleReply(final ZMsg reply, final String endpoint, final String commandOrSequenceNumber, final Command command) {
+	private void doHandleReply(final ZMsg reply, final ServerProxy server, final ZFrame commandOrSequenceNumber, final Command command) {
 		switch (command) {
 		case PONG:
+			handlePong(reply, server);
 			break;
-		case SEQUENCE_NUMBER:
-			if (Integer.parseInt(commandOrSequenceNumber) == sequenceNumber) {
-				reply.push(OK.toString());
-				reply.send(pipe);
-				destroyCurrentRequest();
-			} else {
-				LOGGER.warn("Received reply [{}] from [{}] too late: currently at [{}].", commandOrSequenceNumber, endpoint, sequenceNumber);
-			}
+		case SEQUENCE_NUMBER: // STRING codec: [sequence number][source][UUID][payload]
+			handleReply(reply, server, Codec.STRING.decodeSequenceNumber(commandOrSequenceNumber), reply.pop(), true);
+			break;
+		case OK: // [OK][source][sequence number]([UUID][payload])*F([NOT_FOUND]([UUID])*M), OK being an opcode with the BINARY codec.
+		case NOT_FOUND: // [NOT_FOUND][source][sequence number]([UUID])*N
+			final ZFrame source = reply.pop();
+			handleReply(reply, server, Codec.ofCommand(commandOrSequenceNumber).decodeSequenceNumber(reply.pop()), source, command == Command.OK);
+			break;
+		case CHUNK: // [CHUNK][source][sequence number][UUID][offset][total size][chunk]
+			handleChunk(reply, server, Codec.ofCommand(commandOrSequenceNumber));
+			break;
+		case ERROR: // [ERROR][source][sequence number][message], or [ERROR][source][message] if the request had none.
+			handleError(reply, server, Codec.ofCommand(commandOrSequenceNumber));
 			break;
 		default:
-			LOGGER.warn("Received invalid reply from [{}]. Command/Sequence: [{}].", endpoint, commandOrSequenceNumber);
+			LOGGER.warn("Received invalid reply from [{}]. Command/Sequence: [{}].", server.endpoint(), commandOrSequenceNumber);
 			break;
 		}
 	}
 
-	private void destroyCurrentRequest() {
-		currentRequest.destroy();
-		currentRequest = null;
+	private void handlePong(final ZMsg reply, final ServerProxy server) {
+		if (reply.size() < 2)
+			return; // Server does not know about codecs: keep talking STRING to it.
+
+		reply.pop().destroy(); // Source.
+		server.negotiated(Codec.parse(reply.popString()));
 	}
 
-	public void destroyCurrentRequestAndReturnFailed() {
-		destroyCurrentRequest();
-		pipe.send(ERROR.toString());
+	/**
+	 * Server's reply, without its command, source and sequence number: ([UUID][payload])*F([NOT_FOUND]([UUID])*M), or ([UUID])*N if none was found.
+	 */
+	private void handleReply(final ZMsg reply, final ServerProxy server, final long sequenceNumber, final ZFrame source, final boolean anyFound) {
+		final OutstandingRequest request = inFlight.get(sequenceNumber);
+		if (request == null) { // E.g. the slower of the two servers a request was hedged to.
+			LOGGER.debug("Received reply [{}] from [{}] too late: request already completed or expired.", sequenceNumber, server.endpoint());
+			source.destroy();
+			return;
+		}
+
+		final int size = reply.size();
+		final ZMsg applicationReply = request.reply(source, reply, anyFound);
+		if (applicationReply == null) {
+			LOGGER.warn("Received reply [{}] from [{}] with [{}] frames, for [{}] UUIDs.", sequenceNumber, server.endpoint(), size, request.uuids()
+					.size());
+			source.destroy();
+			return;
+		}
+
+		inFlight.remove(sequenceNumber);
+		hedging.replied(request.elapsedSinceFirstSent(now()));
+		request.completed(now());
+		completions.complete(sequenceNumber, applicationReply);
+		request.destroy();
+		admitWaitingRequests();
 	}
 
-	public boolean isRequestExpired() {
-		return currentRequestTimeout <= now();
+	/**
+	 * A busy server rejected the request: fail over right away to another active server, which did NOT reject it yet, if any, rather than wait to send
+	 * it again. The request is no longer sent to that server, whichever the {@link ServerSelection}, as long as others may take it. <br />
+	 * Other errors are left to the usual retries and timeouts.
+	 */
+	private void handleError(final ZMsg reply, final ServerProxy server, final Codec codec) {
+		if (reply.size() < 3) {
+			LOGGER.warn("Received error from [{}]: [{}].", server.endpoint(), reply.peekLast());
+			return;
+		}
+
+		reply.pop().destroy(); // Source.
+		final long sequenceNumber = codec.decodeSequenceNumber(reply.pop());
+		final String message = reply.popString();
+		final OutstandingRequest request = inFlight.get(sequenceNumber);
+		if (request == null || !Protocol.BUSY.equals(message)) {
+			LOGGER.warn("Received error [{}] from [{}]: [{}].", sequenceNumber, server.endpoint(), message);
+			return;
+		}
+
+		if (activeServers.size() > 1 && activeServers.peek() == server)
+			activeServers.add(activeServers.poll()); // Next requests go to the next server too, while this one sheds load.
+		request.rejectedBy(server);
+		if (request.canFailOver(activeServers)) {
+			LOGGER.debug("Request [{}] rejected by busy [{}]: failing over.", sequenceNumber, server.endpoint());
+			request.resend();
+		}
 	}
 
-	public void sendRequestToFirstActiveServer() {
-		final ServerProxy server = firstActiveServer();
-		if (server == null)
+	private void admitWaitingRequests() {
+		while (inFlight.size() < window && !waiting.isEmpty()) {
+			final OutstandingRequest request = waiting.poll();
+			inFlight.put(request.sequenceNumber(), request);
+		}
+	}
+
+	private void handleChunk(final ZMsg reply, final ServerProxy server, final Codec codec) {
+		reply.pop().destroy(); // Source.
+		final long sequenceNumber = codec.decodeSequenceNumber(reply.pop());
+		final Transfer transfer = transfers.get(sequenceNumber);
+		if (transfer == null) {
+			LOGGER.debug("Received chunk [{}] from [{}] too late: transfer already ended.", sequenceNumber, server.endpoint());
 			return;
+		}
+
+		reply.pop().destroy(); // UUID.
+		final long offset = codec.decodeNumber(reply.pop());
+		final long totalSize = codec.decodeNumber(reply.pop());
+		if (!transfer.received(offset, totalSize, reply.pop()))
+			return; // Duplicate.
+
+		extendTimeoutOf(transfer);
+		for (ZFrame chunk = transfer.nextChunk(); chunk != null; chunk = transfer.nextChunk()) {
+			completions.chunk(sequenceNumber, chunk.getData());
+			chunk.destroy();
+		}
 
-		server.send(currentRequest, router);
+		if (transfer.isComplete())
+			endTransfer(sequenceNumber);
+	}
+
+	private void endTransfer(final long sequenceNumber) {
+		final Transfer transfer = transfers.remove(sequenceNumber);
+		if (transfer != null) { // Otherwise, the transfer already ended, and the application will read how.
+			transfer.destroy();
+			completions.end(sequenceNumber);
+		}
 	}
 
 	/**
-	 * Find the first responsive server and return it, or null if none. <br />
-	 * Also disable any unresponsive server in the process.
-	 * 
-	 * @return first responsive server or null if all unresponsive.
+	 * Fail requests and transfers which expired: requests expire in order of arrival, whether in flight or still waiting for room in the window.
 	 */
-	private ServerProxy firstActiveServer() {
-		while (!activeServers.isEmpty()) {
-			final ServerProxy server = activeServers.peek();
-			if (server.timeoutAt() <= now()) { // Server is unresponsive.
-				activeServers.poll();
-				server.disable();
+	public void expireRequests() {
+		final long now = now();
+		final Iterator<OutstandingRequest> requests = inFlight.values().iterator();
+		while (requests.hasNext()) {
+			final OutstandingRequest request = requests.next();
+			if (!request.isExpired(now))
+				break;
+			requests.remove();
+			fail(request);
+		}
+		while (!waiting.isEmpty() && waiting.peek().isExpired(now))
+			fail(waiting.poll());
+		admitWaitingRequests();
+
+		final Iterator<Transfer> expiredTransfers = transfers.values().iterator();
+		while (expiredTransfers.hasNext()) {
+			final Transfer transfer = expiredTransfers.next();
+			if (transfer.isExpired(now)) {
+				expiredTransfers.remove();
+				transfer.destroy();
+				completions.failTransfer(transfer.sequenceNumber());
 			}
+		}
+	}
 
-			return server;
+	private void fail(final OutstandingRequest request) {
+		LOGGER.debug("Request [{}] expired.", request.sequenceNumber());
+		request.completed(now());
+		request.destroy();
+		completions.fail(request.sequenceNumber());
+	}
+
+	/**
+	 * Send requests in flight which were never sent, or not replied to for too long: NOT every request on every wake-up. <br />
+	 * Each request goes to the server chosen by the {@link ServerSelection}, among responsive ones which did NOT reject it as BUSY. Requests waiting
+	 * for their reply for longer than the {@link HedgingPolicy}'s threshold are also sent to another server, once: the first reply completes them,
+	 * later ones are ignored.
+	 */
+	public void sendRequestsToActiveServers() {
+		final List<ServerProxy> responsiveServers = responsiveServers();
+		if (responsiveServers.isEmpty())
+			return;
+
+		final long now = now();
+		final boolean canHedge = hedging.isEnabled() && responsiveServers.size() > 1;
+		final long hedgeThreshold = hedging.thresholdInMillis();
+		for (final OutstandingRequest request : inFlight.values()) {
+			if (request.isDue(now)) {
+				if (!request.wasSent())
+					scheduleHedge(now, canHedge, hedgeThreshold);
+				send(request, selector.select(request.candidates(responsiveServers), request.uuids().get(0)), now);
+				if (request.sent(now))
+					timeouts.add(request.nextAttemptAt());
+			} else if (canHedge && request.isHedgeDue(now, hedgeThreshold)) {
+				hedge(request, responsiveServers, now, hedgeThreshold);
+			}
 		}
 
-		return null; // All servers are unresponsive.
+		for (final Transfer transfer : transfers.values())
+			fetchChunks(transfer, responsiveServers.get(0)); // Chunks of a transfer all come from the same server, as long as it is responsive.
+	}
+
+	private void send(final OutstandingRequest request, final ServerProxy server, final long now) {
+		final List<UUID> uuids = request.uuids();
+		if (uuids.size() == 1 && server.codec() == Codec.BINARY) // STRING's single requests are legacy ones, whose replies know no NOT_FOUND.
+			server.send(uuids.get(0), request.sequenceNumber(), router);
+		else
+			server.send(uuids, request.sequenceNumber(), router);
+		request.sentTo(server, now);
+	}
+
+	private void scheduleHedge(final long now, final boolean canHedge, final long hedgeThreshold) {
+		hedging.sent();
+		if (canHedge && hedgeThreshold != Long.MAX_VALUE)
+			timeouts.add(now + hedgeThreshold);
+	}
+
+	private void hedge(final OutstandingRequest request, final List<ServerProxy> responsiveServers, final long now, final long hedgeThreshold) {
+		final List<ServerProxy> otherServers = new ArrayList<ServerProxy>(responsiveServers.size());
+		for (final ServerProxy server : responsiveServers)
+			if (!request.wasSentTo(server))
+				otherServers.add(server);
+		if (otherServers.isEmpty() || !hedging.tryHedge())
+			return;
+
+		final ServerProxy server = selector.select(otherServers, request.uuids().get(0));
+		LOGGER.debug("Request [{}] not replied to within [{}] ms: hedging to [{}].", request.sequenceNumber(), hedgeThreshold, server.endpoint());
+		send(request, server, now);
+		request.hedged();
+	}
+
+	/**
+	 * Only fetch the chunks there is credit for, or which have been in flight for too long: NOT the whole transfer again.
+	 */
+	private void fetchChunks(final Transfer transfer, final ServerProxy server) {
+		final List<Long> offsets = transfer.offsetsToFetch(now());
+		if (offsets.isEmpty())
+			return;
+
+		for (final long offset : offsets)
+			server.fetch(transfer.uuid(), transfer.sequenceNumber(), offset, transfer.chunkSize(), router);
+		timeouts.add(transfer.nextRetryAt());
+	}
+
+	/**
+	 * Find the responsive servers, in the order they became responsive, and disable the unresponsive ones in the process.
+	 * 
+	 * @return responsive servers, or an empty list if all are unresponsive.
+	 */
+	private List<ServerProxy> responsiveServers() {
+		final long now = now();
+		final List<ServerProxy> responsiveServers = new ArrayList<ServerProxy>(activeServers.size());
+		final Iterator<ServerProxy> servers = activeServers.iterator();
+		while (servers.hasNext()) {
+			final ServerProxy server = servers.next();
+			if (server.timeoutAt() <= now) { // Server is unresponsive.
+				servers.remove();
+				server.disable();
+			} else {
+				responsiveServers.add(server);
+			}
+		}
+		return responsiveServers;
 	}
 
 	public void pingAllServers() {
@@ -0,0 +1,202 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.carmatech.zeromq.utilities.ZeroMQ.isSigTerm;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.client.push.PushClient;
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Function;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Payloads a {@link Client} was recently replied with, so that requests for them are replied to locally, without a round trip to any server. <br />
+ * Bounded by the total size of its payloads, and with a TTL: payloads are at most that stale, unless kept fresh by a {@link PushClient}
+ * subscription, see {@link #refresher(PushClient)}, whose published values replace the cached ones. Deletions are NOT published: see
+ * {@link #invalidate(UUID)}. <br />
+ * Only requests whose UUIDs are all cached are replied to locally, with this process as their source: others go to servers, and their payloads
+ * then get cached. NOT_FOUND UUIDs are never cached.
+ */
+@ThreadSafe
+public final class NearCache {
+	/** No near cache: every request goes to servers. **/
+	public static final NearCache NONE = new NearCache();
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NearCache.class);
+	private static final int UUID_SIZE = 16;
+
+	private final Cache<UUID, byte[]> payloads;
+	private final AtomicLong invalidations = new AtomicLong(); // Payloads replied with are only cached if none happened since their request.
+
+	private NearCache() {
+		this.payloads = null;
+	}
+
+	public NearCache(final long maxBytes, final Duration ttl) {
+		this(maxBytes, ttl, Ticker.systemTicker());
+	}
+
+	public NearCache(final long maxBytes, final Duration ttl, final Ticker ticker) {
+		checkArgument(maxBytes > 0, "Maximum size of cached payloads must be strictly positive, but was [%s].", maxBytes);
+		checkNotNull(ttl, "TTL must NOT be null.");
+		checkNotNull(ticker, "Time ticker must NOT be null.");
+		this.payloads = CacheBuilder.newBuilder().maximumWeight(maxBytes).weigher(new Weigher<UUID, byte[]>() {
+			@Override
+			public int weigh(final UUID uuid, final byte[] payload) {
+				return UUID_SIZE + payload.length;
+			}
+		}).expireAfterWrite(ttl.duration(), ttl.unit()).ticker(ticker).recordStats().build();
+	}
+
+	public boolean isEnabled() {
+		return payloads != null;
+	}
+
+	/**
+	 * @return a reply, as a server would: [OK][source]([UUID][payload])*N, if all UUIDs are cached; otherwise null.
+	 */
+	ZMsg reply(final Collection<UUID> uuids, final String source) {
+		if (!isEnabled())
+			return null;
+
+		final List<byte[]> found = new ArrayList<byte[]>(uuids.size());
+		for (final UUID uuid : uuids) {
+			final byte[] payload = payloads.getIfPresent(uuid);
+			if (payload == null)
+				return null;
+			found.add(payload);
+		}
+
+		final ZMsg reply = new ZMsg();
+		reply.add(Command.OK.toString());
+		reply.add(source);
+		final Iterator<byte[]> foundPayloads = found.iterator();
+		for (final UUID uuid : uuids) {
+			reply.add(Codec.STRING.encode(uuid));
+			reply.add(foundPayloads.next().clone()); // The application owns its reply.
+		}
+		return reply;
+	}
+
+	/**
+	 * @return a function caching the payloads of the reply it is applied to, unless some payload was invalidated since the provided time: the reply
+	 *         may then be stale.
+	 */
+	Function<ZMsg, ZMsg> filler(final long invalidationsAtRequest) {
+		return new Function<ZMsg, ZMsg>() {
+			@Override
+			public ZMsg apply(final ZMsg reply) {
+				if (isEnabled() && invalidations.get() == invalidationsAtRequest)
+					fill(reply, invalidationsAtRequest);
+				return reply;
+			}
+		};
+	}
+
+	/**
+	 * Reply: [OK][source]([UUID][payload])*F([NOT_FOUND]([UUID])*M), as handed to the application, whose frames are NOT consumed. <br />
+	 * A refresh racing with a put may have found nothing to replace: the payload put is then invalidated, as it may be the stale one.
+	 */
+	private void fill(final ZMsg reply, final long invalidationsAtRequest) {
+		final Iterator<ZFrame> frames = reply.iterator();
+		if (reply.size() < 4 || Command.decode(frames.next()) != Command.OK)
+			return;
+
+		frames.next(); // Source.
+		while (frames.hasNext()) {
+			final ZFrame uuid = frames.next();
+			if (Command.decode(uuid) == Command.NOT_FOUND || !frames.hasNext())
+				return;
+			final UUID key = Codec.STRING.decodeUuid(uuid);
+			payloads.put(key, frames.next().getData().clone());
+			if (invalidations.get() != invalidationsAtRequest) {
+				payloads.invalidate(key);
+				return;
+			}
+		}
+	}
+
+	long invalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Replace the cached payload for the provided UUID, if any, e.g. with a newly published one: UUIDs NOT cached are NOT added.
+	 */
+	public void refresh(final UUID uuid, final byte[] payload) {
+		checkNotNull(payload, "Payload must NOT be null.");
+		if (!isEnabled())
+			return;
+		invalidations.incrementAndGet(); // Replies in flight may predate the new payload.
+		payloads.asMap().replace(uuid, payload.clone());
+	}
+
+	/**
+	 * Evict the cached payload for the provided UUID, if any, e.g. once the application deleted it.
+	 */
+	public void invalidate(final UUID uuid) {
+		if (!isEnabled())
+			return;
+		invalidations.incrementAndGet(); // Replies in flight may predate the deletion.
+		payloads.invalidate(uuid);
+	}
+
+	/**
+	 * @return a task keeping this cache fresh with the values published to the provided subscription, until it is closed, or the task interrupted.
+	 *         The subscription should be connected, and subscribed to the UUIDs to keep fresh, e.g. all of them: see {@link PushClient#subscribeToAll()}.
+	 */
+	public Runnable refresher(final PushClient subscription) {
+		checkNotNull(subscription, "Subscription must NOT be null.");
+		return new Runnable() {
+			@Override
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						final Pair<UUID, byte[]> published = subscription.receive();
+						if (published == null)
+							break; // Subscription closed.
+						refresh(published.getKey(), published.getValue());
+					} catch (ZMQException e) {
+						if (isSigTerm(e))
+							break;
+						LOGGER.error("Error [" + e.getErrorCode() + "]: " + e.getMessage(), e);
+					}
+				}
+				LOGGER.debug("Near cache no longer refreshed.");
+			}
+		};
+	}
+
+	/**
+	 * @return hits and misses of UUIDs looked up, up to the first miss of each request, and cached payloads' evictions.
+	 */
+	public CacheStats stats() {
+		return isEnabled() ? payloads.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+	}
+
+	public long size() {
+		return isEnabled() ? payloads.size() : 0;
+	}
+}
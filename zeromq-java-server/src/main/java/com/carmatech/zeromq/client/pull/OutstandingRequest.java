@@ -0,0 +1,235 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.carmatech.zeromq.api.Command.NOT_FOUND;
+import static com.carmatech.zeromq.api.Command.OK;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.utilities.retry.IRetryPolicy;
+
+/**
+ * Request sent by the application, and not replied to yet: when it expires, when to send it again, according to its retry policy, and whether it
+ * was hedged, i.e. also sent to a second server.
+ */
+@NotThreadSafe
+class OutstandingRequest {
+	private static final long NOW = Long.MIN_VALUE;
+	private static final long NEVER = Long.MAX_VALUE;
+
+	private final long sequenceNumber;
+	private final ZMsg uuidFrames; // Application's STRING-encoded UUIDs: [UUID 1]...[UUID N].
+	private final List<UUID> uuids; // Decoded once, re-encoded with each server's codec.
+	private final long expiresAt;
+	private final IRetryPolicy retries;
+	private long nextAttemptAt = NOW;
+	private long firstSentAt = NEVER;
+	private boolean isHedged = false;
+	private final Map<ServerProxy, Long> sentTo = new IdentityHashMap<ServerProxy, Long>(4); // When first sent to each server.
+	private final Set<ServerProxy> rejectedBy = Collections.newSetFromMap(new IdentityHashMap<ServerProxy, Boolean>(4)); // Servers which were BUSY.
+
+	public OutstandingRequest(final long sequenceNumber, final ZMsg uuidFrames, final long expiresAt, final IRetryPolicy retries) {
+		this.sequenceNumber = sequenceNumber;
+		this.uuidFrames = checkNotNull(uuidFrames, "UUIDs must NOT be null.");
+		this.uuids = decodeUuids(uuidFrames);
+		this.expiresAt = expiresAt;
+		this.retries = checkNotNull(retries, "Retry policy must NOT be null.");
+	}
+
+	private static List<UUID> decodeUuids(final ZMsg uuidFrames) {
+		final List<UUID> uuids = new ArrayList<UUID>(uuidFrames.size());
+		for (final ZFrame frame : uuidFrames)
+			uuids.add(Codec.STRING.decodeUuid(frame));
+		return uuids;
+	}
+
+	public long sequenceNumber() {
+		return sequenceNumber;
+	}
+
+	public List<UUID> uuids() {
+		return uuids;
+	}
+
+	public boolean isExpired(final long now) {
+		return expiresAt <= now;
+	}
+
+	/**
+	 * @return true if the request has never been sent, or if it is time to send it again, as it was not replied to.
+	 */
+	public boolean isDue(final long now) {
+		return nextAttemptAt <= now;
+	}
+
+	/**
+	 * Schedule the next attempt, if any, according to the retry policy: otherwise the request is simply left to expire.
+	 * 
+	 * @return true if the request will be sent again, at {@link #nextAttemptAt()}, should it still not be replied to.
+	 */
+	public boolean sent(final long now) {
+		if (firstSentAt == NEVER)
+			firstSentAt = now;
+		nextAttemptAt = retries.hasNextAttempt() ? now + retries.nextAttemptInMillis() : NEVER;
+		return nextAttemptAt != NEVER;
+	}
+
+	public long nextAttemptAt() {
+		return nextAttemptAt;
+	}
+
+	public boolean wasSent() {
+		return firstSentAt != NEVER;
+	}
+
+	/**
+	 * @return time since the request was first sent, whichever server it was sent to since.
+	 */
+	public long elapsedSinceFirstSent(final long now) {
+		return now - firstSentAt;
+	}
+
+	/**
+	 * @return true if the request was sent, but NOT hedged yet, and has waited for its reply for at least the provided threshold.
+	 */
+	public boolean isHedgeDue(final long now, final long thresholdInMillis) {
+		return wasSent() && !isHedged && elapsedSinceFirstSent(now) >= thresholdInMillis;
+	}
+
+	/**
+	 * The request was sent to the provided server: it is in flight there until completed, whether sent to it again or NOT.
+	 */
+	public void sentTo(final ServerProxy server, final long now) {
+		if (!sentTo.containsKey(server)) {
+			sentTo.put(server, now);
+			server.sent();
+		}
+	}
+
+	public boolean wasSentTo(final ServerProxy server) {
+		return sentTo.containsKey(server);
+	}
+
+	/**
+	 * The request was replied to, or expired: it is no longer in flight at any of the servers it was sent to.
+	 */
+	public void completed(final long now) {
+		for (final Map.Entry<ServerProxy, Long> server : sentTo.entrySet())
+			server.getKey().completed(now - server.getValue());
+		sentTo.clear();
+	}
+
+	/**
+	 * Hedged requests are never hedged again: retries go on as usual, to the first active server.
+	 */
+	public void hedged() {
+		isHedged = true;
+	}
+
+	/**
+	 * The provided server rejected the request, as it was BUSY: the request is NOT sent to it again, as long as other servers may take it.
+	 */
+	public void rejectedBy(final ServerProxy server) {
+		rejectedBy.add(server);
+	}
+
+	/**
+	 * @return true if any of the provided servers did NOT reject the request yet.
+	 */
+	public boolean canFailOver(final Iterable<ServerProxy> servers) {
+		for (final ServerProxy server : servers)
+			if (!rejectedBy.contains(server))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the provided servers which did NOT reject the request, in the same order, or all of them if they all did: the request is then retried
+	 *         as usual.
+	 */
+	public List<ServerProxy> candidates(final List<ServerProxy> servers) {
+		if (rejectedBy.isEmpty() || !canFailOver(servers))
+			return servers;
+
+		final List<ServerProxy> candidates = new ArrayList<ServerProxy>(servers.size());
+		for (final ServerProxy server : servers)
+			if (!rejectedBy.contains(server))
+				candidates.add(server);
+		return candidates;
+	}
+
+	/**
+	 * Make the request due right away, e.g. to send it to another server, without counting it as a retry.
+	 */
+	public void resend() {
+		nextAttemptAt = NOW;
+	}
+
+	/**
+	 * Take ownership of the provided frames, as received from the server: ([UUID][payload])*F, followed by [NOT_FOUND]([UUID])*M if some UUIDs have no
+	 * payload, or ([UUID])*N if none has.
+	 *
+	 * @param anyFound
+	 *            false if the server replied NOT_FOUND, instead of OK.
+	 * @return the reply to the application, which always gets STRING-encoded UUIDs, whatever the codec used on the wire:
+	 *         [OK][source]([UUID][payload])*F, followed by [NOT_FOUND]([UUID])*M if some UUIDs have no payload, or [NOT_FOUND][source]([UUID])*N if
+	 *         none has; or null if the frames do NOT account for all requested UUIDs.
+	 */
+	public ZMsg reply(final ZFrame source, final ZMsg frames, final boolean anyFound) {
+		final ZMsg found = new ZMsg();
+		final ZMsg missing = new ZMsg();
+		boolean isFound = anyFound;
+		while (!frames.isEmpty()) {
+			final ZFrame frame = frames.pop();
+			if (isFound && Command.decode(frame) == NOT_FOUND) {
+				isFound = false; // UUIDs are never mistaken for a command: they are longer than any.
+				frame.destroy();
+				continue;
+			}
+
+			final UUID uuid = Codec.of(frame).decodeUuid(frame); // As encoded on the wire.
+			frame.destroy();
+			if (!isFound) {
+				missing.add(Codec.STRING.encode(uuid));
+			} else if (!frames.isEmpty()) {
+				found.add(Codec.STRING.encode(uuid));
+				found.add(frames.pop());
+			}
+		}
+
+		if ((found.size() / 2) + missing.size() != uuids.size()) {
+			found.destroy();
+			missing.destroy();
+			return null;
+		}
+
+		final boolean anyPayload = !found.isEmpty();
+		final ZMsg reply = new ZMsg();
+		reply.add(anyPayload ? OK.toString() : NOT_FOUND.toString());
+		reply.add(source);
+		while (!found.isEmpty())
+			reply.add(found.pop());
+		if (anyPayload && !missing.isEmpty())
+			reply.add(NOT_FOUND.toString());
+		while (!missing.isEmpty())
+			reply.add(missing.pop());
+		return reply;
+	}
+
+	public void destroy() {
+		uuidFrames.destroy();
+	}
+}
@@ -9,24 +9,25 @@ import org.zeromq.ZMQ.PollItem;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZThread.IAttachedRunnable;
 
-import com.google.common.base.Ticker;
-
 /**
  * Pipeline which polls its two sockets: <br/>
  * - for outgoing messages (from pipe), <br/>
  * - for incoming messages (from router).
  */
 class Pipeline implements IAttachedRunnable {
-	private final Ticker ticker;
+	private final ClientOptions options;
+	private final Completions completions;
 
-	public Pipeline(final Ticker ticker) {
-		this.ticker = checkNotNull(ticker, "Time ticker must NOT be null.");
+	public Pipeline(final ClientOptions options, final Completions completions) {
+		this.options = checkNotNull(options, "Options must NOT be null.");
+		this.completions = checkNotNull(completions, "Completions must NOT be null.");
 	}
 
 	@Override
 	public void run(final Object[] args, final ZContext context, final Socket pipe) {
-		final Socket router = context.createSocket(ZMQ.ROUTER);
-		final Manager manager = new Manager(pipe, router, ticker);
+		final Socket router = options.transport().configure(context.createSocket(ZMQ.ROUTER));
+		final Manager manager = new Manager(pipe, router, options.ticker(), options.maxRequestsInFlight(), completions, options.retries(),
+				options.hedging(), options.selection());
 
 		final PollItem pipePoller = new PollItem(pipe, ZMQ.Poller.POLLIN);
 		final PollItem routerPoller = new PollItem(router, ZMQ.Poller.POLLIN);
@@ -38,18 +39,18 @@ class Pipeline implements IAttachedRunnable {
 			if (returnCode == ERROR)
 				break; // ZeroMQ context has been shut down.
 
-			if (pipePoller.isReadable())
-				manager.processOutbox();
+			if (pipePoller.isReadable() && !manager.processOutbox()) {
+				context.destroySocket(router); // Before acknowledging, as the client may then terminate a shared context.
+				pipe.send(Manager.STOP); // Acknowledge: the pipe itself is closed once this returns.
+				break;
+			}
 
 			if (routerPoller.isReadable())
 				manager.processInbox();
 
-			if (manager.isProcessingRequest()) { // Request has not been processed or hasn't received a reply yet.
-				if (manager.isRequestExpired()) {
-					manager.destroyCurrentRequestAndReturnFailed();
-				} else {
-					manager.sendRequestToFirstActiveServer();
-				}
+			if (manager.isProcessingRequest()) { // Some requests have not been processed or haven't received a reply yet.
+				manager.expireRequests();
+				manager.sendRequestsToActiveServers();
 			}
 
 			manager.pingAllServers();
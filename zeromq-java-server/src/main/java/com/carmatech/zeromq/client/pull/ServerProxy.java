@@ -2,22 +2,33 @@ package com.carmatech.zeromq.client.pull;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.List;
+import java.util.UUID;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.api.Codec;
 import com.carmatech.zeromq.api.IProtocol;
 import com.carmatech.zeromq.api.Protocol;
 import com.carmatech.zeromq.utilities.IMillisecondsTicker;
 import com.carmatech.zeromq.utilities.LocalHost;
 
 /**
- * Class responsible for managing the state of a remote server.
+ * Class responsible for managing the state of a remote server: whether it is alive, the codec to talk to it with, and how loaded it looks from this
+ * client, i.e. its number of requests in flight and its latency, for {@link ServerSelection}.
  */
 class ServerProxy {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ServerProxy.class);
 
+	/** Codec offered to servers on PING, used once accepted in their PONG. **/
+	private static final Codec PREFERRED_CODEC = Codec.BINARY;
+
+	/** Weight of each new latency in the moving average: the last ten or so latencies matter. **/
+	private static final double EWMA_WEIGHT = 0.2;
+
 	private final String endpoint;
 	private final IMillisecondsTicker ticker;
 	private final IProtocol protocol;
@@ -25,8 +36,11 @@ class ServerProxy {
 	private final int ttl;
 
 	private boolean isAlive = false;
+	private Codec codec = Codec.STRING; // Until the server accepts our preferred codec.
 	private long pingAt; // Send next ping at this time.
 	private long timeoutAt; // Expires at this time.
+	private int inFlight = 0; // Requests sent to this server, and not completed yet.
+	private double latencyInMillis = 0.0; // Exponentially weighted moving average: new servers look fast, so that they are tried.
 
 	public ServerProxy(final String endpoint, final int pingInterval, final int ttl, final IMillisecondsTicker ticker) {
 		this.endpoint = endpoint;
@@ -77,7 +91,7 @@ class ServerProxy {
 		if (pingAt <= now()) {
 			if (LOGGER.isDebugEnabled())
 				LOGGER.debug("Pinging server [{}]...", endpoint);
-			final ZMsg ping = protocol.ping(endpoint);
+			final ZMsg ping = protocol.ping(endpoint, PREFERRED_CODEC);
 			ping.send(socket);
 			pingAt = nextPing();
 		}
@@ -91,21 +105,82 @@ class ServerProxy {
 		return timeoutAt;
 	}
 
+	/**
+	 * A request was sent to this server, for the first time.
+	 */
+	public void sent() {
+		++inFlight;
+	}
+
+	/**
+	 * A request sent to this server completed, the provided time after it was sent: either this server replied, or it did NOT in that time, as another
+	 * one did, or as the request expired, which still tells how slow this server is at least.
+	 */
+	public void completed(final long elapsedInMillis) {
+		inFlight = Math.max(0, inFlight - 1);
+		latencyInMillis += EWMA_WEIGHT * (Math.max(0, elapsedInMillis) - latencyInMillis);
+	}
+
+	public int inFlight() {
+		return inFlight;
+	}
+
+	public double latencyInMillis() {
+		return latencyInMillis;
+	}
+
+	/**
+	 * @return expected time for a new request to complete: the latency, weighted by the requests already in flight, which the new one waits behind.
+	 */
+	public double cost() {
+		return (latencyInMillis + 1.0) * (inFlight + 1); // Never 0, so that idle servers are told apart by their latency, busy ones by their load.
+	}
+
 	public String endpoint() {
 		return endpoint;
 	}
 
-	public void send(final ZMsg currentRequest, final Socket socket) {
+	public Codec codec() {
+		return codec;
+	}
+
+	public void negotiated(final Codec codec) {
+		if (this.codec != codec) {
+			this.codec = checkNotNull(codec, "Codec must NOT be null.");
+			LOGGER.info("Server [{}] now talked to using codec [{}].", endpoint, codec);
+		}
+	}
+
+	public void send(final UUID uuid, final long sequenceNumber, final Socket socket) {
 		if (LOGGER.isDebugEnabled())
-			LOGGER.debug("Sending request #[{}] for [{}] to [{}]...", currentRequest.peek(), currentRequest.getLast(), endpoint);
+			LOGGER.debug("Sending request #[{}] for [{}] to [{}]...", sequenceNumber, uuid, endpoint);
 
-		// Sending destroys the request, so we duplicate the current one:
-		final ZMsg request = currentRequest.duplicate();
+		final ZMsg request = protocol.request(endpoint, uuid, sequenceNumber, codec);
+		final boolean success = request.send(socket);
+		if (!success) {
+			LOGGER.warn("Failed to send request #[{}] for [{}] to [{}]...", sequenceNumber, uuid, endpoint);
+		}
+	}
 
-		request.push(endpoint);
+	public void send(final List<UUID> uuids, final long sequenceNumber, final Socket socket) {
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Sending request #[{}] for [{}] UUIDs to [{}]...", sequenceNumber, uuids.size(), endpoint);
+
+		final ZMsg request = protocol.request(endpoint, uuids, sequenceNumber, codec);
 		final boolean success = request.send(socket);
 		if (!success) {
-			LOGGER.warn("Failed to send request #[{}] for [{}] to [{}]...", currentRequest.peek(), currentRequest.getLast(), endpoint);
+			LOGGER.warn("Failed to send request #[{}] for [{}] UUIDs to [{}]...", sequenceNumber, uuids.size(), endpoint);
+		}
+	}
+
+	public void fetch(final UUID uuid, final long sequenceNumber, final long offset, final int chunkSize, final Socket socket) {
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Fetching chunk at [{}] of request #[{}] for [{}] from [{}]...", offset, sequenceNumber, uuid, endpoint);
+
+		final ZMsg fetch = protocol.fetch(endpoint, uuid, sequenceNumber, offset, chunkSize, codec);
+		final boolean success = fetch.send(socket);
+		if (!success) {
+			LOGGER.warn("Failed to fetch chunk at [{}] of request #[{}] for [{}] from [{}]...", offset, sequenceNumber, uuid, endpoint);
 		}
 	}
 }
\ No newline at end of file
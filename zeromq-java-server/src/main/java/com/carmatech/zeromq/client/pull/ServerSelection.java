@@ -0,0 +1,116 @@
+package com.carmatech.zeromq.client.pull;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * How the client spreads requests over the servers it is connected to, among the responsive ones. <br />
+ * Load and latency are as seen from the client: requests in flight to each server, and the moving average of how long they took to complete.
+ */
+public enum ServerSelection {
+	/** All requests go to the first responsive server, the others only being failed over to. **/
+	FIRST_ACTIVE {
+		@Override
+		IServerSelector newSelector() {
+			return new IServerSelector() {
+				@Override
+				public ServerProxy select(final List<ServerProxy> servers, final UUID key) {
+					return servers.get(0);
+				}
+			};
+		}
+	},
+
+	/** Each server in turn. **/
+	ROUND_ROBIN {
+		@Override
+		IServerSelector newSelector() {
+			return new IServerSelector() {
+				private int turn = 0;
+
+				@Override
+				public ServerProxy select(final List<ServerProxy> servers, final UUID key) {
+					turn = (turn + 1) % servers.size();
+					return servers.get(turn);
+				}
+			};
+		}
+	},
+
+	/** The server with the fewest requests in flight. **/
+	LEAST_OUTSTANDING {
+		@Override
+		IServerSelector newSelector() {
+			return new IServerSelector() {
+				@Override
+				public ServerProxy select(final List<ServerProxy> servers, final UUID key) {
+					ServerProxy least = servers.get(0);
+					for (final ServerProxy server : servers)
+						if (server.inFlight() < least.inFlight())
+							least = server;
+					return least;
+				}
+			};
+		}
+	},
+
+	/** The server with the lowest expected completion time, i.e. its average latency weighted by its requests in flight: see {@link ServerProxy#cost()}. **/
+	EWMA_LATENCY {
+		@Override
+		IServerSelector newSelector() {
+			return new IServerSelector() {
+				@Override
+				public ServerProxy select(final List<ServerProxy> servers, final UUID key) {
+					ServerProxy cheapest = servers.get(0);
+					for (final ServerProxy server : servers)
+						if (server.cost() < cheapest.cost())
+							cheapest = server;
+					return cheapest;
+				}
+			};
+		}
+	},
+
+	/**
+	 * The cheaper of two servers picked at random, as {@link #EWMA_LATENCY} would: nearly as good at avoiding slow servers, without all clients herding
+	 * to the same fastest one.
+	 */
+	POWER_OF_TWO_CHOICES {
+		@Override
+		IServerSelector newSelector() {
+			return new IServerSelector() {
+				private final Random random = new Random();
+
+				@Override
+				public ServerProxy select(final List<ServerProxy> servers, final UUID key) {
+					final int size = servers.size();
+					if (size == 1)
+						return servers.get(0);
+
+					final int first = random.nextInt(size);
+					final int second = (first + 1 + random.nextInt(size - 1)) % size; // Distinct from the first.
+					final ServerProxy server1 = servers.get(first);
+					final ServerProxy server2 = servers.get(second);
+					return (server2.cost() < server1.cost()) ? server2 : server1;
+				}
+			};
+		}
+	},
+
+	/**
+	 * Each UUID to the same server, as long as it is responsive and NOT overloaded, so that each server's cache only holds its share of the hot set:
+	 * see {@link ConsistentHashRing}.
+	 */
+	CONSISTENT_HASH {
+		@Override
+		IServerSelector newSelector() {
+			return new ConsistentHashRing(ConsistentHashRing.DEFAULT_VIRTUAL_NODES, ConsistentHashRing.DEFAULT_LOAD_FACTOR);
+		}
+	};
+
+	/**
+	 * @return a new selector, for a single client's pipeline.
+	 */
+	abstract IServerSelector newSelector();
+}
@@ -0,0 +1,166 @@
+package com.carmatech.zeromq.client.pull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.zeromq.ZFrame;
+
+/**
+ * State of a chunked transfer: which chunks to fetch, which are in flight, and which arrived before the one the application is waiting for. <br />
+ * At most "window" chunks are ever in flight or waiting to be consumed: a credit is only granted back once the application consumed a chunk.
+ */
+@NotThreadSafe
+class Transfer {
+	private static final long UNKNOWN_SIZE = -1L;
+
+	private final long sequenceNumber;
+	private final UUID uuid;
+	private final int chunkSize;
+	private final long retryInterval;
+
+	private final SortedMap<Long, Long> inFlight = new TreeMap<Long, Long>(); // Offset -> time the chunk was last fetched at.
+	private final Map<Long, ZFrame> received = new HashMap<Long, ZFrame>(); // Offset -> chunk, for chunks received out of order.
+
+	private int credit;
+	private long nextOffset = 0L; // Offset of the next chunk to fetch.
+	private long deliveredOffset = 0L; // Offset of the next chunk to deliver to the application.
+	private long totalSize = UNKNOWN_SIZE;
+	private long expiresAt;
+
+	public Transfer(final long sequenceNumber, final UUID uuid, final int chunkSize, final int window, final long retryInterval) {
+		this.sequenceNumber = sequenceNumber;
+		this.uuid = checkNotNull(uuid, "UUID must NOT be null.");
+		checkArgument(chunkSize > 0, "Chunk size must be strictly positive, but was [%s].", chunkSize);
+		checkArgument(window > 0, "Window must be strictly positive, but was [%s].", window);
+		this.chunkSize = chunkSize;
+		this.credit = window;
+		this.retryInterval = retryInterval;
+	}
+
+	public long sequenceNumber() {
+		return sequenceNumber;
+	}
+
+	public UUID uuid() {
+		return uuid;
+	}
+
+	public int chunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return offsets of the chunks to fetch now: chunks in flight for too long, to fetch again, and new chunks, as long as there is credit left.
+	 */
+	public List<Long> offsetsToFetch(final long now) {
+		final List<Long> offsets = new ArrayList<Long>();
+		for (final Map.Entry<Long, Long> chunk : inFlight.entrySet()) {
+			if (chunk.getValue() + retryInterval <= now) {
+				offsets.add(chunk.getKey());
+				chunk.setValue(now);
+			}
+		}
+
+		while (credit > 0 && (totalSize == UNKNOWN_SIZE || nextOffset < totalSize)) {
+			offsets.add(nextOffset);
+			inFlight.put(nextOffset, now);
+			nextOffset += chunkSize;
+			--credit;
+		}
+		return offsets;
+	}
+
+	/**
+	 * @return time at which the oldest chunk in flight should be fetched again, or {@link Long#MAX_VALUE} if none is in flight.
+	 */
+	public long nextRetryAt() {
+		long oldest = Long.MAX_VALUE;
+		for (final long fetchedAt : inFlight.values())
+			oldest = Math.min(oldest, fetchedAt);
+		return (oldest == Long.MAX_VALUE) ? oldest : oldest + retryInterval;
+	}
+
+	/**
+	 * Take ownership of the provided chunk.
+	 *
+	 * @return true if the chunk was in flight, false if it is a duplicate, e.g. the reply to a FETCH sent again.
+	 */
+	public boolean received(final long offset, final long totalSize, final ZFrame chunk) {
+		if (inFlight.remove(offset) == null) {
+			chunk.destroy();
+			return false;
+		}
+
+		if (this.totalSize == UNKNOWN_SIZE) {
+			this.totalSize = totalSize;
+			cancelChunksPastTheEnd();
+		}
+
+		if (offset >= totalSize) { // Fetched before the size was known: nothing to consume.
+			chunk.destroy();
+			++credit;
+		} else {
+			received.put(offset, chunk);
+		}
+		return true;
+	}
+
+	private void cancelChunksPastTheEnd() {
+		final Iterator<Long> pastTheEnd = inFlight.tailMap(totalSize).keySet().iterator();
+		while (pastTheEnd.hasNext()) {
+			pastTheEnd.next();
+			pastTheEnd.remove();
+			++credit;
+		}
+	}
+
+	/**
+	 * @return the next chunk to deliver to the application, or null if it has not been received yet.
+	 */
+	public ZFrame nextChunk() {
+		final ZFrame chunk = received.remove(deliveredOffset);
+		if (chunk != null)
+			deliveredOffset += chunk.size();
+		return chunk;
+	}
+
+	/**
+	 * The application consumed a chunk: one more chunk can be fetched.
+	 */
+	public void credit() {
+		++credit;
+	}
+
+	/**
+	 * The transfer expires if no chunk is received, nor consumed, until the provided time.
+	 */
+	public void expireAt(final long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	public boolean isExpired(final long now) {
+		return expiresAt <= now;
+	}
+
+	public boolean isComplete() {
+		return (totalSize != UNKNOWN_SIZE) && (deliveredOffset >= totalSize);
+	}
+
+	public void destroy() {
+		for (final ZFrame chunk : received.values())
+			chunk.destroy();
+		received.clear();
+		inFlight.clear();
+	}
+}
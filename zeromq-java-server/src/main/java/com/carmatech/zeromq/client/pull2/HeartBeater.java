@@ -10,6 +10,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.PollItem;
 import org.zeromq.ZMQ.Socket;
@@ -125,16 +126,16 @@ public class HeartBeater implements Runnable {
 
 	private void doHandle(final ZMsg pong) {
 		try {
-			final String endpoint = pong.popString();
-			final String commandString = pong.popString();
-			final Command command = Command.parse(commandString);
+			final ZFrame endpoint = pong.pop();
+			final ZFrame commandFrame = pong.pop();
+			final Command command = Command.decode(commandFrame);
 
 			if (command == PONG) {
-				final ServerProxy server = servers.get(endpoint);
+				final ServerProxy server = servers.get(new String(endpoint.getData(), ZMQ.CHARSET));
 				server.activate();
 				server.refresh();
 			} else {
-				LOGGER.warn("Received invalid reply from [{}]: [{}] expected but [{}] received.", endpoint, PONG, commandString);
+				LOGGER.warn("Received invalid reply from [{}]: [{}] expected but [{}] received.", endpoint, PONG, commandFrame);
 			}
 		} finally {
 			pong.destroy();
@@ -1,6 +1,7 @@
 package com.carmatech.zeromq.client.push;
 
 import static com.carmatech.zeromq.utilities.ZeroMQ.createContext;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.Closeable;
 import java.util.UUID;
@@ -16,6 +17,8 @@ import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.utilities.LocalEndpoints;
+import com.carmatech.zeromq.utilities.TransportProfile;
 import com.google.common.util.concurrent.Uninterruptibles;
 
 public class PushClient implements Closeable {
@@ -25,21 +28,38 @@ public class PushClient implements Closeable {
 	private final AtomicLong numReceivedMessages = new AtomicLong(0L);
 
 	public PushClient() {
-		context = createContext();
-		socket = context.createSocket(ZMQ.SUB);
+		this(TransportProfile.DEFAULT);
+	}
+
+	public PushClient(final TransportProfile transport) {
+		checkNotNull(transport, "Transport profile must NOT be null.");
+		context = createContext(transport);
+		socket = transport.configure(context.createSocket(ZMQ.SUB));
 	}
 
 	/**
-	 * Connect to the specified server. <br />
+	 * Client sharing the provided context, e.g. a co-located server's, which it does NOT terminate when closed: servers bound to INPROC in that
+	 * context are then connected to over INPROC. Closing the client does NOT interrupt a pending {@link #receive()}.
+	 */
+	public PushClient(final ZContext shared, final TransportProfile transport) {
+		checkNotNull(shared, "Context must NOT be null.");
+		checkNotNull(transport, "Transport profile must NOT be null.");
+		context = ZContext.shadow(shared);
+		socket = transport.configure(context.createSocket(ZMQ.SUB));
+	}
+
+	/**
+	 * Connect to the specified server, over the most local transport it is bound to: see {@link LocalEndpoints}. <br />
 	 * WARNING: Waits 100 milliseconds for the connection to come up, in order to avoid loosing messages while connecting.
 	 * 
 	 * @param endpoint
 	 *            Endpoint of the server to connect to.
 	 */
 	public void connect(final String endpoint) {
-		socket.connect(endpoint);
+		final String localEndpoint = LocalEndpoints.preferred(endpoint, context);
+		socket.connect(localEndpoint);
 		Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
-		LOGGER.info("PUSH client now connected to [{}].", endpoint);
+		LOGGER.info("PUSH client now connected to [{}].", localEndpoint);
 	}
 
 	public void subscribeTo(final UUID uuid) {
@@ -47,8 +67,22 @@ public class PushClient implements Closeable {
 		LOGGER.info("PUSH client now accepting data for [{}].", uuid);
 	}
 
+	/**
+	 * Subscribe to every UUID published, e.g. to keep a {@link com.carmatech.zeromq.client.pull.NearCache} fresh.
+	 */
+	public void subscribeToAll() {
+		socket.subscribe(new byte[0]);
+		LOGGER.info("PUSH client now accepting data for all UUIDs.");
+	}
+
+	/**
+	 * @return the next published (UUID, payload), or null if the client was closed, or interrupted, while waiting.
+	 */
 	public Pair<UUID, byte[]> receive() {
 		final ZMsg message = ZMsg.recvMsg(socket);
+		if (message == null)
+			return null;
+
 		final long sequenceId = numReceivedMessages.incrementAndGet();
 		final UUID uuid = UUID.fromString(message.popString());
 		final String source = message.popString();
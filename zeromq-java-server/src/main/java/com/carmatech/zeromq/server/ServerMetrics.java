@@ -0,0 +1,282 @@
+package com.carmatech.zeromq.server;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IBufferProvider;
+import com.carmatech.zeromq.utilities.Histogram;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Lock-free instrumentation of a server: <br />
+ * - messages received and sent, per {@link Command}, <br />
+ * - queue wait: from reception of a request until a thread starts looking its payloads up, <br />
+ * - provider time: how long each lookup takes, <br />
+ * - send time: how long ZeroMQ takes to accept each message, <br />
+ * - payload sizes. <br />
+ * Exposed through JMX once {@link #register(String, int) registered}, and to clients through the STATS command.
+ */
+@ThreadSafe
+public final class ServerMetrics implements ServerMetricsMXBean {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ServerMetrics.class);
+	private static final String DOMAIN = "com.carmatech.zeromq";
+	private static final Command[] COMMANDS = Command.values();
+
+	private final AtomicLongArray received = new AtomicLongArray(COMMANDS.length);
+	private final AtomicLongArray sent = new AtomicLongArray(COMMANDS.length);
+	private final Histogram queueWait = new Histogram();
+	private final Histogram providerTime = new Histogram();
+	private final Histogram sendTime = new Histogram();
+	private final Histogram payloadSize = new Histogram();
+
+	private ObjectName name; // Guarded by this.
+
+	/**
+	 * @param request
+	 *            Request, as received by the server: [ID source][Command]...
+	 */
+	public void received(final ZMsg request) {
+		received.incrementAndGet(commandOf(request).ordinal());
+	}
+
+	/**
+	 * Send the reply, timing it.
+	 *
+	 * @param reply
+	 *            Reply, as sent by the server: [ID destination][Command]...
+	 */
+	public void send(final ZMsg reply, final Socket socket) {
+		sent.incrementAndGet(commandOf(reply).ordinal());
+		publish(reply, socket);
+	}
+
+	/**
+	 * Send the message, timing it, whatever its format.
+	 */
+	public void publish(final ZMsg message, final Socket socket) {
+		final long start = System.nanoTime();
+		message.send(socket);
+		sendTime.record(System.nanoTime() - start);
+	}
+
+	private static Command commandOf(final ZMsg message) {
+		return (message.size() < 2) ? Command.UNKNOWN : Command.decode(Iterables.get(message, 1));
+	}
+
+	/**
+	 * @param since
+	 *            When the request was received, as per {@link System#nanoTime()}.
+	 */
+	public void waited(final long since) {
+		queueWait.record(System.nanoTime() - since);
+	}
+
+	public void payload(final long bytes) {
+		payloadSize.record(bytes);
+	}
+
+	/**
+	 * @return the provider, timing its lookups, and recording the sizes of its payloads.
+	 */
+	public IBufferProvider instrument(final IBufferProvider provider) {
+		checkNotNull(provider, "Provider must NOT be null.");
+		return new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				final long start = System.nanoTime();
+				final ByteBuffer payload = provider.apply(uuid);
+				providerTime.record(System.nanoTime() - start);
+				if (payload != null)
+					payloadSize.record(payload.remaining());
+				return payload;
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				provider.release(uuid, buffer);
+			}
+		};
+	}
+
+	/**
+	 * @return the provider, timing its lookups until they complete, and recording the sizes of its payloads.
+	 */
+	public IAsyncProvider instrument(final IAsyncProvider provider) {
+		checkNotNull(provider, "Provider must NOT be null.");
+		return new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				final long start = System.nanoTime();
+				final ListenableFuture<ByteBuffer> payload = provider.apply(uuid);
+				Futures.addCallback(payload, new FutureCallback<ByteBuffer>() {
+					@Override
+					public void onSuccess(final ByteBuffer result) {
+						providerTime.record(System.nanoTime() - start);
+						if (result != null)
+							payloadSize.record(result.remaining());
+					}
+
+					@Override
+					public void onFailure(final Throwable t) {
+						providerTime.record(System.nanoTime() - start);
+					}
+				});
+				return payload;
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				provider.release(uuid, buffer);
+			}
+		};
+	}
+
+	/**
+	 * Same as {@link com.carmatech.zeromq.api.Providers#async(IBufferProvider, ListeningExecutorService)}, also recording how long lookups wait for
+	 * one of the executor's threads.
+	 */
+	public IAsyncProvider queued(final IBufferProvider provider, final ListeningExecutorService executor) {
+		checkNotNull(provider, "Provider must NOT be null.");
+		checkNotNull(executor, "Executor must NOT be null.");
+		return new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				final long since = System.nanoTime();
+				return executor.submit(new Callable<ByteBuffer>() {
+					@Override
+					public ByteBuffer call() {
+						waited(since);
+						return provider.apply(uuid);
+					}
+				});
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				provider.release(uuid, buffer);
+			}
+		};
+	}
+
+	/**
+	 * @return all metrics, as flat names, e.g. "received.REQUEST" or "providerNanos.p99", to values.
+	 */
+	public Map<String, Long> snapshot() {
+		final Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		putAll(snapshot, "received.", getReceived());
+		putAll(snapshot, "sent.", getSent());
+		putAll(snapshot, "queueWaitNanos.", getQueueWaitNanos());
+		putAll(snapshot, "providerNanos.", getProviderNanos());
+		putAll(snapshot, "sendNanos.", getSendNanos());
+		putAll(snapshot, "payloadBytes.", getPayloadBytes());
+		return snapshot;
+	}
+
+	private static void putAll(final Map<String, Long> snapshot, final String prefix, final Map<String, Long> values) {
+		for (final Map.Entry<String, Long> entry : values.entrySet())
+			snapshot.put(prefix + entry.getKey(), entry.getValue());
+	}
+
+	@Override
+	public Map<String, Long> getReceived() {
+		return byCommand(received);
+	}
+
+	@Override
+	public Map<String, Long> getSent() {
+		return byCommand(sent);
+	}
+
+	private static Map<String, Long> byCommand(final AtomicLongArray counters) {
+		final Map<String, Long> byCommand = new LinkedHashMap<String, Long>();
+		for (final Command command : COMMANDS) {
+			final long count = counters.get(command.ordinal());
+			if (count > 0)
+				byCommand.put(command.name(), count);
+		}
+		return byCommand;
+	}
+
+	@Override
+	public Map<String, Long> getQueueWaitNanos() {
+		return summaryOf(queueWait);
+	}
+
+	@Override
+	public Map<String, Long> getProviderNanos() {
+		return summaryOf(providerTime);
+	}
+
+	@Override
+	public Map<String, Long> getSendNanos() {
+		return summaryOf(sendTime);
+	}
+
+	@Override
+	public Map<String, Long> getPayloadBytes() {
+		return summaryOf(payloadSize);
+	}
+
+	private static Map<String, Long> summaryOf(final Histogram histogram) {
+		final Map<String, Long> summary = new LinkedHashMap<String, Long>();
+		summary.put("count", histogram.count());
+		summary.put("mean", histogram.mean());
+		summary.put("p50", histogram.percentile(0.5));
+		summary.put("p90", histogram.percentile(0.9));
+		summary.put("p99", histogram.percentile(0.99));
+		summary.put("p999", histogram.percentile(0.999));
+		summary.put("max", histogram.max());
+		return summary;
+	}
+
+	/**
+	 * Register these metrics in the platform's MBean server, as "com.carmatech.zeromq:type=[type],port=[port]". <br />
+	 * Failures, e.g. if another server already registered the same name, are logged: metrics are then only available through STATS.
+	 */
+	public synchronized void register(final String type, final int port) {
+		try {
+			final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",port=" + port);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			name = objectName;
+		} catch (JMException e) {
+			LOGGER.warn("Failed to register metrics in JMX.", e);
+		}
+	}
+
+	public synchronized void unregister() {
+		if (name == null)
+			return;
+
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (JMException e) {
+			LOGGER.warn("Failed to unregister metrics from JMX.", e);
+		}
+		name = null;
+	}
+}
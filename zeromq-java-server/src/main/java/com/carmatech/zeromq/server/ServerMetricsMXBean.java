@@ -0,0 +1,23 @@
+package com.carmatech.zeromq.server;
+
+import java.util.Map;
+
+/**
+ * JMX view of a server's {@link ServerMetrics}: each attribute maps names to values, e.g. "REQUEST" to the number of requests received, or "p99" to
+ * the 99th percentile of a histogram.
+ */
+public interface ServerMetricsMXBean {
+
+	Map<String, Long> getReceived();
+
+	Map<String, Long> getSent();
+
+	Map<String, Long> getQueueWaitNanos();
+
+	Map<String, Long> getProviderNanos();
+
+	Map<String, Long> getSendNanos();
+
+	Map<String, Long> getPayloadBytes();
+
+}
@@ -0,0 +1,215 @@
+package com.carmatech.zeromq.server.pull;
+
+import static com.carmatech.zeromq.utilities.ZeroMQ.ERROR;
+import static com.carmatech.zeromq.utilities.ZeroMQ.bindTo;
+import static com.carmatech.zeromq.utilities.ZeroMQ.isSigTerm;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZContext;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.PollItem;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Template of asynchronous Request-Reply runnable: <br />
+ * - waits for a request, or for replies to complete <br />
+ * - starts replying to requests (abstract: to implement in child classes), without waiting for their replies <br />
+ * - sends replies as they complete, in any order <br />
+ * - repeat until: 1) thread is interrupted, 2) ZeroMQ context closes, 3) socket receives SIGTERM, 4) {@link #stop()} is called, or 5) socket
+ * receives a STOP from its broker: see {@link LoadBalancingBroker}. <br />
+ * Sockets are NOT thread-safe: replies completed by other threads are queued, and this runnable is woken up through an inproc socket to send them.
+ * It closes its sockets itself once stopped, so that they can NOT be closed under its feet when the context is destroyed.
+ */
+abstract class AbstractAsyncPullRunnable implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractAsyncPullRunnable.class);
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+	private static final byte[] WAKE_UP = new byte[0];
+
+	protected final Socket socket;
+	protected final IProtocol protocol;
+	protected final IAsyncProvider provider;
+	private final ZContext context;
+
+	private final Queue<ZMsg> completedReplies = new ConcurrentLinkedQueue<ZMsg>();
+	private final AtomicInteger repliesInFlight = new AtomicInteger(); // Not completed, or completed but not sent yet.
+	private final Socket wakeUpReceiver;
+	private final Socket wakeUpSender; // Shared by the threads completing replies: guarded by itself.
+	private boolean isClosed = false; // Guarded by wakeUpSender.
+	private volatile boolean isStopping = false;
+
+	AbstractAsyncPullRunnable(final Socket socket, final IProtocol protocol, final IAsyncProvider provider, final ZContext context) {
+		this.socket = checkNotNull(socket, "Socket must NOT be null.");
+		this.protocol = checkNotNull(protocol, "Protocol must NOT be null.");
+		this.provider = checkNotNull(provider, "Provider must NOT be null.");
+		this.context = checkNotNull(context, "Context must NOT be null.");
+
+		final String endpoint = "inproc://" + getClass().getSimpleName() + "-wake-up-" + COUNTER.incrementAndGet();
+		wakeUpReceiver = context.createSocket(ZMQ.PULL);
+		wakeUpReceiver.setLinger(0);
+		bindTo(endpoint, wakeUpReceiver);
+		wakeUpSender = context.createSocket(ZMQ.PUSH);
+		wakeUpSender.setLinger(0);
+		wakeUpSender.connect(endpoint);
+	}
+
+	@Override
+	public void run() {
+		LOGGER.debug("Hi!");
+
+		final PollItem requests = new PollItem(socket, ZMQ.Poller.POLLIN);
+		final PollItem wakeUps = new PollItem(wakeUpReceiver, ZMQ.Poller.POLLIN);
+		final PollItem[] items = { requests, wakeUps };
+
+		while (!isInterrupted() && !isStopping) {
+			try {
+				if (ZMQ.poll(items, -1) == ERROR) {
+					LOGGER.warn("Server has been interrupted: poll failed.");
+					break;
+				}
+
+				if (wakeUps.isReadable())
+					sendCompletedReplies();
+
+				if (requests.isReadable()) {
+					final ZMsg request = ZMsg.recvMsg(socket);
+					if (request == null) {
+						LOGGER.warn("Server has been interrupted: null request.");
+						break;
+					}
+					if (LoadBalancingBroker.isStop(request)) {
+						request.destroy();
+						break;
+					}
+
+					reply(request);
+				}
+
+			} catch (ZMQException e) {
+				if (isSigTerm(e)) {
+					LOGGER.warn("Server has been interrupted: SIGTERM.");
+					break;
+				}
+
+				LOGGER.error("Error [" + e.getErrorCode() + "]: " + e.getMessage(), e);
+			}
+		}
+
+		if (isInterrupted())
+			LOGGER.warn("Server has been interrupted.");
+
+		closeSockets();
+		LOGGER.debug("Bye!");
+	}
+
+	/**
+	 * Stop this runnable, from any thread: it closes its sockets before its thread ends, which should then be joined.
+	 */
+	void stop() {
+		isStopping = true;
+		wakeUp();
+	}
+
+	private void closeSockets() {
+		synchronized (wakeUpSender) {
+			isClosed = true; // Replies completing from now on are dropped.
+			context.destroySocket(wakeUpSender);
+		}
+		context.destroySocket(wakeUpReceiver);
+		context.destroySocket(socket);
+
+		for (ZMsg reply = completedReplies.poll(); reply != null; reply = completedReplies.poll())
+			reply.destroy(); // Release its payloads.
+	}
+
+	private boolean isInterrupted() {
+		return Thread.currentThread().isInterrupted();
+	}
+
+	private void sendCompletedReplies() {
+		while (wakeUpReceiver.recv(ZMQ.DONTWAIT) != null) {
+			// Drain all wake-ups: one pass over the queue sends all completed replies.
+		}
+
+		for (ZMsg reply = completedReplies.poll(); reply != null; reply = completedReplies.poll()) {
+			repliesInFlight.decrementAndGet();
+			send(reply);
+		}
+	}
+
+	/**
+	 * @return number of requests being replied to, whose replies have not been sent yet.
+	 */
+	protected int repliesInFlight() {
+		return repliesInFlight.get();
+	}
+
+	/**
+	 * Send the reply once complete: right away if it already is, otherwise from this runnable's thread, once woken up. <br />
+	 * The reply should complete with an ERROR rather than fail, as {@link Protocol}'s do: a failed reply is never sent, so its request's
+	 * {@link ReplyCache} entry, and its broker's worker slot, are only freed once they expire, if ever.
+	 * 
+	 * @param envelope
+	 *            Frame to push on top of the reply before sending it, or null.
+	 */
+	protected void sendWhenComplete(final ListenableFuture<ZMsg> reply, final ZFrame envelope) {
+		if (reply.isDone()) {
+			send(Futures.getUnchecked(reply), envelope);
+			return;
+		}
+
+		repliesInFlight.incrementAndGet();
+		Futures.addCallback(reply, new FutureCallback<ZMsg>() {
+			@Override
+			public void onSuccess(final ZMsg completedReply) {
+				if (envelope != null)
+					completedReply.push(envelope);
+				completedReplies.add(completedReply);
+				wakeUp();
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				repliesInFlight.decrementAndGet();
+				LOGGER.error("Failed to reply.", t);
+			}
+		});
+	}
+
+	private void send(final ZMsg reply, final ZFrame envelope) {
+		if (envelope != null)
+			reply.push(envelope);
+		send(reply);
+	}
+
+	/**
+	 * Send the reply on this runnable's socket. To override in child classes, e.g. to time it.
+	 */
+	protected void send(final ZMsg reply) {
+		reply.send(socket);
+	}
+
+	private void wakeUp() {
+		synchronized (wakeUpSender) {
+			if (!isClosed)
+				wakeUpSender.send(WAKE_UP, ZMQ.DONTWAIT); // If dropped, enough wake-ups are already pending.
+		}
+	}
+
+	protected abstract void reply(final ZMsg request);
+}
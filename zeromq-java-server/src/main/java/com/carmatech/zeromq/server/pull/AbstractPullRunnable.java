@@ -3,34 +3,37 @@ package com.carmatech.zeromq.server.pull;
 import static com.carmatech.zeromq.utilities.ZeroMQ.isSigTerm;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.util.UUID;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.zeromq.ZContext;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMQException;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.api.IBufferProvider;
 import com.carmatech.zeromq.api.IProtocol;
-import com.google.common.base.Function;
 
 /**
  * Template of Request-Reply runnable: <br />
  * - waits for a request <br />
  * - reply to it (abstract: to implement in child classes) <br />
- * - repeat until: 1) thread is interrupted, 2) ZeroMQ context closes, or 3) socket receives SIGTERM.
+ * - repeat until: 1) thread is interrupted, 2) ZeroMQ context closes, 3) socket receives SIGTERM, or 4) socket receives a STOP from its broker: see
+ * {@link LoadBalancingBroker}. <br />
+ * It closes its socket itself once stopped, so that it can NOT be closed under its feet when the context is destroyed.
  */
 abstract class AbstractPullRunnable implements Runnable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractPullRunnable.class);
 
 	protected final Socket socket;
 	protected final IProtocol protocol;
-	protected final Function<UUID, byte[]> provider;
+	protected final IBufferProvider provider;
+	private final ZContext context;
 
-	AbstractPullRunnable(final Socket socket, final IProtocol protocol, final Function<UUID, byte[]> provider) {
+	AbstractPullRunnable(final Socket socket, final IProtocol protocol, final IBufferProvider provider, final ZContext context) {
 		this.socket = checkNotNull(socket, "Socket must NOT be null.");
 		this.protocol = checkNotNull(protocol, "Protocol must NOT be null.");
 		this.provider = checkNotNull(provider, "Provider must NOT be null.");
+		this.context = checkNotNull(context, "Context must NOT be null.");
 	}
 
 	@Override
@@ -44,6 +47,10 @@ abstract class AbstractPullRunnable implements Runnable {
 					LOGGER.warn("Server has been interrupted: null request.");
 					break;
 				}
+				if (LoadBalancingBroker.isStop(request)) {
+					request.destroy();
+					break;
+				}
 
 				reply(request);
 
@@ -60,6 +67,7 @@ abstract class AbstractPullRunnable implements Runnable {
 		if (isInterrupted())
 			LOGGER.warn("Server has been interrupted.");
 
+		context.destroySocket(socket);
 		LOGGER.debug("Bye!");
 	}
 
@@ -5,7 +5,9 @@ import static com.carmatech.zeromq.utilities.ZeroMQ.bindTo;
 import static com.carmatech.zeromq.utilities.ZeroMQ.createContext;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,54 +15,140 @@ import org.zeromq.ZContext;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 
+import com.carmatech.zeromq.api.ChunkedTransfers;
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IBufferProvider;
 import com.carmatech.zeromq.api.IProtocol;
 import com.carmatech.zeromq.api.Protocol;
+import com.carmatech.zeromq.api.Providers;
 import com.carmatech.zeromq.server.IServer;
+import com.carmatech.zeromq.server.ServerMetrics;
+import com.carmatech.zeromq.utilities.Duration;
+import com.carmatech.zeromq.utilities.LocalEndpoints;
 import com.carmatech.zeromq.utilities.LocalHost;
+import com.carmatech.zeromq.utilities.Transport;
+import com.carmatech.zeromq.utilities.TransportProfile;
 import com.google.common.base.Function;
 
 public abstract class AbstractPullServer implements IServer {
+	/**
+	 * Chunked transfers keep the whole payload in memory until they complete: bound how much they may hold, and for how long.
+	 */
+	public static final long TRANSFERS_MAX_BYTES = 256 * 1024 * 1024;
+	public static final Duration TRANSFERS_EXPIRY = new Duration(30, TimeUnit.SECONDS);
+
 	protected final Logger logger = LoggerFactory.getLogger(getClass());
 
 	protected final IProtocol protocol;
-	protected final Function<UUID, byte[]> provider;
+	protected final IBufferProvider provider; // Null if asynchronous. Metered by the admission control, and instrumented.
+	protected final IAsyncProvider asyncProvider; // Null if synchronous. Metered by the admission control, and instrumented.
+	protected final AdmissionControl admission;
+	protected final ServerMetrics metrics = new ServerMetrics();
+	final ReplyCache replies = new ReplyCache(); // Only used by the thread owning the server's socket.
+	protected final TransportProfile transport;
 	protected final ZContext context;
 	protected final Socket server;
+	private final String identity;
 
 	protected final Thread shutdownThread;
 
 	public AbstractPullServer(final int port, final Function<UUID, byte[]> provider) {
-		this.provider = checkNotNull(provider, "Provider must NOT be null.");
+		this(port, Providers.of(provider));
+	}
+
+	public AbstractPullServer(final int port, final IBufferProvider provider) {
+		this(port, provider, new AdmissionControl());
+	}
+
+	public AbstractPullServer(final int port, final IBufferProvider provider, final AdmissionControl admission) {
+		this(port, provider, admission, TransportProfile.DEFAULT);
+	}
+
+	public AbstractPullServer(final int port, final IBufferProvider provider, final AdmissionControl admission, final TransportProfile transport) {
+		this(port, checkNotNull(provider, "Provider must NOT be null."), null, admission, transport);
+	}
+
+	public AbstractPullServer(final int port, final IAsyncProvider asyncProvider) {
+		this(port, asyncProvider, new AdmissionControl());
+	}
+
+	public AbstractPullServer(final int port, final IAsyncProvider asyncProvider, final AdmissionControl admission) {
+		this(port, asyncProvider, admission, TransportProfile.DEFAULT);
+	}
+
+	public AbstractPullServer(final int port, final IAsyncProvider asyncProvider, final AdmissionControl admission, final TransportProfile transport) {
+		this(port, null, checkNotNull(asyncProvider, "Provider must NOT be null."), admission, transport);
+	}
+
+	private AbstractPullServer(final int port, final IBufferProvider provider, final IAsyncProvider asyncProvider, final AdmissionControl admission,
+			final TransportProfile transport) {
+		this.admission = checkNotNull(admission, "Admission control must NOT be null.");
+		this.transport = checkNotNull(transport, "Transport profile must NOT be null.");
+		this.provider = (provider == null) ? null : metrics.instrument(admission.meter(provider));
+		this.asyncProvider = (asyncProvider == null) ? null : metrics.instrument(admission.meter(asyncProvider));
 
 		shutdownThread = addShutdownHook(this);
-		context = createContext();
+		context = createContext(transport);
 
-		protocol = new Protocol(LocalHost.HOST_AND_IP);
+		protocol = new Protocol(LocalHost.HOST_AND_IP, new ChunkedTransfers(TRANSFERS_MAX_BYTES, TRANSFERS_EXPIRY));
+		identity = Transport.TCP.connectEndpoint(port);
 		server = bindServerTo(port, context);
+		metrics.register(getClass().getSimpleName(), port);
 	}
 
 	private Socket bindServerTo(final int port, final ZContext context) {
 		final Socket server = context.createSocket(ZMQ.ROUTER);
 
-		final String connectEndpoint = "tcp://localhost:" + port; // What clients should use to connect to this server, ...
-		server.setIdentity(connectEndpoint.getBytes()); // ...this also serves as the ROUTER socket's identity.
+		// What clients should use to connect to this server, and address their requests to, whichever transport: see LocalEndpoints.
+		server.setIdentity(identity.getBytes());
 
 		server.setLinger(0); // Unsent messages are immediately dropped.
 		server.setTCPKeepAlive(1); // Keep connections alive.
+		transport.configure(server);
 
-		final String bindEndpoint = "tcp://*:" + port;
-		bindTo(bindEndpoint, server);
+		final Map<Transport, String> endpoints = bindTo(port, server, transport.transports());
+		LocalEndpoints.register(identity, context, endpoints);
 
-		logger.info("Server bound to [{}].", bindEndpoint);
+		logger.info("Server bound to [{}].", endpoints.values());
 		return server;
 	}
 
+	/**
+	 * @return the server's context: co-located clients sharing it connect over INPROC, if this server is bound to it.
+	 */
+	public ZContext context() {
+		return context;
+	}
+
+	/**
+	 * @return the server's budget, and how many requests it rejected.
+	 */
+	public AdmissionControl admissionControl() {
+		return admission;
+	}
+
+	/**
+	 * @return the server's metrics, also registered in JMX.
+	 */
+	public ServerMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return true if payloads are looked up asynchronously, many requests then being in flight per socket.
+	 */
+	protected boolean isAsync() {
+		return asyncProvider != null;
+	}
+
 	@Override
 	public synchronized void close() {
 		logger.debug("Closing server...");
 		if (!Thread.currentThread().equals(shutdownThread))
 			Runtime.getRuntime().removeShutdownHook(shutdownThread);
 		beforeClose();
+		metrics.unregister();
+		LocalEndpoints.unregister(identity);
 		context.destroy();
 		afterClose();
 		logger.info("Closed server.");
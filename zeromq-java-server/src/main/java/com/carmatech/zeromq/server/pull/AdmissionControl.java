@@ -0,0 +1,160 @@
+package com.carmatech.zeromq.server.pull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IBufferProvider;
+import com.carmatech.zeromq.api.Protocol;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Budget of a server: how many requests may queue up, and how many bytes of payloads may be held in memory, i.e. looked up but not yet handed over to
+ * ZeroMQ. <br />
+ * Requests beyond budget should be rejected right away with a {@link Protocol#BUSY} ERROR, so that clients fail over to another server, rather than
+ * be silently dropped once ZeroMQ's high-water mark is reached, clients then only failing over when their requests time out.
+ */
+@ThreadSafe
+public final class AdmissionControl {
+	public static final int DEFAULT_MAX_QUEUE_DEPTH = 1_000;
+	public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 512 * 1024 * 1024; // Above the payloads chunked transfers may hold.
+
+	private final int maxQueueDepth;
+	private final long maxBytesInFlight;
+
+	private final AtomicLong bytesInFlight = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final ConcurrentMap<ByteBuffer, ByteBuffer> views = new MapMaker().weakKeys().makeMap(); // View handed over -> payload: by identity.
+
+	public AdmissionControl() {
+		this(DEFAULT_MAX_QUEUE_DEPTH, DEFAULT_MAX_BYTES_IN_FLIGHT);
+	}
+
+	public AdmissionControl(final int maxQueueDepth, final long maxBytesInFlight) {
+		checkArgument(maxQueueDepth >= 0, "Maximum queue depth must be positive, but was [%s].", maxQueueDepth);
+		checkArgument(maxBytesInFlight > 0, "Maximum bytes in flight must be strictly positive, but was [%s].", maxBytesInFlight);
+		this.maxQueueDepth = maxQueueDepth;
+		this.maxBytesInFlight = maxBytesInFlight;
+	}
+
+	/**
+	 * Only requests for payloads are ever rejected: PINGs, and chunks of transfers, are always admitted.
+	 * 
+	 * @param request
+	 *            Request, as received by the server: [ID source][Command]...
+	 * @param queueDepth
+	 *            Number of requests already queued, waiting to be served.
+	 * @return true if the request fits in the budget, otherwise false, the request being counted as rejected.
+	 */
+	public boolean admit(final ZMsg request, final int queueDepth) {
+		if (!isRequest(request) || (queueDepth < maxQueueDepth && bytesInFlight.get() < maxBytesInFlight))
+			return true;
+
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	private static boolean isRequest(final ZMsg request) {
+		if (request.size() < 2)
+			return false;
+
+		switch (Command.decode(Iterables.get(request, 1))) {
+		case REQUEST:
+		case SEQUENCE_NUMBER:
+		case MREQUEST:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the provider, counting the bytes of the payloads it looked up until they are released.
+	 */
+	public IBufferProvider meter(final IBufferProvider provider) {
+		checkNotNull(provider, "Provider must NOT be null.");
+		return new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				return viewOf(provider.apply(uuid));
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				final ByteBuffer payload = payloadOf(buffer);
+				if (payload != null)
+					provider.release(uuid, payload);
+			}
+		};
+	}
+
+	/**
+	 * @return the provider, counting the bytes of the payloads it looked up until they are released.
+	 */
+	public IAsyncProvider meter(final IAsyncProvider provider) {
+		checkNotNull(provider, "Provider must NOT be null.");
+		return new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				return Futures.transform(provider.apply(uuid), new Function<ByteBuffer, ByteBuffer>() {
+					@Override
+					public ByteBuffer apply(final ByteBuffer payload) {
+						return viewOf(payload);
+					}
+				});
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				final ByteBuffer payload = payloadOf(buffer);
+				if (payload != null)
+					provider.release(uuid, payload);
+			}
+		};
+	}
+
+	/**
+	 * Payloads are handed over as views, so that providers returning the same buffer to concurrent requests are counted once per request.
+	 */
+	private ByteBuffer viewOf(final ByteBuffer payload) {
+		if (payload == null)
+			return null;
+
+		final ByteBuffer view = payload.duplicate();
+		views.put(view, payload);
+		bytesInFlight.addAndGet(view.remaining());
+		return view;
+	}
+
+	private ByteBuffer payloadOf(final ByteBuffer view) {
+		final ByteBuffer payload = views.remove(view);
+		if (payload != null)
+			bytesInFlight.addAndGet(-payload.remaining());
+		return payload;
+	}
+
+	public long bytesInFlight() {
+		return bytesInFlight.get();
+	}
+
+	/**
+	 * @return number of requests rejected so far.
+	 */
+	public long rejected() {
+		return rejected.get();
+	}
+}
@@ -0,0 +1,76 @@
+package com.carmatech.zeromq.server.pull;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.api.IBufferProvider;
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.server.ServerMetrics;
+import com.google.common.collect.Iterables;
+
+/**
+ * Fast path for heartbeats: PINGs are answered by the thread owning the server's socket, as soon as they are received, instead of waiting behind
+ * requests for a worker, or for a slow provider. Otherwise clients would consider a busy server dead, and move even more load to the others. <br />
+ * STATS are answered the same way, so that an overloaded server can still be diagnosed.
+ */
+final class Heartbeats {
+	private static final IBufferProvider NO_PAYLOADS = new IBufferProvider() {
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			throw new IllegalStateException("Heartbeats do NOT look payloads up.");
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			// No-op: nothing was looked up.
+		}
+	};
+
+	private Heartbeats() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	/**
+	 * @param request
+	 *            Request, as received by the server: [ID source][Command]...
+	 */
+	static boolean isPing(final ZMsg request) {
+		return commandOf(request) == Command.PING;
+	}
+
+	/**
+	 * @param request
+	 *            Request, as received by the server: [ID source][Command]...
+	 */
+	static boolean isStats(final ZMsg request) {
+		return commandOf(request) == Command.STATS;
+	}
+
+	private static Command commandOf(final ZMsg request) {
+		return (request.size() < 2) ? Command.UNKNOWN : Command.decode(Iterables.get(request, 1));
+	}
+
+	/**
+	 * @return the PONG replying to the provided PING, which is consumed.
+	 */
+	static ZMsg pong(final IProtocol protocol, final ZMsg ping) {
+		return protocol.reply(ping, NO_PAYLOADS);
+	}
+
+	/**
+	 * @return the STATS replying to the provided request, which is consumed: the server's metrics, its admission control's, and its reply cache's.
+	 */
+	static ZMsg stats(final IProtocol protocol, final ZMsg request, final ServerMetrics metrics, final AdmissionControl admission,
+			final ReplyCache replies) {
+		final Map<String, Long> stats = metrics.snapshot();
+		stats.put("admission.rejected", admission.rejected());
+		stats.put("admission.bytesInFlight", admission.bytesInFlight());
+		stats.put("duplicates.replayed", replies.replayed());
+		stats.put("duplicates.dropped", replies.dropped());
+		return protocol.stats(request, stats);
+	}
+}
@@ -0,0 +1,230 @@
+package com.carmatech.zeromq.server.pull;
+
+import static com.carmatech.zeromq.utilities.ZeroMQ.ERROR;
+import static com.carmatech.zeromq.utilities.ZeroMQ.bindTo;
+import static com.carmatech.zeromq.utilities.ZeroMQ.isSigTerm;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZContext;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.PollItem;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+import com.carmatech.zeromq.server.ServerMetrics;
+
+/**
+ * Least-recently-used broker between the server's ROUTER socket (frontend) and its workers' DEALER sockets, connected to a ROUTER socket (backend). <br />
+ * Workers announce how many requests they can take at once: [READY][capacity], READY being an empty frame, which no ROUTER identity can be. Each reply
+ * hands one slot back to its worker. Requests only go to workers with a free slot, the one idle for the longest first, instead of being dealt
+ * round-robin behind a slow request. <br />
+ * When all workers are busy, requests wait at the broker, as long as the {@link AdmissionControl}'s budget allows: beyond that, they are rejected right
+ * away with a {@link Protocol#BUSY} ERROR, rather than left to queue up in ZeroMQ until its high-water mark, where they would be silently dropped. <br />
+ * PINGs and STATS are answered by the broker itself: see {@link Heartbeats}. So are duplicates of requests clients sent again, from the
+ * {@link ReplyCache}, before taking any worker's slot. Requests' waits for an idle worker are recorded in the {@link ServerMetrics}. <br />
+ * Once stopped, see {@link #stop()}, the broker sends each worker a STOP: [STOP], STOP being an empty frame too, and closes its own sockets, so that
+ * none of them is closed under its feet, nor its workers', when the context is destroyed.
+ */
+class LoadBalancingBroker implements Runnable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancingBroker.class);
+	private static final byte[] READY = new byte[0];
+	private static final byte[] STOP = new byte[0];
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final Socket frontend;
+	private final Socket backend;
+	private final IProtocol protocol;
+	private final AdmissionControl admission;
+	private final ServerMetrics metrics;
+	private final ReplyCache replyCache;
+	private final ZContext context;
+	private final Socket stopReceiver;
+	private final Socket stopSender; // Only used by the thread stopping the broker.
+
+	private final List<ZFrame> workers = new ArrayList<ZFrame>(); // One entry per worker which announced itself.
+	private final Queue<ZFrame> idleWorkers = new ArrayDeque<ZFrame>(); // One entry per free slot, least recently used first.
+	private final Queue<ZMsg> pendingRequests = new ArrayDeque<ZMsg>();
+	private final Queue<Long> pendingSince = new ArrayDeque<Long>(); // When each pending request was received, in nanoseconds.
+
+	LoadBalancingBroker(final Socket frontend, final Socket backend, final IProtocol protocol, final AdmissionControl admission,
+			final ServerMetrics metrics, final ReplyCache replyCache, final ZContext context) {
+		this.frontend = checkNotNull(frontend, "Frontend socket must NOT be null.");
+		this.backend = checkNotNull(backend, "Backend socket must NOT be null.");
+		this.protocol = checkNotNull(protocol, "Protocol must NOT be null.");
+		this.admission = checkNotNull(admission, "Admission control must NOT be null.");
+		this.metrics = checkNotNull(metrics, "Metrics must NOT be null.");
+		this.replyCache = checkNotNull(replyCache, "Reply cache must NOT be null.");
+		this.context = checkNotNull(context, "Context must NOT be null.");
+
+		final String endpoint = "inproc://" + getClass().getSimpleName() + "-stop-" + COUNTER.incrementAndGet();
+		stopReceiver = context.createSocket(ZMQ.PULL);
+		stopReceiver.setLinger(0);
+		bindTo(endpoint, stopReceiver);
+		stopSender = context.createSocket(ZMQ.PUSH);
+		stopSender.setLinger(0);
+		stopSender.connect(endpoint);
+	}
+
+	/**
+	 * Announce the worker's capacity to the broker, from the worker's DEALER socket.
+	 */
+	static void ready(final Socket worker, final int capacity) {
+		checkArgument(capacity > 0, "Capacity must be strictly positive, but was [%s].", capacity);
+		worker.sendMore(READY);
+		worker.send(Integer.toString(capacity));
+	}
+
+	/**
+	 * @return true if the provided message, received by a worker, asks it to stop.
+	 */
+	static boolean isStop(final ZMsg message) {
+		return message.size() == 1 && message.peek().size() == 0;
+	}
+
+	/**
+	 * Stop the broker, and then its workers: its thread, and theirs, should then be joined before the context is destroyed.
+	 */
+	void stop() {
+		stopSender.send(STOP, ZMQ.DONTWAIT);
+	}
+
+	@Override
+	public void run() {
+		LOGGER.debug("Broker started.");
+
+		final PollItem replies = new PollItem(backend, ZMQ.Poller.POLLIN);
+		final PollItem requests = new PollItem(frontend, ZMQ.Poller.POLLIN);
+		final PollItem stops = new PollItem(stopReceiver, ZMQ.Poller.POLLIN);
+		final PollItem[] items = { replies, requests, stops };
+
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				if (ZMQ.poll(items, -1) == ERROR || stops.isReadable())
+					break; // ZeroMQ context has been shut down, or broker stopped.
+
+				if (replies.isReadable() && !processReply())
+					break;
+
+				if (requests.isReadable() && !processRequest())
+					break;
+
+				dispatchPendingRequests();
+
+			} catch (ZMQException e) {
+				if (isSigTerm(e))
+					break;
+
+				LOGGER.error("Error [" + e.getErrorCode() + "]: " + e.getMessage(), e);
+			}
+		}
+
+		for (final ZMsg request : pendingRequests)
+			request.destroy();
+		pendingRequests.clear();
+		pendingSince.clear();
+		stopWorkers();
+		context.destroySocket(stopReceiver);
+		context.destroySocket(frontend);
+		context.destroySocket(backend);
+		LOGGER.debug("Broker stopped.");
+	}
+
+	/**
+	 * Workers may have announced themselves since last polled: their READY is still to be received.
+	 */
+	private void stopWorkers() {
+		try {
+			for (ZMsg message = ZMsg.recvMsg(backend, ZMQ.DONTWAIT); message != null; message = ZMsg.recvMsg(backend, ZMQ.DONTWAIT)) {
+				final ZFrame worker = message.pop();
+				if (message.peek().size() == 0) // READY.
+					workers.add(worker);
+				else
+					worker.destroy(); // Reply no longer sent.
+				message.destroy();
+			}
+
+			for (final ZFrame worker : workers) {
+				worker.send(backend, ZFrame.MORE);
+				backend.send(STOP, ZMQ.DONTWAIT);
+			}
+		} catch (ZMQException e) {
+			if (!isSigTerm(e))
+				LOGGER.error("Error [" + e.getErrorCode() + "]: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Worker's message: [worker][READY][capacity], or [worker][client]...[reply], to forward to the client.
+	 */
+	private boolean processReply() {
+		final ZMsg reply = ZMsg.recvMsg(backend);
+		if (reply == null)
+			return false;
+
+		final ZFrame worker = reply.pop();
+		if (reply.peek().size() == 0) { // READY.
+			reply.pop().destroy();
+			final int capacity = Integer.parseInt(reply.popString());
+			for (int i = 0; i < capacity; ++i)
+				idleWorkers.add(worker.duplicate());
+			workers.add(worker);
+			reply.destroy();
+			return true;
+		}
+
+		idleWorkers.add(worker);
+		send(reply);
+		return true;
+	}
+
+	private boolean processRequest() {
+		final ZMsg request = ZMsg.recvMsg(frontend);
+		if (request == null)
+			return false;
+
+		metrics.received(request);
+		final ZMsg duplicate;
+		if (Heartbeats.isPing(request)) {
+			send(Heartbeats.pong(protocol, request)); // Never queued behind requests.
+		} else if (Heartbeats.isStats(request)) {
+			send(Heartbeats.stats(protocol, request, metrics, admission, replyCache));
+		} else if ((duplicate = replyCache.duplicateOf(request)) != null) {
+			request.destroy();
+			if (!duplicate.isEmpty())
+				send(duplicate); // Otherwise, the original is still in flight, and its reply answers both.
+		} else if (admission.admit(request, pendingRequests.size())) {
+			pendingRequests.add(request); // Dispatched right away if a worker is idle.
+			pendingSince.add(System.nanoTime());
+		} else {
+			send(protocol.error(request, Protocol.BUSY));
+		}
+		return true;
+	}
+
+	private void send(final ZMsg reply) {
+		replyCache.replied(reply);
+		metrics.send(reply, frontend);
+	}
+
+	private void dispatchPendingRequests() {
+		while (!idleWorkers.isEmpty() && !pendingRequests.isEmpty()) {
+			final ZMsg request = pendingRequests.poll();
+			metrics.waited(pendingSince.poll());
+			request.push(idleWorkers.poll());
+			request.send(backend);
+		}
+	}
+}
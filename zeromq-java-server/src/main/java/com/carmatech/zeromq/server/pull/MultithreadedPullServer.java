@@ -2,54 +2,123 @@ package com.carmatech.zeromq.server.pull;
 
 import static com.carmatech.zeromq.utilities.ZeroMQ.bindTo;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.zeromq.ZContext;
-import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IBufferProvider;
 import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Providers;
 import com.carmatech.zeromq.server.IServer;
+import com.carmatech.zeromq.utilities.Duration;
+import com.carmatech.zeromq.utilities.TransportProfile;
 import com.google.common.base.Function;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Multi-threaded request-reply server. <br />
- * Based on "Freelance pattern" (model #3, ROUTER-ROUTER socket): http://rfc.zeromq.org/spec:10
+ * Based on "Freelance pattern" (model #3, ROUTER-ROUTER socket): http://rfc.zeromq.org/spec:10 <br />
+ * Requests are dispatched to workers by a {@link LoadBalancingBroker}: only to idle workers, least recently used first. Requests waiting for an idle
+ * worker count towards the {@link AdmissionControl}'s queue depth.
  */
 public class MultithreadedPullServer extends AbstractPullServer implements IServer {
+	/** Requests an asynchronous worker keeps in flight at once. **/
+	public static final int ASYNC_WORKER_CAPACITY = 64;
+
 	private static final String NAME = MultithreadedPullServer.class.getSimpleName();
 	private static final String INPROC_ENDPOINT = "inproc://" + NAME + "-work-queue";
+	private static final Duration WORKERS_STOP_TIMEOUT = new Duration(1, TimeUnit.SECONDS);
 
 	private final Socket dispatcher;
+	private final LoadBalancingBroker broker;
 	private final Thread dispatcherThread;
 
 	private final int degreeOfParallelism;
 	private final ExecutorService workersPool;
+	private final List<Future<?>> workers = new ArrayList<Future<?>>(); // Guarded by this.
 
 	public MultithreadedPullServer(final int port, final Function<UUID, byte[]> provider) {
 		this(port, provider, Runtime.getRuntime().availableProcessors());
 	}
 
 	public MultithreadedPullServer(final int port, final Function<UUID, byte[]> provider, final int degreeOfParallelism) {
-		super(port, provider);
+		this(port, Providers.of(provider), degreeOfParallelism);
+	}
+
+	public MultithreadedPullServer(final int port, final IBufferProvider provider) {
+		this(port, provider, Runtime.getRuntime().availableProcessors());
+	}
+
+	public MultithreadedPullServer(final int port, final IBufferProvider provider, final int degreeOfParallelism) {
+		this(port, provider, degreeOfParallelism, new AdmissionControl());
+	}
+
+	public MultithreadedPullServer(final int port, final IBufferProvider provider, final int degreeOfParallelism, final AdmissionControl admission) {
+		this(port, provider, degreeOfParallelism, admission, TransportProfile.DEFAULT);
+	}
+
+	public MultithreadedPullServer(final int port, final IBufferProvider provider, final int degreeOfParallelism, final AdmissionControl admission,
+			final TransportProfile transport) {
+		super(port, provider, admission, transport);
+
+		dispatcher = bindDispatcherTo(INPROC_ENDPOINT, context);
+		broker = createBroker(server, dispatcher);
+		dispatcherThread = new Thread(broker, NAME + "-queue");
+
+		this.degreeOfParallelism = degreeOfParallelism;
+		workersPool = createWorkersPool(degreeOfParallelism);
+	}
+
+	public MultithreadedPullServer(final int port, final IAsyncProvider provider) {
+		this(port, provider, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Each worker keeps many requests in flight, so fewer workers than cores are usually enough.
+	 */
+	public MultithreadedPullServer(final int port, final IAsyncProvider provider, final int degreeOfParallelism) {
+		this(port, provider, degreeOfParallelism, new AdmissionControl());
+	}
+
+	public MultithreadedPullServer(final int port, final IAsyncProvider provider, final int degreeOfParallelism, final AdmissionControl admission) {
+		this(port, provider, degreeOfParallelism, admission, TransportProfile.DEFAULT);
+	}
+
+	public MultithreadedPullServer(final int port, final IAsyncProvider provider, final int degreeOfParallelism, final AdmissionControl admission,
+			final TransportProfile transport) {
+		super(port, provider, admission, transport);
 
 		dispatcher = bindDispatcherTo(INPROC_ENDPOINT, context);
-		dispatcherThread = new Thread(createDispatcherRunnable(server, dispatcher), NAME + "-queue");
+		broker = createBroker(server, dispatcher);
+		dispatcherThread = new Thread(broker, NAME + "-queue");
 
 		this.degreeOfParallelism = degreeOfParallelism;
-		workersPool = Executors.newFixedThreadPool(degreeOfParallelism, new ThreadFactoryBuilder().setNameFormat(NAME + "-worker-%d").build());
+		workersPool = createWorkersPool(degreeOfParallelism);
+	}
+
+	private static ExecutorService createWorkersPool(final int degreeOfParallelism) {
+		return Executors.newFixedThreadPool(degreeOfParallelism, new ThreadFactoryBuilder().setNameFormat(NAME + "-worker-%d").build());
 	}
 
 	private Socket bindDispatcherTo(final String endpoint, final ZContext context) {
-		final Socket dispatcher = context.createSocket(ZMQ.DEALER);
+		final Socket dispatcher = context.createSocket(ZMQ.ROUTER);
 
 		dispatcher.setLinger(0); // Unsent messages are immediately dropped.
 		dispatcher.setTCPKeepAlive(1); // Keep connections alive.
+		transport.configure(dispatcher);
 
 		bindTo(endpoint, dispatcher);
 
@@ -57,15 +126,8 @@ public class MultithreadedPullServer extends AbstractPullServer implements IServ
 		return dispatcher;
 	}
 
-	private Runnable createDispatcherRunnable(final Socket server, final Socket dispatcher) {
-		return new Runnable() {
-			@Override
-			public void run() {
-				logger.debug("Queue started.");
-				ZMQ.proxy(server, dispatcher, null);
-				logger.debug("Queue stopped.");
-			}
-		};
+	private LoadBalancingBroker createBroker(final Socket server, final Socket dispatcher) {
+		return new LoadBalancingBroker(server, dispatcher, protocol, admission, metrics, replies, context);
 	}
 
 	@Override
@@ -73,7 +135,8 @@ public class MultithreadedPullServer extends AbstractPullServer implements IServ
 		logger.debug("Starting server...");
 
 		for (int i = 0; i < degreeOfParallelism; ++i)
-			workersPool.submit(createWorkerRunnable(createWorkerSocket(), protocol, provider));
+			workers.add(workersPool.submit(isAsync() ? createWorkerRunnable(createWorkerSocket(ASYNC_WORKER_CAPACITY), protocol, asyncProvider)
+					: createWorkerRunnable(createWorkerSocket(1), protocol, provider)));
 		workersPool.shutdown();
 
 		dispatcherThread.start();
@@ -81,21 +144,54 @@ public class MultithreadedPullServer extends AbstractPullServer implements IServ
 		logger.info("Server is now ready to serve incoming requests.");
 	}
 
-	private Socket createWorkerSocket() {
-		final Socket socket = context.createSocket(ZMQ.ROUTER);
+	/**
+	 * Socket handed over to its worker's thread once connected, and its capacity announced to the broker.
+	 */
+	private Socket createWorkerSocket(final int capacity) {
+		final Socket socket = context.createSocket(ZMQ.DEALER);
 		socket.setLinger(0);
 		socket.connect(INPROC_ENDPOINT);
+		LoadBalancingBroker.ready(socket, capacity);
 		return socket;
 	}
 
-	private AbstractPullRunnable createWorkerRunnable(final Socket socket, final IProtocol protocol, final Function<UUID, byte[]> provider) {
-		return new AbstractPullRunnable(socket, protocol, provider) {
+	private AbstractAsyncPullRunnable createWorkerRunnable(final Socket socket, final IProtocol protocol, final IAsyncProvider provider) {
+		return new AbstractAsyncPullRunnable(socket, protocol, provider, context) {
+			@Override
+			protected void reply(final ZMsg request) {
+				sendWhenComplete(protocol.reply(request, provider), null);
+			}
+		};
+	}
+
+	/**
+	 * The broker's and workers' threads close their sockets before the context is destroyed, as they are NOT thread-safe: the broker stops its
+	 * workers once stopped. <br />
+	 * A worker which had NOT announced itself yet is NOT waited for beyond {@link #WORKERS_STOP_TIMEOUT}: destroying the context stops it.
+	 */
+	@Override
+	protected synchronized void beforeClose() {
+		if (dispatcherThread.getState() == Thread.State.NEW)
+			return;
+
+		broker.stop();
+		Uninterruptibles.joinUninterruptibly(dispatcherThread);
+		for (final Future<?> worker : workers) {
+			try {
+				Uninterruptibles.getUninterruptibly(worker, WORKERS_STOP_TIMEOUT.duration(), WORKERS_STOP_TIMEOUT.unit());
+			} catch (ExecutionException e) {
+				logger.error("Worker failed: " + e.getMessage(), e);
+			} catch (TimeoutException e) {
+				logger.warn("Worker did NOT stop within [{}].", WORKERS_STOP_TIMEOUT);
+			}
+		}
+	}
+
+	private AbstractPullRunnable createWorkerRunnable(final Socket socket, final IProtocol protocol, final IBufferProvider provider) {
+		return new AbstractPullRunnable(socket, protocol, provider, context) {
 			@Override
 			protected void reply(final ZMsg request) {
-				final ZFrame workerId = request.pop();
-				final ZMsg reply = protocol.reply(request, provider);
-				reply.push(workerId);
-				reply.send(socket);
+				protocol.reply(request, provider).send(socket);
 			}
 		};
 	}
@@ -1,36 +1,128 @@
 package com.carmatech.zeromq.server.pull;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IBufferProvider;
 import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+import com.carmatech.zeromq.api.Providers;
 import com.carmatech.zeromq.server.IServer;
+import com.carmatech.zeromq.utilities.TransportProfile;
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
- * Single-threaded request-reply server. <br />
- * Based on "Freelance pattern" (model #3, ROUTER-ROUTER socket): http://rfc.zeromq.org/spec:10
+ * Request-reply server with a single thread owning its socket. <br />
+ * Based on "Freelance pattern" (model #3, ROUTER-ROUTER socket): http://rfc.zeromq.org/spec:10 <br />
+ * Payloads are never looked up by the socket's thread, which thus answers PINGs right away, whatever the provider's latency: blocking providers run
+ * one lookup at a time on a second thread. <br />
+ * Requests whose payloads are still being looked up count towards the {@link AdmissionControl}'s queue depth. <br />
+ * Blocking providers can also run one lookup per request in an executor, e.g. {@link Executors#newCachedThreadPool()}: the socket's thread only
+ * receives requests and sends replies, while thousands of lookups may block at once, still bounded by the admission control's queue depth.
  */
 public class PullServer extends AbstractPullServer implements IServer {
 	private static final String NAME = PullServer.class.getSimpleName();
 
+	private final AbstractAsyncPullRunnable serverRunnable;
 	private final Thread serverThread;
+	private final ExecutorService lookups; // Null if not owned by this server.
 
 	public PullServer(final int port, final Function<UUID, byte[]> provider) {
-		super(port, provider);
+		this(port, Providers.of(provider));
+	}
+
+	public PullServer(final int port, final IBufferProvider provider) {
+		this(port, provider, new AdmissionControl());
+	}
+
+	public PullServer(final int port, final IBufferProvider provider, final AdmissionControl admission) {
+		this(port, provider, admission, TransportProfile.DEFAULT);
+	}
+
+	public PullServer(final int port, final IBufferProvider provider, final AdmissionControl admission, final TransportProfile transport) {
+		// Handle requests in a single background thread, and look their payloads up, one at a time, in another one:
+		this(port, provider, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat(NAME + "-lookup").build()), true, admission,
+				transport);
+	}
+
+	/**
+	 * Thread-per-request mode: each request's payload is looked up by the provided executor, which this server does NOT shut down.
+	 */
+	public PullServer(final int port, final IBufferProvider provider, final ExecutorService lookups) {
+		this(port, provider, lookups, new AdmissionControl(), TransportProfile.DEFAULT);
+	}
+
+	public PullServer(final int port, final IBufferProvider provider, final ExecutorService lookups, final AdmissionControl admission,
+			final TransportProfile transport) {
+		this(port, provider, lookups, false, admission, transport);
+	}
+
+	private PullServer(final int port, final IBufferProvider provider, final ExecutorService lookups, final boolean ownsLookups,
+			final AdmissionControl admission, final TransportProfile transport) {
+		super(port, provider, admission, transport);
+		checkNotNull(lookups, "Executor must NOT be null.");
+
+		this.lookups = ownsLookups ? lookups : null;
+		final IAsyncProvider lookup = metrics.queued(this.provider, MoreExecutors.listeningDecorator(lookups));
+		serverRunnable = createServerRunnable(server, protocol, lookup);
+		serverThread = new Thread(serverRunnable, NAME + "-handler");
+	}
+
+	public PullServer(final int port, final IAsyncProvider provider) {
+		this(port, provider, new AdmissionControl());
+	}
 
-		// Handle requests in a single background thread:
-		serverThread = new Thread(createServerRunnable(server, protocol, provider), NAME + "-handler");
+	public PullServer(final int port, final IAsyncProvider provider, final AdmissionControl admission) {
+		this(port, provider, admission, TransportProfile.DEFAULT);
 	}
 
-	private AbstractPullRunnable createServerRunnable(final Socket socket, final IProtocol protocol, final Function<UUID, byte[]> provider) {
-		return new AbstractPullRunnable(socket, protocol, provider) {
+	public PullServer(final int port, final IAsyncProvider provider, final AdmissionControl admission, final TransportProfile transport) {
+		super(port, provider, admission, transport);
+
+		// Handle requests in a single background thread, many of them being in flight at once:
+		lookups = null;
+		serverRunnable = createServerRunnable(server, protocol, asyncProvider);
+		serverThread = new Thread(serverRunnable, NAME + "-handler");
+	}
+
+	private AbstractAsyncPullRunnable createServerRunnable(final Socket socket, final IProtocol protocol, final IAsyncProvider provider) {
+		return new AbstractAsyncPullRunnable(socket, protocol, provider, context) {
 			@Override
 			protected void reply(final ZMsg request) {
-				final ZMsg reply = protocol.reply(request, provider);
-				reply.send(socket);
+				metrics.received(request);
+				final ZMsg duplicate;
+				if (Heartbeats.isPing(request))
+					send(Heartbeats.pong(protocol, request));
+				else if (Heartbeats.isStats(request))
+					send(Heartbeats.stats(protocol, request, metrics, admission, replies));
+				else if ((duplicate = replies.duplicateOf(request)) != null)
+					replay(request, duplicate);
+				else if (admission.admit(request, repliesInFlight()))
+					sendWhenComplete(protocol.reply(request, provider), null);
+				else
+					send(protocol.error(request, Protocol.BUSY));
+			}
+
+			private void replay(final ZMsg request, final ZMsg duplicate) {
+				request.destroy();
+				if (!duplicate.isEmpty())
+					send(duplicate);
+			}
+
+			@Override
+			protected void send(final ZMsg reply) {
+				replies.replied(reply);
+				metrics.send(reply, socket);
 			}
 		};
 	}
@@ -41,4 +133,17 @@ public class PullServer extends AbstractPullServer implements IServer {
 		serverThread.start();
 		logger.info("Server is now ready to serve incoming requests.");
 	}
+
+	/**
+	 * The handler's thread closes its sockets before the context is destroyed, as they are NOT thread-safe, and lookups can no longer complete.
+	 */
+	@Override
+	protected void beforeClose() {
+		if (serverThread.getState() != Thread.State.NEW) {
+			serverRunnable.stop();
+			Uninterruptibles.joinUninterruptibly(serverThread);
+		}
+		if (lookups != null)
+			lookups.shutdownNow();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+package com.carmatech.zeromq.server.pull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Iterables;
+
+/**
+ * Duplicate suppression for requests sent again by clients which did not get their reply in time, e.g. from a slow server. <br />
+ * Requests are identified by their client's ROUTER identity, and their sequence number: requests without any are never considered duplicates. <br />
+ * A duplicate of a request still being replied to is dropped, as the original's reply answers it. A duplicate of a request replied to recently is
+ * answered with a copy of the original's reply, without calling the provider again. ERRORs are NOT cached, so that a request rejected as BUSY can be
+ * retried. <br />
+ * Entries expire the configured time after being written, and the cache is bounded by the total size of the replies it holds. Replies larger than
+ * the per-entry cap are NOT cached, and NOT copied: they are sent as-is, zero-copy payloads included, and their duplicates are replied to again. <br />
+ * Only to be used by the thread owning the server's socket, which both receives requests and sends replies.
+ */
+@NotThreadSafe
+final class ReplyCache {
+	static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+	static final int DEFAULT_MAX_ENTRY_BYTES = 64 * 1024; // Copying replies up to that size costs less than replying again.
+	static final Duration DEFAULT_TTL = new Duration(10, TimeUnit.SECONDS); // A request's lifetime, retries included, for clients' defaults.
+
+	private static final ZMsg DROP = new ZMsg();
+	private static final Entry IN_FLIGHT = new Entry(null, 0);
+
+	private final Cache<Key, Entry> entries;
+	private final int maxEntryBytes;
+
+	private final AtomicLong replayed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	ReplyCache() {
+		this(DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRY_BYTES, DEFAULT_TTL, Ticker.systemTicker());
+	}
+
+	ReplyCache(final long maxBytes, final int maxEntryBytes, final Duration ttl, final Ticker ticker) {
+		checkArgument(maxBytes > 0, "Maximum size of cached replies must be strictly positive, but was [%s].", maxBytes);
+		checkArgument(maxEntryBytes > 0 && maxEntryBytes <= maxBytes, "Maximum size of a cached reply must be in ]0, %s], but was [%s].", maxBytes,
+				maxEntryBytes);
+		this.maxEntryBytes = maxEntryBytes;
+		checkNotNull(ttl, "TTL must NOT be null.");
+		checkNotNull(ticker, "Time ticker must NOT be null.");
+		// A single segment: Guava splits the maximum weight between segments, and would evict entries over a fraction of it right away.
+		this.entries = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maxBytes).weigher(new Weigher<Key, Entry>() {
+			@Override
+			public int weigh(final Key key, final Entry entry) {
+				return key.size() + entry.size;
+			}
+		}).expireAfterWrite(ttl.duration(), ttl.unit()).ticker(ticker).build();
+	}
+
+	/**
+	 * @param request
+	 *            Request, as received by the server: [ID destination][Command]...
+	 * @return null if the request is NOT a duplicate, and should be replied to as usual: it is then considered in flight, until replied to; otherwise,
+	 *         what to send instead: a copy of the original's reply, or nothing, i.e. an empty message, if the original is still in flight.
+	 */
+	ZMsg duplicateOf(final ZMsg request) {
+		final Key key = keyOfRequest(request);
+		if (key == null)
+			return null;
+
+		final Entry entry = entries.getIfPresent(key);
+		if (entry == null) {
+			entries.put(key, IN_FLIGHT);
+			return null;
+		}
+
+		if (entry == IN_FLIGHT) {
+			dropped.incrementAndGet();
+			return DROP;
+		}
+
+		replayed.incrementAndGet();
+		return entry.reply.duplicate();
+	}
+
+	/**
+	 * Keep a copy of the provided reply, about to be sent, if it answers a request in flight, and is small enough to be worth copying.
+	 */
+	void replied(final ZMsg reply) {
+		final Key key = keyOfReply(reply);
+		if (key == null || entries.getIfPresent(key) != IN_FLIGHT)
+			return; // Not a reply to a request in flight, e.g. a PONG.
+
+		final int size = sizeOf(reply); // Without copying any frame.
+		if (size > maxEntryBytes || Command.decode(Iterables.get(reply, 1)) == Command.ERROR) {
+			entries.invalidate(key);
+			return;
+		}
+
+		entries.put(key, new Entry(reply.duplicate(), size));
+	}
+
+	/**
+	 * @return number of duplicates answered with a copy of their original's reply.
+	 */
+	long replayed() {
+		return replayed.get();
+	}
+
+	/**
+	 * @return number of duplicates dropped, as their original was still in flight.
+	 */
+	long dropped() {
+		return dropped.get();
+	}
+
+	private static Key keyOfRequest(final ZMsg request) {
+		if (request.size() < 4)
+			return null;
+
+		final Iterator<ZFrame> frames = request.iterator();
+		final ZFrame destination = frames.next();
+		final ZFrame commandFrame = frames.next();
+		frames.next(); // Source.
+		final ZFrame fourth = frames.next();
+		switch (Command.decode(commandFrame)) {
+		case SEQUENCE_NUMBER: // [destination][sequence number][source][UUID]
+			return new Key(destination, commandFrame);
+		case REQUEST: // [destination][REQUEST][source]([sequence number])[UUID]
+			return (request.size() == 5) ? new Key(destination, fourth) : null;
+		case MREQUEST: // [destination][MREQUEST][source]([sequence number])([UUID])*N
+			return hasSequenceNumber(fourth, Codec.ofCommand(commandFrame)) ? new Key(destination, fourth) : null;
+		default:
+			return null;
+		}
+	}
+
+	private static boolean hasSequenceNumber(final ZFrame frame, final Codec codec) {
+		return (codec == Codec.BINARY) ? (frame.size() == Codec.BINARY_SEQUENCE_NUMBER_SIZE) : (frame.size() != Codec.STRING_UUID_SIZE);
+	}
+
+	/**
+	 * @return the key of the request the reply may answer: only looked up, so a frame which turns out NOT to be a sequence number simply misses.
+	 */
+	private static Key keyOfReply(final ZMsg reply) {
+		if (reply.size() < 4)
+			return null;
+
+		final Iterator<ZFrame> frames = reply.iterator();
+		final ZFrame destination = frames.next();
+		final ZFrame commandFrame = frames.next();
+		frames.next(); // Source.
+		switch (Command.decode(commandFrame)) {
+		case SEQUENCE_NUMBER: // [destination][sequence number][source][UUID][payload]
+			return new Key(destination, commandFrame);
+		case OK:
+		case NOT_FOUND:
+		case ERROR: // [destination][command][source][sequence number]...
+			return new Key(destination, frames.next());
+		default:
+			return null;
+		}
+	}
+
+	private static int sizeOf(final ZMsg reply) {
+		int size = 0;
+		for (final ZFrame frame : reply)
+			size += frame.size();
+		return size;
+	}
+
+	private static final class Entry {
+		private final ZMsg reply; // Null while in flight.
+		private final int size;
+
+		private Entry(final ZMsg reply, final int size) {
+			this.reply = reply;
+			this.size = size;
+		}
+	}
+
+	private static final class Key {
+		private final byte[] destination;
+		private final byte[] sequenceNumber;
+		private final int hashCode;
+
+		private Key(final ZFrame destination, final ZFrame sequenceNumber) {
+			this.destination = destination.getData();
+			this.sequenceNumber = sequenceNumber.getData();
+			this.hashCode = 31 * Arrays.hashCode(this.destination) + Arrays.hashCode(this.sequenceNumber);
+		}
+
+		private int size() {
+			return destination.length + sequenceNumber.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Key))
+				return false;
+			final Key key = (Key) other;
+			return Arrays.equals(destination, key.destination) && Arrays.equals(sequenceNumber, key.sequenceNumber);
+		}
+	}
+}
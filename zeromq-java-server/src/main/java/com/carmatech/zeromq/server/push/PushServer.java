@@ -4,6 +4,7 @@ import static com.carmatech.zeromq.utilities.ZeroMQ.bindTo;
 import static com.carmatech.zeromq.utilities.ZeroMQ.isSigTerm;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 
@@ -18,7 +19,11 @@ import org.zeromq.ZMQException;
 import org.zeromq.ZMsg;
 
 import com.carmatech.zeromq.server.IServer;
+import com.carmatech.zeromq.server.ServerMetrics;
+import com.carmatech.zeromq.utilities.LocalEndpoints;
 import com.carmatech.zeromq.utilities.LocalHost;
+import com.carmatech.zeromq.utilities.Transport;
+import com.carmatech.zeromq.utilities.TransportProfile;
 import com.carmatech.zeromq.utilities.ZeroMQ;
 
 public class PushServer implements IServer {
@@ -28,31 +33,41 @@ public class PushServer implements IServer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PushServer.class);
 
 	private final BlockingQueue<Pair<UUID, byte[]>> queue;
+	private final ServerMetrics metrics = new ServerMetrics();
 	private final ZContext context;
+	private final String identity;
 	private final Thread shutdownThread;
 	private final Thread publisherThread;
 
 	public PushServer(final int port, final BlockingQueue<Pair<UUID, byte[]>> queue) {
+		this(port, queue, TransportProfile.DEFAULT);
+	}
+
+	public PushServer(final int port, final BlockingQueue<Pair<UUID, byte[]>> queue, final TransportProfile transport) {
 		this.queue = checkNotNull(queue, "Supplying queue must NOT be null.");
+		checkNotNull(transport, "Transport profile must NOT be null.");
 
 		shutdownThread = ZeroMQ.addShutdownHook(this);
 
-		context = ZeroMQ.createContext();
+		context = ZeroMQ.createContext(transport);
+		identity = Transport.TCP.connectEndpoint(port);
 
-		final Socket publisher = bindServerTo(port, context);
+		final Socket publisher = bindServerTo(port, context, transport);
 		publisherThread = new Thread(createServerRunnable(publisher, queue), NAME + "-publisher");
+		metrics.register(NAME, port);
 	}
 
-	private Socket bindServerTo(final int port, final ZContext context) {
+	private Socket bindServerTo(final int port, final ZContext context, final TransportProfile transport) {
 		final Socket server = context.createSocket(ZMQ.PUB);
 
 		server.setLinger(0); // Unsent messages are immediately dropped.
 		server.setTCPKeepAlive(1); // Keep connections alive.
+		transport.configure(server);
 
-		final String bindEndpoint = "tcp://*:" + port;
-		bindTo(bindEndpoint, server);
+		final Map<Transport, String> endpoints = bindTo(port, server, transport.transports());
+		LocalEndpoints.register(identity, context, endpoints); // PUB sockets have no identity: only used to find the most local endpoint.
 
-		LOGGER.info("Server bound to [{}].", bindEndpoint);
+		LOGGER.info("Server bound to [{}].", endpoints.values());
 		return server;
 	}
 
@@ -74,7 +89,8 @@ public class PushServer implements IServer {
 						message.add(item.getKey().toString());
 						message.add(LocalHost.HOST_AND_IP);
 						message.add(item.getValue());
-						message.send(socket);
+						metrics.payload(item.getValue().length);
+						metrics.publish(message, socket);
 						LOGGER.debug("Server published: [{}].", item);
 
 					} catch (ZMQException e) {
@@ -105,6 +121,20 @@ public class PushServer implements IServer {
 		};
 	}
 
+	/**
+	 * @return the server's context: co-located clients sharing it connect over INPROC, if this server is bound to it.
+	 */
+	public ZContext context() {
+		return context;
+	}
+
+	/**
+	 * @return the server's metrics, also registered in JMX: published messages are counted by the send time histogram.
+	 */
+	public ServerMetrics metrics() {
+		return metrics;
+	}
+
 	@Override
 	public void run() {
 		LOGGER.debug("Starting server...");
@@ -118,6 +148,8 @@ public class PushServer implements IServer {
 		if (!Thread.currentThread().equals(shutdownThread))
 			Runtime.getRuntime().removeShutdownHook(shutdownThread);
 		queue.add(ImmutablePair.of(POISON_PILL, (byte[]) null));
+		metrics.unregister();
+		LocalEndpoints.unregister(identity);
 		context.destroy();
 		LOGGER.info("Closed server.");
 	}
@@ -0,0 +1,279 @@
+package com.carmatech.zeromq.store;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.carmatech.zeromq.api.IBufferProvider;
+
+/**
+ * Persistent, append-only, store of payloads, usable as a server's provider. <br />
+ * Payloads are appended to fixed-size segment files, and located through an index of UUID -> (segment, offset, length), an open-addressing hash table.
+ * Both are memory-mapped: payloads are served as views of the mapped segments, with no heap copy, and re-opening the store only maps the files again,
+ * the index never being rebuilt. <br />
+ * Storing a UUID again appends its new payload: space used by the previous one is NOT reclaimed. Files are written back to disk by the OS, or on
+ * {@link #flush()}. <br />
+ * Mapped files are only unmapped once garbage collected: do NOT re-open a store before the previous instance is closed and unreachable.
+ *
+ * <pre>
+ * Index:
+ * +--------------------------------------------------------------------------------------------------------------------------------+
+ * | Header (64B): magic, version, slots, segment size, current segment, write offset (8B), entries (8B), max entries (8B), padding |
+ * +--------------------------------------------------------------------------------------------------------------------------------+
+ * | Slot (32B) x slots: UUID's most significant bits (8B), least significant bits (8B), offset (8B), segment, length               |
+ * +--------------------------------------------------------------------------------------------------------------------------------+
+ * </pre>
+ */
+@ThreadSafe
+public final class SegmentStore implements IBufferProvider, Closeable {
+	public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+	public static final int DEFAULT_MAX_ENTRIES = 1024 * 1024;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SegmentStore.class);
+
+	private static final String INDEX_FILE = "index.dat";
+	private static final String SEGMENT_FILE = "segment-%05d.dat";
+
+	private static final int MAX_SLOTS = 1 << 26; // So that positions in the index fit in an int.
+	private static final int MAGIC = 0x5A4D5153; // "ZMQS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_SIZE = 32;
+	private static final int SLOTS = 8;
+	private static final int SEGMENT_SIZE = 12;
+	private static final int CURRENT_SEGMENT = 16;
+	private static final int WRITE_OFFSET = 24;
+	private static final int ENTRIES = 32;
+	private static final int MAX_ENTRIES = 40;
+	private static final int MOST_SIGNIFICANT_BITS = 0;
+	private static final int LEAST_SIGNIFICANT_BITS = 8;
+	private static final int OFFSET = 16;
+	private static final int SEGMENT = 24;
+	private static final int LENGTH = 28;
+
+	private final File directory;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Guarded by lock:
+	private final MappedByteBuffer index;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private final int slots;
+	private final int segmentSize;
+	private final long maxEntries;
+	private boolean isClosed = false;
+
+	public SegmentStore(final File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Open the store in the provided directory, or create it if it does not exist yet, in which case the provided sizes are used: otherwise, the
+	 * store keeps the sizes it was created with.
+	 *
+	 * @param segmentSize
+	 *            Size of each segment file, i.e. maximum size of a payload.
+	 * @param maxEntries
+	 *            Maximum number of payloads the index can locate.
+	 */
+	public SegmentStore(final File directory, final int segmentSize, final int maxEntries) throws IOException {
+		this.directory = checkNotNull(directory, "Directory must NOT be null.");
+		checkArgument(segmentSize > 0, "Segment size must be strictly positive, but was [%s].", segmentSize);
+		checkArgument(maxEntries > 0, "Maximum number of entries must be strictly positive, but was [%s].", maxEntries);
+		checkArgument(directory.isDirectory() || directory.mkdirs(), "Failed to create directory [%s].", directory);
+
+		final File indexFile = new File(directory, INDEX_FILE);
+		final boolean isNew = !indexFile.exists();
+		final long requestedSlots = Long.highestOneBit(maxEntries * 4L / 3) << 1; // Load factor below 0.75.
+		checkArgument(requestedSlots <= MAX_SLOTS, "Maximum number of entries must be at most [%s], but was [%s].", MAX_SLOTS * 3L / 4, maxEntries);
+		index = map(indexFile, isNew ? HEADER_SIZE + requestedSlots * SLOT_SIZE : indexFile.length());
+		if (isNew) {
+			index.putInt(0, MAGIC);
+			index.putInt(4, VERSION);
+			index.putInt(SLOTS, (int) requestedSlots);
+			index.putInt(SEGMENT_SIZE, segmentSize);
+			index.putLong(MAX_ENTRIES, maxEntries);
+		}
+		checkState(index.getInt(0) == MAGIC && index.getInt(4) == VERSION, "[%s] is NOT an index of version [%s].", indexFile, VERSION);
+
+		this.slots = index.getInt(SLOTS);
+		this.segmentSize = index.getInt(SEGMENT_SIZE);
+		this.maxEntries = index.getLong(MAX_ENTRIES);
+		for (int segment = 0; segment <= index.getInt(CURRENT_SEGMENT); ++segment)
+			segments.add(mapSegment(segment));
+
+		LOGGER.info("Opened store [{}]: [{}] entries in [{}] segments.", directory, index.getLong(ENTRIES), segments.size());
+	}
+
+	private MappedByteBuffer mapSegment(final int segment) throws IOException {
+		return map(new File(directory, String.format(SEGMENT_FILE, segment)), segmentSize);
+	}
+
+	private static MappedByteBuffer map(final File file, final long size) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			return randomAccessFile.getChannel().map(MapMode.READ_WRITE, 0, size); // Mapping outlives the channel.
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * @return a read-only view of the stored payload, in its memory-mapped segment, or null if none.
+	 */
+	@Override
+	public ByteBuffer apply(final UUID uuid) {
+		checkNotNull(uuid, "UUID must NOT be null.");
+		lock.readLock().lock();
+		try {
+			checkState(!isClosed, "Store [%s] is closed.", directory);
+			final int slot = find(uuid);
+			if (isEmpty(slot))
+				return null;
+
+			final int offset = (int) index.getLong(slot + OFFSET);
+			final ByteBuffer view = segments.get(index.getInt(slot + SEGMENT)).asReadOnlyBuffer();
+			view.position(offset).limit(offset + index.getInt(slot + LENGTH));
+			return view.slice();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * No-op: payloads are views of the mapped segments, which remain mapped.
+	 */
+	@Override
+	public void release(final UUID uuid, final ByteBuffer buffer) {
+		// No-op.
+	}
+
+	public boolean contains(final UUID uuid) {
+		return apply(uuid) != null;
+	}
+
+	public void put(final UUID uuid, final byte[] payload) throws IOException {
+		put(uuid, ByteBuffer.wrap(checkNotNull(payload, "Payload must NOT be null.")));
+	}
+
+	/**
+	 * Append the payload, between the buffer's position and limit, replacing any previous payload for the same UUID.
+	 */
+	public void put(final UUID uuid, final ByteBuffer payload) throws IOException {
+		checkNotNull(uuid, "UUID must NOT be null.");
+		checkArgument(uuid.getMostSignificantBits() != 0L || uuid.getLeastSignificantBits() != 0L, "Nil UUID marks empty slots: it can NOT be stored.");
+		checkNotNull(payload, "Payload must NOT be null.");
+		final int length = payload.remaining();
+		checkArgument(length <= segmentSize, "Payload of [%s] bytes does NOT fit in segments of [%s] bytes.", length, segmentSize);
+
+		lock.writeLock().lock();
+		try {
+			checkState(!isClosed, "Store [%s] is closed.", directory);
+			final int slot = find(uuid);
+			final boolean isNewEntry = isEmpty(slot);
+			checkState(!isNewEntry || index.getLong(ENTRIES) < maxEntries, "Store [%s] is full: [%s] entries.", directory, maxEntries);
+
+			int segment = index.getInt(CURRENT_SEGMENT);
+			long offset = index.getLong(WRITE_OFFSET);
+			if (offset + length > segmentSize) { // Roll over to a new segment.
+				segments.add(mapSegment(++segment));
+				offset = 0L;
+			}
+
+			final ByteBuffer target = segments.get(segment).duplicate();
+			target.position((int) offset);
+			target.put(payload.duplicate());
+
+			// Space is reserved before being referenced, so that a crash in between only wastes it:
+			index.putInt(CURRENT_SEGMENT, segment);
+			index.putLong(WRITE_OFFSET, offset + length);
+
+			index.putLong(slot + OFFSET, offset);
+			index.putInt(slot + SEGMENT, segment);
+			index.putInt(slot + LENGTH, length);
+			if (isNewEntry) {
+				index.putLong(slot + LEAST_SIGNIFICANT_BITS, uuid.getLeastSignificantBits());
+				index.putLong(slot + MOST_SIGNIFICANT_BITS, uuid.getMostSignificantBits());
+				index.putLong(ENTRIES, index.getLong(ENTRIES) + 1);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return position, in the index, of the slot for the provided UUID, or of the empty slot where it belongs.
+	 */
+	private int find(final UUID uuid) {
+		final long mostSignificantBits = uuid.getMostSignificantBits();
+		final long leastSignificantBits = uuid.getLeastSignificantBits();
+		long hash = (mostSignificantBits ^ leastSignificantBits) * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 32;
+
+		for (int i = (int) hash & (slots - 1);; i = (i + 1) & (slots - 1)) { // Linear probing: never full, thanks to the load factor.
+			final int slot = HEADER_SIZE + i * SLOT_SIZE;
+			if (isEmpty(slot)
+					|| (index.getLong(slot + MOST_SIGNIFICANT_BITS) == mostSignificantBits && index.getLong(slot + LEAST_SIGNIFICANT_BITS) == leastSignificantBits))
+				return slot;
+		}
+	}
+
+	private boolean isEmpty(final int slot) {
+		return index.getLong(slot + MOST_SIGNIFICANT_BITS) == 0L && index.getLong(slot + LEAST_SIGNIFICANT_BITS) == 0L;
+	}
+
+	public long size() {
+		lock.readLock().lock();
+		try {
+			return index.getLong(ENTRIES);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Write segments and index back to disk.
+	 */
+	public void flush() {
+		lock.writeLock().lock();
+		try {
+			for (final MappedByteBuffer segment : segments)
+				segment.force();
+			index.force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			if (isClosed)
+				return;
+			flush();
+			isClosed = true;
+			segments.clear();
+			LOGGER.info("Closed store [{}].", directory);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
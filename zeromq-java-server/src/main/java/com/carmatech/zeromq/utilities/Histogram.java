@@ -0,0 +1,103 @@
+package com.carmatech.zeromq.utilities;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock-free histogram of positive values, e.g. latencies in nanoseconds or sizes in bytes. <br />
+ * Values are counted in log-linear buckets: exact below 8, then 8 buckets per power of two, i.e. within 12.5% of the recorded value, over the whole
+ * range of longs, in under 4KB. Recording a value costs a few atomic increments: cheap enough to be done on every request.
+ */
+@ThreadSafe
+public final class Histogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Negative values, e.g. from a clock going backwards, are recorded as 0.
+	 */
+	public void record(final long value) {
+		final long positive = Math.max(0, value);
+		buckets.incrementAndGet(indexOf(positive));
+		count.incrementAndGet();
+		sum.addAndGet(positive);
+
+		for (long current = max.get(); positive > current; current = max.get())
+			if (max.compareAndSet(current, positive))
+				break;
+	}
+
+	private static int indexOf(final long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		final int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the highest value the bucket counts.
+	 */
+	private static long upperBoundOf(final int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowerBound + ((1L << shift) - 1);
+	}
+
+	public long count() {
+		return count.get();
+	}
+
+	public long sum() {
+		return sum.get();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public long mean() {
+		final long n = count.get();
+		return (n == 0) ? 0 : sum.get() / n;
+	}
+
+	/**
+	 * @param quantile
+	 *            Between 0 and 1, e.g. 0.99 for the 99th percentile.
+	 * @return a value at least as high as the given fraction of recorded values, within 12.5%, never above the maximum, or 0 if none was recorded.
+	 */
+	public long percentile(final double quantile) {
+		checkArgument(quantile >= 0 && quantile <= 1, "Quantile must be between 0 and 1, but was [%s].", quantile);
+		final long n = count.get();
+		if (n == 0)
+			return 0;
+
+		final long rank = Math.max(1, (long) Math.ceil(quantile * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), max.get());
+		}
+		return max.get(); // Values recorded while iterating.
+	}
+
+	@Override
+	public String toString() {
+		return "Histogram [count=" + count() + ", mean=" + mean() + ", p50=" + percentile(0.5) + ", p99=" + percentile(0.99) + ", max=" + max() + "]";
+	}
+}
@@ -0,0 +1,77 @@
+package com.carmatech.zeromq.utilities;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+/**
+ * Registry of the endpoints bound by the servers of this JVM, by identity. <br />
+ * Servers are identified by their TCP endpoint, e.g. "tcp://localhost:1337", whichever transports they are bound to, and whichever transport clients
+ * connect with: that is the identity clients address their requests to. Clients connecting to a server of this JVM thus use the most local transport
+ * the server is bound to: INPROC if they share its context, otherwise IPC, otherwise TCP.
+ */
+@ThreadSafe
+public final class LocalEndpoints {
+	private static final ConcurrentMap<String, Binding> BINDINGS = new ConcurrentHashMap<String, Binding>();
+
+	private LocalEndpoints() {
+		// Pure utility class, do NOT instantiate.
+	}
+
+	@Immutable
+	private static final class Binding {
+		private final ZMQ.Context context;
+		private final Map<Transport, String> endpoints;
+
+		private Binding(final ZMQ.Context context, final Map<Transport, String> endpoints) {
+			this.context = context;
+			this.endpoints = Collections.unmodifiableMap(new EnumMap<Transport, String>(endpoints));
+		}
+	}
+
+	/**
+	 * @param endpoints
+	 *            Endpoints clients should connect to, by transport.
+	 */
+	public static void register(final String identity, final ZContext context, final Map<Transport, String> endpoints) {
+		checkNotNull(identity, "Identity must NOT be null.");
+		checkNotNull(context, "Context must NOT be null.");
+		checkNotNull(endpoints, "Endpoints must NOT be null.");
+		BINDINGS.put(identity, new Binding(context.getContext(), endpoints));
+	}
+
+	public static void unregister(final String identity) {
+		BINDINGS.remove(identity);
+	}
+
+	/**
+	 * @param identity
+	 *            Identity of the server to connect to, i.e. its TCP endpoint.
+	 * @param context
+	 *            Context of the connecting socket.
+	 * @return the most local endpoint of the server the socket can connect to, or the identity itself if the server is not in this JVM.
+	 */
+	public static String preferred(final String identity, final ZContext context) {
+		checkNotNull(identity, "Identity must NOT be null.");
+		checkNotNull(context, "Context must NOT be null.");
+		final Binding binding = BINDINGS.get(identity);
+		if (binding == null)
+			return identity;
+
+		if (binding.endpoints.containsKey(Transport.INPROC) && binding.context == context.getContext())
+			return binding.endpoints.get(Transport.INPROC);
+		if (binding.endpoints.containsKey(Transport.IPC))
+			return binding.endpoints.get(Transport.IPC);
+		return identity;
+	}
+}
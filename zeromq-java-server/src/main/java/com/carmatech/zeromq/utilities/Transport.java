@@ -0,0 +1,50 @@
+package com.carmatech.zeromq.utilities;
+
+/**
+ * ZeroMQ transports a server may bind, from the most to the least widely reachable: <br />
+ * - TCP: from any host, <br />
+ * - IPC: from the same host, <br />
+ * - INPROC: from the same context, i.e. the same JVM, without any copy nor system call. <br />
+ * Whatever the transport, servers are identified by their TCP endpoint: see {@link LocalEndpoints}.
+ */
+public enum Transport {
+	TCP {
+		@Override
+		public String bindEndpoint(final int port) {
+			return "tcp://*:" + port;
+		}
+
+		@Override
+		public String connectEndpoint(final int port) {
+			return "tcp://localhost:" + port;
+		}
+	},
+	IPC {
+		@Override
+		public String bindEndpoint(final int port) {
+			return connectEndpoint(port);
+		}
+
+		@Override
+		public String connectEndpoint(final int port) {
+			return "ipc://" + PREFIX + port;
+		}
+	},
+	INPROC {
+		@Override
+		public String bindEndpoint(final int port) {
+			return connectEndpoint(port);
+		}
+
+		@Override
+		public String connectEndpoint(final int port) {
+			return "inproc://" + PREFIX + port;
+		}
+	};
+
+	private static final String PREFIX = "zeromq-java-server-";
+
+	public abstract String bindEndpoint(final int port);
+
+	public abstract String connectEndpoint(final int port);
+}
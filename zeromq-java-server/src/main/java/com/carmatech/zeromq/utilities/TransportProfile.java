@@ -0,0 +1,187 @@
+package com.carmatech.zeromq.utilities;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.zeromq.ZMQ.Socket;
+
+import com.google.common.collect.Sets;
+
+/**
+ * ZeroMQ settings of a server or client: I/O threads of its context, and options of its sockets, which must be set before they bind or connect. <br />
+ * Defaults are sized from the number of cores: one I/O thread per 4 cores, as one thread handles about a gigabyte per second. Other defaults are
+ * ZeroMQ's, except for reconnections, which back off up to {@link #DEFAULT_RECONNECT_INTERVAL_MAX} instead of retrying every 100 ms forever. <br />
+ * Servers only bind TCP by default: see {@link #withTransports(Transport, Transport...)}. <br />
+ * Profiles are immutable: each "with" method returns a modified copy.
+ */
+@Immutable
+public final class TransportProfile {
+	public static final int DEFAULT_IO_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+	public static final int DEFAULT_HIGH_WATER_MARK = 1_000;
+	public static final int OS_DEFAULT_BUFFER_SIZE = 0;
+	public static final int DEFAULT_BACKLOG = 100;
+	public static final Duration DEFAULT_RECONNECT_INTERVAL = new Duration(100, TimeUnit.MILLISECONDS);
+	public static final Duration DEFAULT_RECONNECT_INTERVAL_MAX = new Duration(5, TimeUnit.SECONDS);
+
+	public static final TransportProfile DEFAULT = new TransportProfile(DEFAULT_IO_THREADS, DEFAULT_HIGH_WATER_MARK, DEFAULT_HIGH_WATER_MARK,
+			OS_DEFAULT_BUFFER_SIZE, OS_DEFAULT_BUFFER_SIZE, DEFAULT_BACKLOG, DEFAULT_RECONNECT_INTERVAL, DEFAULT_RECONNECT_INTERVAL_MAX);
+
+	private final int ioThreads;
+	private final int sendHighWaterMark;
+	private final int receiveHighWaterMark;
+	private final int sendBufferSize;
+	private final int receiveBufferSize;
+	private final int backlog;
+	private final Duration reconnectInterval;
+	private final Duration reconnectIntervalMax;
+	private final Set<Transport> transports;
+
+	public TransportProfile(final int ioThreads, final int sendHighWaterMark, final int receiveHighWaterMark, final int sendBufferSize,
+			final int receiveBufferSize, final int backlog, final Duration reconnectInterval, final Duration reconnectIntervalMax) {
+		this(ioThreads, sendHighWaterMark, receiveHighWaterMark, sendBufferSize, receiveBufferSize, backlog, reconnectInterval, reconnectIntervalMax,
+				EnumSet.of(Transport.TCP));
+	}
+
+	/**
+	 * @param sendHighWaterMark
+	 *            Maximum number of messages queued per peer for sending, 0 for no limit.
+	 * @param receiveHighWaterMark
+	 *            Maximum number of messages queued per peer on reception, 0 for no limit.
+	 * @param sendBufferSize
+	 *            Kernel's TCP send buffer size (SO_SNDBUF), in bytes, {@link #OS_DEFAULT_BUFFER_SIZE} to leave it to the OS.
+	 * @param receiveBufferSize
+	 *            Kernel's TCP receive buffer size (SO_RCVBUF), in bytes, {@link #OS_DEFAULT_BUFFER_SIZE} to leave it to the OS.
+	 * @param backlog
+	 *            Maximum number of pending connections on bound sockets.
+	 * @param reconnectInterval
+	 *            Delay before reconnecting to a lost peer.
+	 * @param reconnectIntervalMax
+	 *            Maximum delay before reconnecting, doubled on each attempt from the reconnect interval. No back off if lower than the latter.
+	 * @param transports
+	 *            Transports servers bind.
+	 */
+	public TransportProfile(final int ioThreads, final int sendHighWaterMark, final int receiveHighWaterMark, final int sendBufferSize,
+			final int receiveBufferSize, final int backlog, final Duration reconnectInterval, final Duration reconnectIntervalMax,
+			final Collection<Transport> transports) {
+		checkArgument(ioThreads > 0, "Number of I/O threads must be strictly positive, but was [%s].", ioThreads);
+		checkArgument(sendHighWaterMark >= 0, "Send high-water mark must be positive, but was [%s].", sendHighWaterMark);
+		checkArgument(receiveHighWaterMark >= 0, "Receive high-water mark must be positive, but was [%s].", receiveHighWaterMark);
+		checkArgument(sendBufferSize >= 0, "Send buffer size must be positive, but was [%s].", sendBufferSize);
+		checkArgument(receiveBufferSize >= 0, "Receive buffer size must be positive, but was [%s].", receiveBufferSize);
+		checkArgument(backlog > 0, "Backlog must be strictly positive, but was [%s].", backlog);
+		checkNotNull(reconnectInterval, "Reconnect interval must NOT be null.");
+		checkNotNull(reconnectIntervalMax, "Maximum reconnect interval must NOT be null.");
+		checkNotNull(transports, "Transports must NOT be null.");
+		checkArgument(!transports.isEmpty(), "Transports must NOT be empty.");
+
+		this.ioThreads = ioThreads;
+		this.sendHighWaterMark = sendHighWaterMark;
+		this.receiveHighWaterMark = receiveHighWaterMark;
+		this.sendBufferSize = sendBufferSize;
+		this.receiveBufferSize = receiveBufferSize;
+		this.backlog = backlog;
+		this.reconnectInterval = reconnectInterval;
+		this.reconnectIntervalMax = reconnectIntervalMax;
+		this.transports = Sets.immutableEnumSet(transports);
+	}
+
+	public TransportProfile withIoThreads(final int ioThreads) {
+		return new TransportProfile(ioThreads, sendHighWaterMark, receiveHighWaterMark, sendBufferSize, receiveBufferSize, backlog, reconnectInterval,
+				reconnectIntervalMax, transports);
+	}
+
+	public TransportProfile withHighWaterMarks(final int sendHighWaterMark, final int receiveHighWaterMark) {
+		return new TransportProfile(ioThreads, sendHighWaterMark, receiveHighWaterMark, sendBufferSize, receiveBufferSize, backlog, reconnectInterval,
+				reconnectIntervalMax, transports);
+	}
+
+	public TransportProfile withBufferSizes(final int sendBufferSize, final int receiveBufferSize) {
+		return new TransportProfile(ioThreads, sendHighWaterMark, receiveHighWaterMark, sendBufferSize, receiveBufferSize, backlog, reconnectInterval,
+				reconnectIntervalMax, transports);
+	}
+
+	public TransportProfile withBacklog(final int backlog) {
+		return new TransportProfile(ioThreads, sendHighWaterMark, receiveHighWaterMark, sendBufferSize, receiveBufferSize, backlog, reconnectInterval,
+				reconnectIntervalMax, transports);
+	}
+
+	public TransportProfile withReconnectIntervals(final Duration reconnectInterval, final Duration reconnectIntervalMax) {
+		return new TransportProfile(ioThreads, sendHighWaterMark, receiveHighWaterMark, sendBufferSize, receiveBufferSize, backlog, reconnectInterval,
+				reconnectIntervalMax, transports);
+	}
+
+	/**
+	 * Servers bind all the provided transports: clients of the same host, or JVM, then connect with the most local one.
+	 */
+	public TransportProfile withTransports(final Transport first, final Transport... rest) {
+		return new TransportProfile(ioThreads, sendHighWaterMark, receiveHighWaterMark, sendBufferSize, receiveBufferSize, backlog, reconnectInterval,
+				reconnectIntervalMax, EnumSet.of(first, rest));
+	}
+
+	public int ioThreads() {
+		return ioThreads;
+	}
+
+	public int sendHighWaterMark() {
+		return sendHighWaterMark;
+	}
+
+	public int receiveHighWaterMark() {
+		return receiveHighWaterMark;
+	}
+
+	public int sendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public int receiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public int backlog() {
+		return backlog;
+	}
+
+	public Duration reconnectInterval() {
+		return reconnectInterval;
+	}
+
+	public Duration reconnectIntervalMax() {
+		return reconnectIntervalMax;
+	}
+
+	public Set<Transport> transports() {
+		return transports;
+	}
+
+	/**
+	 * Set the socket's options: to call before it binds or connects.
+	 */
+	public Socket configure(final Socket socket) {
+		checkNotNull(socket, "Socket must NOT be null.");
+		socket.setSndHWM(sendHighWaterMark);
+		socket.setRcvHWM(receiveHighWaterMark);
+		if (sendBufferSize != OS_DEFAULT_BUFFER_SIZE)
+			socket.setSendBufferSize(sendBufferSize);
+		if (receiveBufferSize != OS_DEFAULT_BUFFER_SIZE)
+			socket.setReceiveBufferSize(receiveBufferSize);
+		socket.setBacklog(backlog);
+		socket.setReconnectIVL(reconnectInterval.toMillis());
+		socket.setReconnectIVLMax(reconnectIntervalMax.toMillis());
+		return socket;
+	}
+
+	@Override
+	public String toString() {
+		return "TransportProfile [ioThreads=" + ioThreads + ", sendHighWaterMark=" + sendHighWaterMark + ", receiveHighWaterMark=" + receiveHighWaterMark
+				+ ", sendBufferSize=" + sendBufferSize + ", receiveBufferSize=" + receiveBufferSize + ", backlog=" + backlog + ", reconnectInterval="
+				+ reconnectInterval + ", reconnectIntervalMax=" + reconnectIntervalMax + ", transports=" + transports + "]";
+	}
+}
@@ -2,6 +2,10 @@ package com.carmatech.zeromq.utilities;
 
 import static org.zeromq.ZMQ.Error.ETERM;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,8 +18,6 @@ import com.carmatech.zeromq.server.IServer;
 public final class ZeroMQ {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ZeroMQ.class);
 
-	private static final int NUM_IO_THREADS = 1;
-	private static final int HIGH_WATER_MARK = 1000;
 	public static final int ERROR = -1;
 
 	private ZeroMQ() {
@@ -35,13 +37,15 @@ public final class ZeroMQ {
 	}
 
 	public static ZContext createContext() {
-		final ZContext context = new ZContext(NUM_IO_THREADS);
-
-		if (context.getHWM() < HIGH_WATER_MARK) {
-			context.setHWM(HIGH_WATER_MARK);
-			LOGGER.info("High-water mark set to [{}].", HIGH_WATER_MARK);
-		}
+		return createContext(TransportProfile.DEFAULT);
+	}
 
+	/**
+	 * @return a context with the profile's I/O threads. Its sockets still have to be configured with {@link TransportProfile#configure(Socket)}.
+	 */
+	public static ZContext createContext(final TransportProfile profile) {
+		final ZContext context = new ZContext(profile.ioThreads());
+		LOGGER.info("Context created with [{}] I/O threads.", profile.ioThreads());
 		return context;
 	}
 
@@ -51,6 +55,20 @@ public final class ZeroMQ {
 			throw new IllegalStateException("Server failed to bind to [" + endpoint + "].");
 	}
 
+	/**
+	 * Bind the socket to the port, on each of the provided transports.
+	 * 
+	 * @return the endpoints clients should connect to, by transport.
+	 */
+	public static Map<Transport, String> bindTo(final int port, final Socket socket, final Set<Transport> transports) {
+		final Map<Transport, String> endpoints = new EnumMap<Transport, String>(Transport.class);
+		for (final Transport transport : transports) {
+			bindTo(transport.bindEndpoint(port), socket);
+			endpoints.put(transport, transport.connectEndpoint(port));
+		}
+		return endpoints;
+	}
+
 	public static boolean isSigTerm(final ZMQException e) {
 		return (e != null) && (e.getErrorCode() == ETERM.getCode());
 	}
@@ -0,0 +1,76 @@
+package com.carmatech.zeromq.utilities.retry;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+
+/**
+ * Retry policy doubling the delay before each attempt, from the initial delay up to the maximum delay, so that retries back off from a slow server
+ * instead of piling up on it.
+ */
+@NotThreadSafe
+public class ExponentialBackoff implements IRetryPolicy {
+	private final long initialDelayInMillis;
+	private final long maxDelayInMillis;
+	private final int maxAttempts;
+
+	private int attempts = 0;
+
+	public ExponentialBackoff(final Duration initialDelay, final Duration maxDelay, final int maxAttempts) {
+		this.initialDelayInMillis = checkNotNull(initialDelay, "Initial delay must NOT be null.").toMillis();
+		this.maxDelayInMillis = checkNotNull(maxDelay, "Maximum delay must NOT be null.").toMillis();
+		checkArgument(initialDelayInMillis > 0, "Initial delay must be strictly positive, but was [%s].", initialDelay);
+		checkArgument(maxDelayInMillis >= initialDelayInMillis, "Maximum delay must be greater than initial delay [%s], but was [%s].", initialDelay,
+				maxDelay);
+		checkArgument(maxAttempts > 0, "Maximum number of attempts must be strictly positive, but was [%s].", maxAttempts);
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return a supplier of new policies, e.g. one per request, as policies are stateful.
+	 */
+	public static Supplier<IRetryPolicy> supplier(final Duration initialDelay, final Duration maxDelay, final int maxAttempts) {
+		new ExponentialBackoff(initialDelay, maxDelay, maxAttempts); // Fail fast on invalid arguments.
+		return new Supplier<IRetryPolicy>() {
+			@Override
+			public IRetryPolicy get() {
+				return new ExponentialBackoff(initialDelay, maxDelay, maxAttempts);
+			}
+		};
+	}
+
+	@Override
+	public boolean hasNextAttempt() {
+		return attempts < maxAttempts;
+	}
+
+	@Override
+	public long nextAttemptInMillis() {
+		if (!hasNextAttempt())
+			throw new IllegalStateException("Number of attempts (" + maxAttempts + ") exhausted.");
+
+		final int shift = Math.min(attempts++, Long.numberOfLeadingZeros(initialDelayInMillis) - 1); // Do NOT overflow.
+		return Math.min(initialDelayInMillis << shift, maxDelayInMillis);
+	}
+
+	@Override
+	public int attempts() {
+		return attempts;
+	}
+
+	@Override
+	public void reset() {
+		attempts = 0;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this).add("initialDelayInMillis", initialDelayInMillis).add("maxDelayInMillis", maxDelayInMillis)
+				.add("maxAttempts", maxAttempts).add("attempts", attempts).toString();
+	}
+}
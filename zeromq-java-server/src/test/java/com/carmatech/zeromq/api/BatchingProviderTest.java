@@ -0,0 +1,142 @@
+package com.carmatech.zeromq.api;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class BatchingProviderTest {
+	private static final Duration SHORT_WINDOW = new Duration(50, TimeUnit.MILLISECONDS);
+	private static final Duration LONG_WINDOW = new Duration(1, TimeUnit.HOURS);
+
+	private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+	private final RecordingProvider provider = new RecordingProvider();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void requestsWithinWindowShouldBeLookedUpInOneBatch() throws Exception {
+		final BatchingProvider batchingProvider = new BatchingProvider(provider, 100, SHORT_WINDOW, executor);
+		final List<UUID> uuids = randomUuids(10);
+		final List<ListenableFuture<ByteBuffer>> payloads = request(batchingProvider, uuids);
+
+		for (int i = 0; i < uuids.size(); ++i)
+			assertThat(payloads.get(i).get(5, TimeUnit.SECONDS), is(BUFFER_PROVIDER.apply(uuids.get(i))));
+		assertThat(provider.batches, is(Collections.singletonList(uuids)));
+		assertThat(batchingProvider.batches(), is(1L));
+		assertThat(batchingProvider.requests(), is(10L));
+	}
+
+	@Test
+	public void fullBatchShouldBeFlushedWithoutWaitingForWindow() throws Exception {
+		final BatchingProvider batchingProvider = new BatchingProvider(provider, 4, LONG_WINDOW, executor);
+		final List<UUID> uuids = randomUuids(4);
+
+		for (final ListenableFuture<ByteBuffer> payload : request(batchingProvider, uuids))
+			payload.get(5, TimeUnit.SECONDS);
+		assertThat(provider.batches, is(Collections.singletonList(uuids)));
+	}
+
+	@Test
+	public void requestsForSameUuidShouldShareOneLookupReleasedOnceAllViewsAreReleased() throws Exception {
+		final BatchingProvider batchingProvider = new BatchingProvider(provider, 100, SHORT_WINDOW, executor);
+		final UUID uuid = UUID.randomUUID();
+		final List<ListenableFuture<ByteBuffer>> payloads = request(batchingProvider, Lists.newArrayList(uuid, uuid, uuid));
+
+		for (final ListenableFuture<ByteBuffer> payload : payloads) {
+			assertThat(provider.releases.get(), is(0));
+			batchingProvider.release(uuid, payload.get(5, TimeUnit.SECONDS));
+		}
+		assertThat(provider.releases.get(), is(1));
+		assertThat(provider.batches, is(Collections.singletonList(Collections.singletonList(uuid))));
+	}
+
+	@Test
+	public void uuidsWithoutPayloadShouldCompleteWithNull() throws Exception {
+		final BatchingProvider batchingProvider = new BatchingProvider(provider, 100, SHORT_WINDOW, executor);
+		provider.missing = true;
+
+		assertThat(batchingProvider.apply(UUID.randomUUID()).get(5, TimeUnit.SECONDS), is(nullValue()));
+	}
+
+	@Test
+	public void failureShouldBeSharedByAllRequestsOfTheBatch() throws TimeoutException, InterruptedException {
+		final BatchingProvider batchingProvider = new BatchingProvider(provider, 100, SHORT_WINDOW, executor);
+		provider.failure = new IllegalStateException("Database is down.");
+
+		for (final ListenableFuture<ByteBuffer> payload : request(batchingProvider, randomUuids(3))) {
+			try {
+				payload.get(5, TimeUnit.SECONDS);
+				fail("Failure should have been shared.");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause(), is(sameInstance((Throwable) provider.failure)));
+			}
+		}
+		assertThat(batchingProvider.batches(), is(1L));
+	}
+
+	private static List<UUID> randomUuids(final int count) {
+		final List<UUID> uuids = new ArrayList<UUID>(count);
+		for (int i = 0; i < count; ++i)
+			uuids.add(UUID.randomUUID());
+		return uuids;
+	}
+
+	private static List<ListenableFuture<ByteBuffer>> request(final BatchingProvider batchingProvider, final List<UUID> uuids) {
+		final List<ListenableFuture<ByteBuffer>> payloads = new ArrayList<ListenableFuture<ByteBuffer>>(uuids.size());
+		for (final UUID uuid : uuids)
+			payloads.add(batchingProvider.apply(uuid));
+		return payloads;
+	}
+
+	private static final class RecordingProvider implements IBatchProvider {
+		private final List<List<UUID>> batches = new ArrayList<List<UUID>>();
+		private final AtomicInteger releases = new AtomicInteger();
+		private volatile boolean missing;
+		private volatile RuntimeException failure;
+
+		@Override
+		public synchronized Map<UUID, ByteBuffer> apply(final List<UUID> uuids) {
+			batches.add(uuids);
+			if (failure != null)
+				throw failure;
+
+			final Map<UUID, ByteBuffer> payloads = new HashMap<UUID, ByteBuffer>();
+			if (!missing)
+				for (final UUID uuid : uuids)
+					payloads.put(uuid, BUFFER_PROVIDER.apply(uuid));
+			return payloads;
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			releases.incrementAndGet();
+		}
+	}
+}
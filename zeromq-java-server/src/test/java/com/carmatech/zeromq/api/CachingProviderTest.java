@@ -0,0 +1,165 @@
+package com.carmatech.zeromq.api;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Function;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.testing.FakeTicker;
+
+public class CachingProviderTest {
+	private static final int PAYLOAD_SIZE = BUFFER_PROVIDER.apply(UUID.randomUUID()).remaining();
+	private static final Duration TTL = new Duration(1, TimeUnit.MINUTES);
+
+	private final CountingProvider provider = new CountingProvider();
+	private final FakeTicker ticker = new FakeTicker();
+	private final CachingProvider cache = new CachingProvider(provider, 2 * PAYLOAD_SIZE, TTL, ticker);
+
+	@Test
+	public void cachedPayloadShouldOnlyBeLoadedOnce() {
+		UUID uuid = UUID.randomUUID();
+		ByteBuffer first = cache.apply(uuid);
+		ByteBuffer second = cache.apply(uuid);
+
+		assertThat(second, is(BUFFER_PROVIDER.apply(uuid)));
+		assertThat(first, is(second));
+		assertThat(provider.loads.count(uuid), is(1));
+
+		CacheStats stats = cache.stats();
+		assertThat(stats.hitCount(), is(1L));
+		assertThat(stats.missCount(), is(1L));
+		assertThat(stats.loadSuccessCount(), is(1L));
+	}
+
+	@Test
+	public void eachRequestShouldGetItsOwnViewOfTheCachedPayload() {
+		UUID uuid = UUID.randomUUID();
+		cache.apply(uuid).position(PAYLOAD_SIZE);
+		assertThat(cache.apply(uuid).remaining(), is(PAYLOAD_SIZE));
+	}
+
+	@Test
+	public void cacheShouldBeBoundedByTotalPayloadSize() {
+		for (int i = 0; i < 10; ++i) {
+			UUID uuid = UUID.randomUUID();
+			cache.apply(uuid);
+			cache.apply(uuid);
+		}
+		assertThat(cache.weight(), is(lessThanOrEqualTo(2L * PAYLOAD_SIZE)));
+		assertThat(cache.size(), is(lessThanOrEqualTo(2L)));
+	}
+
+	@Test
+	public void scanShouldNotFlushHotPayloads() {
+		UUID hot1 = UUID.randomUUID();
+		UUID hot2 = UUID.randomUUID();
+		for (int i = 0; i < 5; ++i) {
+			cache.apply(hot1);
+			cache.apply(hot2);
+		}
+
+		for (int i = 0; i < 100; ++i)
+			cache.apply(UUID.randomUUID()); // Scan.
+
+		cache.apply(hot1);
+		cache.apply(hot2);
+		assertThat(provider.loads.count(hot1), is(1));
+		assertThat(provider.loads.count(hot2), is(1));
+		assertThat(cache.rejections(), is(100L));
+	}
+
+	@Test
+	public void rejectedPayloadsShouldBeReleasedToProviderRightAway() {
+		UUID hot1 = UUID.randomUUID();
+		UUID hot2 = UUID.randomUUID();
+		cache.apply(hot1);
+		cache.apply(hot1);
+		cache.apply(hot2);
+		cache.apply(hot2);
+
+		UUID cold = UUID.randomUUID();
+		ByteBuffer rejected = cache.apply(cold);
+		cache.release(cold, rejected);
+		assertThat(provider.releases.count(cold), is(1));
+
+		ByteBuffer cached = cache.apply(hot1);
+		cache.release(hot1, cached);
+		assertThat(provider.releases.count(hot1), is(0));
+	}
+
+	@Test
+	public void expiredPayloadShouldBeLoadedAgainAndReleased() {
+		UUID uuid = UUID.randomUUID();
+		cache.release(uuid, cache.apply(uuid));
+		ticker.advance(TTL.toNanos());
+		cache.apply(uuid);
+
+		assertThat(provider.loads.count(uuid), is(2));
+		assertThat(provider.releases.count(uuid), is(1));
+		assertThat(cache.stats().evictionCount(), is(1L));
+	}
+
+	@Test
+	public void evictedPayloadShouldOnlyBeReleasedOnceAllViewsAreReleased() {
+		UUID uuid = UUID.randomUUID();
+		ByteBuffer view1 = cache.apply(uuid);
+		ByteBuffer view2 = cache.apply(uuid);
+		cache.invalidate(uuid);
+
+		assertThat(provider.releases.count(uuid), is(0));
+		cache.release(uuid, view1);
+		assertThat(provider.releases.count(uuid), is(0));
+		cache.release(uuid, view2);
+		assertThat(provider.releases.count(uuid), is(1));
+	}
+
+	@Test
+	public void payloadBiggerThanCacheShouldNotBeCached() {
+		CachingProvider tinyCache = new CachingProvider(provider, PAYLOAD_SIZE - 1, TTL, ticker);
+		UUID uuid = UUID.randomUUID();
+		tinyCache.apply(uuid);
+		tinyCache.apply(uuid);
+		assertThat(provider.loads.count(uuid), is(2));
+		assertThat(tinyCache.size(), is(0L));
+	}
+
+	@Test
+	public void unknownUuidShouldNotBeCached() {
+		CachingProvider cacheOfNothing = new CachingProvider(Providers.of(new Function<UUID, byte[]>() {
+			@Override
+			public byte[] apply(final UUID uuid) {
+				return null;
+			}
+		}), PAYLOAD_SIZE, TTL, ticker);
+		assertThat(cacheOfNothing.apply(UUID.randomUUID()), is(nullValue()));
+		assertThat(cacheOfNothing.size(), is(0L));
+	}
+
+	private static final class CountingProvider implements IBufferProvider {
+		private final Multiset<UUID> loads = ConcurrentHashMultiset.create();
+		private final Multiset<UUID> releases = ConcurrentHashMultiset.create();
+
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			loads.add(uuid);
+			return BUFFER_PROVIDER.apply(uuid);
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			releases.add(uuid);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.carmatech.zeromq.api;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.carmatech.zeromq.utilities.Duration;
+
+public class ChunkedTransfersTest {
+	private static final int MAX_BYTES = 100;
+	private static final int PAYLOAD_SIZE = 60;
+
+	private final CountingProvider provider = new CountingProvider();
+	private final ChunkedTransfers transfers = new ChunkedTransfers(MAX_BYTES, new Duration(30, TimeUnit.SECONDS));
+
+	@Test
+	public void transferShouldOnlyCallProviderOnce() {
+		UUID uuid = UUID.randomUUID();
+		transfers.release(uuid, transfers.payload(uuid, provider));
+		transfers.release(uuid, transfers.payload(uuid, provider));
+
+		assertThat(provider.calls.get(), is(1));
+		assertThat(provider.releases.get(), is(0));
+	}
+
+	@Test
+	public void payloadsOverAFractionOfMaximumShouldStayOpen() {
+		UUID uuid = UUID.randomUUID();
+		transfers.release(uuid, transfers.payload(uuid, provider));
+
+		assertThat(transfers.isOpen(uuid), is(true));
+	}
+
+	@Test
+	public void evictedPayloadShouldOnlyBeReleasedOnceAllViewsAreReleased() {
+		UUID evicted = UUID.randomUUID();
+		ByteBuffer view1 = transfers.payload(evicted, provider);
+		ByteBuffer view2 = transfers.payload(evicted, provider);
+		UUID other = UUID.randomUUID();
+		transfers.payload(other, provider); // Exceeds the maximum.
+
+		assertThat(transfers.isOpen(evicted), is(false));
+		transfers.release(evicted, view1);
+		assertThat(provider.releases.get(), is(0));
+		transfers.release(evicted, view2);
+		assertThat(provider.releases.get(), is(1));
+	}
+
+	@Test
+	public void payloadBiggerThanMaximumShouldBeServedUncached() {
+		UUID uuid = UUID.randomUUID();
+		provider.size = MAX_BYTES + 1;
+		ByteBuffer view = transfers.payload(uuid, provider);
+
+		assertThat(view.remaining(), is(MAX_BYTES + 1));
+		assertThat(transfers.isOpen(uuid), is(false));
+		assertThat(provider.releases.get(), is(0));
+		transfers.release(uuid, view);
+		assertThat(provider.calls.get(), is(1));
+		assertThat(provider.releases.get(), is(1));
+	}
+
+	@Test
+	public void viewsShouldNotAffectOneAnother() {
+		UUID uuid = UUID.randomUUID();
+		ByteBuffer view1 = transfers.payload(uuid, provider);
+		view1.position(10);
+		ByteBuffer view2 = transfers.payload(uuid, provider);
+
+		assertThat(view2.position(), is(0));
+		assertThat(view2.remaining(), is(PAYLOAD_SIZE));
+	}
+
+	private static final class CountingProvider implements IBufferProvider {
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger releases = new AtomicInteger();
+		private volatile int size = PAYLOAD_SIZE;
+
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			calls.incrementAndGet();
+			return ByteBuffer.allocate(size);
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			releases.incrementAndGet();
+		}
+	}
+}
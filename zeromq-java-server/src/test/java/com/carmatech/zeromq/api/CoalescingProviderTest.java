@@ -0,0 +1,130 @@
+package com.carmatech.zeromq.api;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class CoalescingProviderTest {
+	private static final int REQUESTERS = 8;
+
+	private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(REQUESTERS));
+	private final BlockingProvider provider = new BlockingProvider();
+	private final CoalescingProvider coalescingProvider = new CoalescingProvider(provider);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentRequestsForSameUuidShouldBeMergedIntoOneCall() throws Exception {
+		final UUID uuid = UUID.randomUUID();
+		final List<ListenableFuture<ByteBuffer>> payloads = requestConcurrently(uuid);
+
+		for (final ListenableFuture<ByteBuffer> payload : payloads)
+			assertThat(payload.get(), is(BUFFER_PROVIDER.apply(uuid)));
+		assertThat(provider.calls.get(), is(1));
+		assertThat(coalescingProvider.calls(), is(1L));
+		assertThat(coalescingProvider.coalesced(), is((long) REQUESTERS - 1));
+	}
+
+	@Test
+	public void sharedPayloadShouldOnlyBeReleasedOnceAllViewsAreReleased() throws Exception {
+		final UUID uuid = UUID.randomUUID();
+		final List<ListenableFuture<ByteBuffer>> payloads = requestConcurrently(uuid);
+
+		for (final ListenableFuture<ByteBuffer> payload : payloads) {
+			assertThat(provider.releases.get(), is(0));
+			coalescingProvider.release(uuid, payload.get());
+		}
+		assertThat(provider.releases.get(), is(1));
+	}
+
+	@Test
+	public void requestAfterCompletionShouldCallProviderAgain() {
+		final UUID uuid = UUID.randomUUID();
+		provider.unblock.countDown();
+		coalescingProvider.release(uuid, coalescingProvider.apply(uuid));
+		coalescingProvider.release(uuid, coalescingProvider.apply(uuid));
+
+		assertThat(provider.calls.get(), is(2));
+		assertThat(coalescingProvider.coalesced(), is(0L));
+	}
+
+	@Test
+	public void failureShouldBeSharedByAllRequests() throws Exception {
+		provider.failure = new IllegalStateException("Backing store is down.");
+		final List<ListenableFuture<ByteBuffer>> payloads = requestConcurrently(UUID.randomUUID());
+
+		for (final ListenableFuture<ByteBuffer> payload : payloads) {
+			try {
+				payload.get();
+				fail("Failure should have been shared.");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause(), is(sameInstance((Throwable) provider.failure)));
+			}
+		}
+		assertThat(provider.calls.get(), is(1));
+	}
+
+	/**
+	 * The provider is only unblocked once all requests joined the first one.
+	 */
+	private List<ListenableFuture<ByteBuffer>> requestConcurrently(final UUID uuid) {
+		final List<ListenableFuture<ByteBuffer>> payloads = new ArrayList<ListenableFuture<ByteBuffer>>();
+		for (int i = 0; i < REQUESTERS; ++i) {
+			payloads.add(executor.submit(new Callable<ByteBuffer>() {
+				@Override
+				public ByteBuffer call() {
+					return coalescingProvider.apply(uuid);
+				}
+			}));
+		}
+
+		while (coalescingProvider.coalesced() < REQUESTERS - 1)
+			Thread.yield();
+		provider.unblock.countDown();
+		return payloads;
+	}
+
+	private static final class BlockingProvider implements IBufferProvider {
+		private final CountDownLatch unblock = new CountDownLatch(1);
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger releases = new AtomicInteger();
+		private volatile RuntimeException failure;
+
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			calls.incrementAndGet();
+			Uninterruptibles.awaitUninterruptibly(unblock);
+			if (failure != null)
+				throw failure;
+			return BUFFER_PROVIDER.apply(uuid);
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			releases.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.carmatech.zeromq.api;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+
+public class CodecTest {
+	private static final UUID UUID_1 = UUID.fromString("7af76005-d4e2-11e3-9714-3c15c2baa558");
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void stringUuidIsEncodedAsCanonicalString() {
+		assertThat(new String(Codec.STRING.encode(UUID_1), ZMQ.CHARSET), is(UUID_1.toString()));
+	}
+
+	@Test
+	public void stringUuidIsDecodedBack() {
+		assertThat(Codec.STRING.decodeUuid(new ZFrame(UUID_1.toString())), is(UUID_1));
+		assertThat(Codec.STRING.decodeUuid(new ZFrame(UUID_1.toString().toUpperCase())), is(UUID_1));
+	}
+
+	@Test
+	public void binaryUuidIsEncodedOn16Bytes() {
+		assertThat(Codec.BINARY.encode(UUID_1).length, is(16));
+	}
+
+	@Test
+	public void binaryUuidIsDecodedBack() {
+		for (int i = 0; i < 100; ++i) {
+			final UUID uuid = UUID.randomUUID();
+			assertThat(Codec.BINARY.decodeUuid(new ZFrame(Codec.BINARY.encode(uuid))), is(uuid));
+			assertThat(Codec.STRING.decodeUuid(new ZFrame(Codec.STRING.encode(uuid))), is(uuid));
+		}
+	}
+
+	@Test
+	public void sequenceNumbersAreDecodedBack() {
+		for (final long sequenceNumber : new long[] { 0L, 1L, 1337L, Integer.MAX_VALUE + 1L, Long.MAX_VALUE }) {
+			assertThat(Codec.STRING.decodeSequenceNumber(new ZFrame(Codec.STRING.encode(sequenceNumber))), is(sequenceNumber));
+			assertThat(Codec.BINARY.decodeSequenceNumber(new ZFrame(Codec.BINARY.encode(sequenceNumber))), is(sequenceNumber));
+		}
+	}
+
+	@Test
+	public void stringSequenceNumberIsEncodedAsDecimalString() {
+		assertThat(new String(Codec.STRING.encode(1337L), ZMQ.CHARSET), is("1337"));
+	}
+
+	@Test
+	public void decodingNonNumericStringSequenceNumberShouldThrowNumberFormatException() {
+		exception.expect(NumberFormatException.class);
+		Codec.STRING.decodeSequenceNumber(new ZFrame("12a"));
+	}
+
+	@Test
+	public void decodingInvalidBinaryUuidShouldThrowIllegalArgumentException() {
+		exception.expect(IllegalArgumentException.class);
+		Codec.BINARY.decodeUuid(new ZFrame(new byte[15]));
+	}
+
+	@Test
+	public void codecIsDetectedFromUuidFrameSize() {
+		assertThat(Codec.of(new ZFrame(Codec.BINARY.encode(UUID_1))), is(Codec.BINARY));
+		assertThat(Codec.of(new ZFrame(Codec.STRING.encode(UUID_1))), is(Codec.STRING));
+	}
+
+	@Test
+	public void unknownCodecIsParsedAsString() {
+		assertThat(Codec.parse("BINARY"), is(Codec.BINARY));
+		assertThat(Codec.parse("ZSTD"), is(Codec.STRING));
+		assertThat(Codec.parse(null), is(Codec.STRING));
+	}
+}
@@ -4,6 +4,7 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
 import org.junit.Test;
+import org.zeromq.ZFrame;
 
 public class CommandTest {
 	@Test
@@ -35,4 +36,20 @@ public class CommandTest {
 		assertThat(Command.parse("OK"), is(Command.OK));
 		assertThat(Command.parse("ERROR"), is(Command.ERROR));
 	}
+
+	@Test
+	public void opcodesAreDecodedToEnumValues() {
+		for (final Command command : Command.values())
+			assertThat(Command.decode(new ZFrame(new byte[] { command.opcode() })), is(command));
+	}
+
+	@Test
+	public void namesAndSequenceNumbersAreDecodedFromFrames() {
+		assertThat(Command.decode(new ZFrame("REQUEST")), is(Command.REQUEST));
+		assertThat(Command.decode(new ZFrame("7")), is(Command.SEQUENCE_NUMBER));
+		assertThat(Command.decode(new ZFrame("1337")), is(Command.SEQUENCE_NUMBER));
+		assertThat(Command.decode(new ZFrame("WTF is that?!")), is(Command.UNKNOWN));
+		assertThat(Command.decode(new ZFrame(new byte[] { 0x7F })), is(Command.UNKNOWN));
+		assertThat(Command.decode(null), is(Command.UNKNOWN));
+	}
 }
@@ -0,0 +1,127 @@
+package com.carmatech.zeromq.api;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.testing.FakeTicker;
+
+public class NegativeCachingProviderTest {
+	private static final Duration TTL = new Duration(5, TimeUnit.SECONDS);
+
+	private final MissingProvider provider = new MissingProvider();
+	private final FakeTicker ticker = new FakeTicker();
+	private final NegativeCachingProvider cache = new NegativeCachingProvider(provider, 2, TTL, ticker);
+
+	@Test
+	public void missingUuidShouldOnlyBeLookedUpOnceWithinTtl() {
+		UUID uuid = UUID.randomUUID();
+		provider.missing.add(uuid);
+
+		assertThat(cache.apply(uuid), is(nullValue()));
+		assertThat(cache.apply(uuid), is(nullValue()));
+		assertThat(provider.loads.count(uuid), is(1));
+		assertThat(cache.hits(), is(1L));
+		assertThat(cache.misses(), is(1L));
+	}
+
+	@Test
+	public void missingUuidShouldBeLookedUpAgainOnceExpired() {
+		UUID uuid = UUID.randomUUID();
+		provider.missing.add(uuid);
+		cache.apply(uuid);
+
+		ticker.advance(5, TimeUnit.SECONDS);
+		provider.missing.remove(uuid);
+		assertThat(cache.apply(uuid), is(BUFFER_PROVIDER.apply(uuid)));
+		assertThat(provider.loads.count(uuid), is(2));
+	}
+
+	@Test
+	public void invalidatedUuidShouldBeLookedUpAgain() {
+		UUID uuid = UUID.randomUUID();
+		provider.missing.add(uuid);
+		cache.apply(uuid);
+
+		provider.missing.remove(uuid);
+		cache.invalidate(uuid);
+		assertThat(cache.apply(uuid), is(BUFFER_PROVIDER.apply(uuid)));
+	}
+
+	@Test
+	public void uuidInvalidatedWhileLookedUpShouldNotBeRemembered() {
+		final UUID uuid = UUID.randomUUID();
+		provider.missing.add(uuid);
+		provider.duringLookup = new Runnable() {
+			@Override
+			public void run() {
+				provider.missing.remove(uuid); // Created once the backing store looked it up, but before it replied.
+				cache.invalidate(uuid);
+			}
+		};
+		assertThat(cache.apply(uuid), is(nullValue()));
+
+		provider.duringLookup = null;
+		assertThat(cache.apply(uuid), is(BUFFER_PROVIDER.apply(uuid)));
+		assertThat(cache.size(), is(0));
+	}
+
+	@Test
+	public void cacheShouldBeBoundedByNumberOfEntriesEvictingOldestFirst() {
+		UUID oldest = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		UUID uuid3 = UUID.randomUUID();
+		provider.missing.addAll(Sets.newHashSet(oldest, uuid2, uuid3));
+		cache.apply(oldest);
+		cache.apply(uuid2);
+		cache.apply(uuid3);
+
+		assertThat(cache.size(), is(2));
+		cache.apply(oldest);
+		assertThat(provider.loads.count(oldest), is(2));
+		cache.apply(uuid3);
+		assertThat(provider.loads.count(uuid3), is(1));
+	}
+
+	@Test
+	public void foundPayloadsShouldNotBeCached() {
+		UUID uuid = UUID.randomUUID();
+		cache.apply(uuid);
+		cache.apply(uuid);
+
+		assertThat(provider.loads.count(uuid), is(2));
+		assertThat(cache.size(), is(0));
+	}
+
+	private static final class MissingProvider implements IBufferProvider {
+		private final Set<UUID> missing = Sets.newConcurrentHashSet();
+		private final Multiset<UUID> loads = ConcurrentHashMultiset.create();
+		private volatile Runnable duringLookup;
+
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			loads.add(uuid);
+			final boolean isMissing = missing.contains(uuid);
+			if (duringLookup != null)
+				duringLookup.run();
+			return isMissing ? null : BUFFER_PROVIDER.apply(uuid);
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			// No-op.
+		}
+	}
+}
@@ -1,24 +1,50 @@
 package com.carmatech.zeromq.api;
 
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
 import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.PROVIDER;
 import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.toZmqString;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.zeromq.ZMsg;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
 public class ProtocolTest {
 	private static final String DESTINATION = "192.168.1.1";
 	private static final String SOURCE = "127.0.0.1";
 
+	private static final IBufferProvider MISSING_PROVIDER = Providers.of(new Function<UUID, byte[]>() {
+		@Override
+		public byte[] apply(final UUID uuid) {
+			return null;
+		}
+	});
+
 	private final IProtocol protocol = new Protocol(SOURCE);
 
 	@Rule
@@ -113,6 +139,23 @@ public class ProtocolTest {
 		assertThat(message.popString(), is(uuid.toString()));
 	}
 
+	@Test
+	public void statsShouldBeRepliedToWithNameValuePairs() {
+		Map<String, Long> stats = new LinkedHashMap<String, Long>();
+		stats.put("received.REQUEST", 42L);
+		stats.put("providerNanos.p99", 1337L);
+		ZMsg reply = protocol.stats(protocol.stats(DESTINATION), stats);
+
+		assertThat(reply, hasSize(7));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("STATS"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is("received.REQUEST"));
+		assertThat(reply.popString(), is("42"));
+		assertThat(reply.popString(), is("providerNanos.p99"));
+		assertThat(reply.popString(), is("1337"));
+	}
+
 	@Test
 	public void pingShouldBeRepliedToWithPong() {
 		ZMsg reply = protocol.reply(protocol.ping(DESTINATION), PROVIDER);
@@ -153,6 +196,470 @@ public class ProtocolTest {
 		assertThat(reply.popString(), is(toZmqString(uuid)));
 	}
 
+	@Test
+	public void binaryRequestWithSequenceNumber() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg message = protocol.request(DESTINATION, uuid, 1337L, Codec.BINARY);
+
+		assertThat(message, is(not(nullValue())));
+		assertThat(message, hasSize(5));
+
+		assertThat(message.popString(), is(DESTINATION));
+		assertThat(Command.decode(message.pop()), is(Command.REQUEST));
+		assertThat(message.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(message.pop()), is(1337L));
+		assertThat(Codec.BINARY.decodeUuid(message.pop()), is(uuid));
+	}
+
+	@Test
+	public void stringRequestWithSequenceNumberShouldMatchLegacyFormat() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg message = protocol.request(DESTINATION, uuid, 1337L, Codec.STRING);
+
+		assertThat(message, hasSize(4));
+		assertThat(message.popString(), is(DESTINATION));
+		assertThat(message.popString(), is("1337"));
+		assertThat(message.popString(), is(SOURCE));
+		assertThat(message.popString(), is(uuid.toString()));
+	}
+
+	@Test
+	public void binaryRequestWithSequenceNumberShouldBeRepliedToWithOkSequenceNumberAndExpectedPayload() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, uuid, 1337L, Codec.BINARY), PROVIDER);
+
+		assertThat(reply, is(not(nullValue())));
+		assertThat(reply, hasSize(6));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.peek().size(), is(1));
+		assertThat(Command.decode(reply.pop()), is(Command.OK));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(reply.pop()), is(1337L));
+		assertThat(Codec.BINARY.decodeUuid(reply.pop()), is(uuid));
+		assertThat(reply.popString(), is(toZmqString(uuid)));
+	}
+
+	@Test
+	public void pingOfferingCodecShouldBeRepliedToWithPongAndAcceptedCodec() {
+		ZMsg reply = protocol.reply(protocol.ping(DESTINATION, Codec.BINARY), PROVIDER);
+
+		assertThat(reply, is(not(nullValue())));
+		assertThat(reply, hasSize(4));
+
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("PONG"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is("BINARY"));
+	}
+
+	@Test
+	public void multiRequest() {
+		UUID uuid1 = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		ZMsg message = protocol.request(DESTINATION, Arrays.asList(uuid1, uuid2));
+
+		assertThat(message, is(not(nullValue())));
+		assertThat(message, hasSize(5));
+
+		assertThat(message.popString(), is(DESTINATION));
+		assertThat(message.popString(), is("MREQUEST"));
+		assertThat(message.popString(), is(SOURCE));
+		assertThat(message.popString(), is(uuid1.toString()));
+		assertThat(message.popString(), is(uuid2.toString()));
+	}
+
+	@Test
+	public void multiRequestShouldBeRepliedToWithOkAndExpectedPayloads() {
+		UUID uuid1 = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, Arrays.asList(uuid1, uuid2)), PROVIDER);
+
+		assertThat(reply, is(not(nullValue())));
+		assertThat(reply, hasSize(7));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("OK"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is(uuid1.toString()));
+		assertThat(reply.popString(), is(toZmqString(uuid1)));
+		assertThat(reply.popString(), is(uuid2.toString()));
+		assertThat(reply.popString(), is(toZmqString(uuid2)));
+	}
+
+	@Test
+	public void binaryMultiRequestWithSequenceNumberShouldBeRepliedToWithOkSequenceNumberAndExpectedPayloads() {
+		UUID uuid1 = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, Arrays.asList(uuid1, uuid2), 1337L, Codec.BINARY), PROVIDER);
+
+		assertThat(reply, is(not(nullValue())));
+		assertThat(reply, hasSize(8));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(Command.decode(reply.pop()), is(Command.OK));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(reply.pop()), is(1337L));
+		assertThat(Codec.BINARY.decodeUuid(reply.pop()), is(uuid1));
+		assertThat(reply.popString(), is(toZmqString(uuid1)));
+		assertThat(Codec.BINARY.decodeUuid(reply.pop()), is(uuid2));
+		assertThat(reply.popString(), is(toZmqString(uuid2)));
+	}
+
+	@Test
+	public void stringMultiRequestWithSequenceNumberShouldBeRepliedToWithOkAndSequenceNumber() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, Arrays.asList(uuid), 42L, Codec.STRING), PROVIDER);
+
+		assertThat(reply, hasSize(6));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("OK"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is("42"));
+		assertThat(reply.popString(), is(uuid.toString()));
+		assertThat(reply.popString(), is(toZmqString(uuid)));
+	}
+
+	@Test
+	public void binaryRequestForMissingUuidShouldBeRepliedToWithNotFound() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, uuid, 1337L, Codec.BINARY), MISSING_PROVIDER);
+
+		assertThat(reply, hasSize(5));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(Command.decode(reply.pop()), is(Command.NOT_FOUND));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(reply.pop()), is(1337L));
+		assertThat(Codec.BINARY.decodeUuid(reply.pop()), is(uuid));
+	}
+
+	@Test
+	public void multiRequestForSomeMissingUuidsShouldListThemAfterNotFound() {
+		final UUID found = UUID.randomUUID();
+		final UUID missing1 = UUID.randomUUID();
+		final UUID missing2 = UUID.randomUUID();
+		IBufferProvider provider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				return uuid.equals(found) ? BUFFER_PROVIDER.apply(uuid) : null;
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				// No-op.
+			}
+		};
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, Arrays.asList(missing1, found, missing2), 42L, Codec.STRING), provider);
+
+		assertThat(reply, hasSize(9));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("OK"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is("42"));
+		assertThat(reply.popString(), is(found.toString()));
+		assertThat(reply.popString(), is(toZmqString(found)));
+		assertThat(reply.popString(), is("NOT_FOUND"));
+		assertThat(reply.popString(), is(missing1.toString()));
+		assertThat(reply.popString(), is(missing2.toString()));
+	}
+
+	@Test
+	public void multiRequestForOnlyMissingUuidsShouldBeRepliedToWithNotFound() {
+		UUID uuid1 = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, Arrays.asList(uuid1, uuid2), 42L, Codec.STRING), MISSING_PROVIDER);
+
+		assertThat(reply, hasSize(6));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("NOT_FOUND"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is("42"));
+		assertThat(reply.popString(), is(uuid1.toString()));
+		assertThat(reply.popString(), is(uuid2.toString()));
+	}
+
+	@Test
+	public void legacyRequestForMissingUuidShouldStillBeRepliedToWithEmptyPayload() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, uuid, 1337), MISSING_PROVIDER);
+
+		assertThat(reply, hasSize(5));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("1337"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is(uuid.toString()));
+		assertThat(reply.popString(), is(""));
+	}
+
+	@Test
+	public void multiRequestWithoutAnyUuidShouldThrowIllegalArgumentException() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Requested UUIDs must NOT be empty.");
+		protocol.request(DESTINATION, Collections.<UUID> emptyList());
+	}
+
+	@Test
+	public void binaryFetchShouldBeRepliedToWithChunkOfExpectedPayload() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.fetch(DESTINATION, uuid, 1337L, 1L, 2, Codec.BINARY), PROVIDER);
+
+		assertThat(reply, is(not(nullValue())));
+		assertThat(reply, hasSize(8));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(Command.decode(reply.pop()), is(Command.CHUNK));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(reply.pop()), is(1337L));
+		assertThat(Codec.BINARY.decodeUuid(reply.pop()), is(uuid));
+		assertThat(Codec.BINARY.decodeNumber(reply.pop()), is(1L));
+		assertThat(Codec.BINARY.decodeNumber(reply.pop()), is((long) PROVIDER.apply(uuid).length));
+		assertThat(reply.pop().getData(), is(Arrays.copyOfRange(PROVIDER.apply(uuid), 1, 3)));
+	}
+
+	@Test
+	public void stringFetchShouldBeRepliedToWithChunkOfExpectedPayload() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.fetch(DESTINATION, uuid, 42L, 0L, 4, Codec.STRING), PROVIDER);
+
+		assertThat(reply, hasSize(8));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(reply.popString(), is("CHUNK"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is("42"));
+		assertThat(reply.popString(), is(uuid.toString()));
+		assertThat(reply.popString(), is("0"));
+		assertThat(reply.popString(), is(Integer.toString(PROVIDER.apply(uuid).length)));
+		assertThat(reply.pop().getData(), is(Arrays.copyOf(PROVIDER.apply(uuid), 4)));
+	}
+
+	@Test
+	public void fetchPastTheEndShouldBeRepliedToWithEmptyChunk() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.fetch(DESTINATION, uuid, 42L, 1024L, 4, Codec.BINARY), PROVIDER);
+
+		assertThat(reply, hasSize(8));
+		assertThat(reply.peekLast().size(), is(0));
+	}
+
+	@Test
+	public void fetchShouldOnlyCallProviderOncePerTransfer() {
+		final AtomicInteger calls = new AtomicInteger();
+		final Function<UUID, byte[]> countingProvider = new Function<UUID, byte[]>() {
+			@Override
+			public byte[] apply(final UUID uuid) {
+				calls.incrementAndGet();
+				return PROVIDER.apply(uuid);
+			}
+		};
+
+		UUID uuid = UUID.randomUUID();
+		for (long offset = 0; offset < PROVIDER.apply(uuid).length; offset += 8)
+			protocol.reply(protocol.fetch(DESTINATION, uuid, 42L, offset, 8, Codec.BINARY), countingProvider).destroy();
+		assertThat(calls.get(), is(1));
+	}
+
+	@Test
+	public void fetchWithChunkSizeAboveMaximumShouldThrowIllegalArgumentException() {
+		exception.expect(IllegalArgumentException.class);
+		protocol.fetch(DESTINATION, UUID.randomUUID(), 42L, 0L, Protocol.MAX_CHUNK_SIZE + 1, Codec.BINARY);
+	}
+
+	@Test
+	public void fetchWithNegativeOffsetShouldBeRepliedToWithError() {
+		ZMsg reply = protocol.reply(invalidFetch(-1L, 4L), PROVIDER);
+
+		assertThat(reply, hasSize(5));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(Command.decode(reply.pop()), is(Command.ERROR));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(reply.pop()), is(42L));
+	}
+
+	@Test
+	public void fetchWithNonPositiveChunkSizeShouldBeRepliedToWithError() {
+		ZMsg reply = protocol.reply(invalidFetch(0L, 0L), PROVIDER);
+
+		assertThat(reply, hasSize(5));
+		reply.pop(); // Destination.
+		assertThat(Command.decode(reply.pop()), is(Command.ERROR));
+	}
+
+	/**
+	 * {@link Protocol#fetch(String, UUID, long, long, int, Codec)} rejects invalid offsets and chunk sizes: replace them afterwards.
+	 */
+	private ZMsg invalidFetch(final long offset, final long chunkSize) {
+		ZMsg fetch = protocol.fetch(DESTINATION, UUID.randomUUID(), 42L, 0L, 1, Codec.BINARY);
+		fetch.removeLast();
+		fetch.removeLast();
+		fetch.add(Codec.BINARY.encode(offset));
+		fetch.add(Codec.BINARY.encode(chunkSize));
+		return fetch;
+	}
+
+	@Test
+	public void requestShouldBeRepliedToWithPayloadFromBufferProvider() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, uuid, 1337L, Codec.BINARY), BUFFER_PROVIDER);
+
+		assertThat(reply, hasSize(6));
+		assertThat(reply.peekLast().getData(), is(PROVIDER.apply(uuid)));
+	}
+
+	@Test
+	public void bufferShouldBeReleasedOnceReplyIsDestroyed() {
+		final List<UUID> released = new ArrayList<UUID>();
+		final IBufferProvider provider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				return BUFFER_PROVIDER.apply(uuid);
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				released.add(uuid);
+			}
+		};
+
+		UUID uuid = UUID.randomUUID();
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, uuid, 1337L, Codec.BINARY), provider);
+		assertThat(released, is(empty()));
+		reply.destroy();
+		assertThat(released, contains(uuid));
+	}
+
+	@Test
+	public void sliceOfBufferShouldBeRepliedToAsIs() {
+		final IBufferProvider provider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				final ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0, 1, 2, 3, 4, 5 });
+				buffer.position(2).limit(4);
+				return buffer;
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				// No-op.
+			}
+		};
+
+		ZMsg reply = protocol.reply(protocol.request(DESTINATION, UUID.randomUUID(), 1337L, Codec.BINARY), provider);
+		assertThat(reply.peekLast().getData(), is(new byte[] { 2, 3 }));
+	}
+
+	@Test
+	public void asyncReplyShouldOnlyCompleteOnceAllPayloadsAreAvailable() {
+		final Map<UUID, SettableFuture<ByteBuffer>> lookups = new HashMap<UUID, SettableFuture<ByteBuffer>>();
+		final IAsyncProvider provider = new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				final SettableFuture<ByteBuffer> lookup = SettableFuture.create();
+				lookups.put(uuid, lookup);
+				return lookup;
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				// No-op.
+			}
+		};
+
+		UUID uuid1 = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		ListenableFuture<ZMsg> reply = protocol.reply(protocol.request(DESTINATION, Arrays.asList(uuid1, uuid2), 1337L, Codec.BINARY), provider);
+		assertThat(reply.isDone(), is(false));
+
+		lookups.get(uuid2).set(BUFFER_PROVIDER.apply(uuid2)); // Out of order.
+		assertThat(reply.isDone(), is(false));
+		lookups.get(uuid1).set(BUFFER_PROVIDER.apply(uuid1));
+		assertThat(reply.isDone(), is(true));
+
+		ZMsg message = Futures.getUnchecked(reply);
+		assertThat(message, hasSize(8));
+		assertThat(message.popString(), is(DESTINATION));
+		assertThat(Command.decode(message.pop()), is(Command.OK));
+		assertThat(message.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(message.pop()), is(1337L));
+		assertThat(Codec.BINARY.decodeUuid(message.pop()), is(uuid1));
+		assertThat(message.pop().getData(), is(PROVIDER.apply(uuid1)));
+		assertThat(Codec.BINARY.decodeUuid(message.pop()), is(uuid2));
+		assertThat(message.pop().getData(), is(PROVIDER.apply(uuid2)));
+	}
+
+	@Test
+	public void asyncReplyShouldBeErrorWhenLookupFails() {
+		final IAsyncProvider provider = new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				return Futures.immediateFailedFuture(new IllegalStateException("Store is down."));
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				// No-op.
+			}
+		};
+
+		ZMsg reply = Futures.getUnchecked(protocol.reply(protocol.request(DESTINATION, UUID.randomUUID(), 1337L, Codec.BINARY), provider));
+		assertThat(reply, hasSize(5));
+		assertThat(reply.popString(), is(DESTINATION));
+		assertThat(Command.decode(reply.pop()), is(Command.ERROR));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(reply.pop()), is(1337L));
+		assertThat(reply.popString(), is("Store is down."));
+	}
+
+	@Test
+	public void asyncReplyShouldBeErrorWithSequenceNumberWhenLookupFailsLater() {
+		final SettableFuture<ByteBuffer> lookup = SettableFuture.create();
+		final IAsyncProvider provider = new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				return lookup;
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				// No-op.
+			}
+		};
+
+		ListenableFuture<ZMsg> reply = protocol.reply(protocol.request(DESTINATION, Arrays.asList(UUID.randomUUID()), 1337L, Codec.STRING), provider);
+		assertThat(reply.isDone(), is(false));
+		lookup.setException(new IllegalStateException("Store is down."));
+
+		ZMsg message = Futures.getUnchecked(reply);
+		assertThat(message, hasSize(5));
+		assertThat(message.popString(), is(DESTINATION));
+		assertThat(message.popString(), is("ERROR"));
+		assertThat(message.popString(), is(SOURCE));
+		assertThat(message.popString(), is("1337"));
+		assertThat(message.popString(), is("Store is down."));
+	}
+
+	@Test
+	public void asyncPingShouldBeRepliedToRightAway() {
+		ListenableFuture<ZMsg> reply = protocol.reply(protocol.ping(DESTINATION), Providers.async(BUFFER_PROVIDER, MoreExecutors.sameThreadExecutor()));
+		assertThat(reply.isDone(), is(true));
+	}
+
+	@Test
+	public void headerFramesShouldBeSharedAcrossMessages() {
+		ZMsg pong1 = protocol.pong(DESTINATION);
+		ZMsg pong2 = protocol.pong(DESTINATION);
+		pong1.pop();
+		pong2.pop();
+
+		assertThat(pong1.pop(), is(sameInstance(pong2.pop()))); // Command.
+		assertThat(pong1.pop(), is(sameInstance(pong2.pop()))); // Source.
+	}
+
+	@Test
+	public void destroyingMessageShouldNotDestroySharedHeaderFrames() {
+		protocol.pong(DESTINATION).destroy();
+		ZMsg pong = protocol.pong(DESTINATION);
+
+		assertThat(pong.popString(), is(DESTINATION));
+		assertThat(pong.popString(), is("PONG"));
+		assertThat(pong.popString(), is(SOURCE));
+	}
+
 	@Test
 	public void requestShouldBeRepliedToWithUnknownWhenItDoesNotMatchProtocol() {
 		ZMsg invalidRequest = new ZMsg();
@@ -179,4 +686,39 @@ public class ProtocolTest {
 		assertThat(message.popString(), is(SOURCE));
 		assertThat(message.popString(), is("No hosts available"));
 	}
+
+	@Test
+	public void errorToRequestShouldEchoItsSequenceNumberInItsCodec() {
+		ZMsg error = protocol.error(protocol.request(DESTINATION, UUID.randomUUID(), 1337L, Codec.BINARY), Protocol.BUSY);
+
+		assertThat(error, hasSize(5));
+		assertThat(error.popString(), is(DESTINATION));
+		assertThat(error.pop().getData(), is(new byte[] { Command.ERROR.opcode() }));
+		assertThat(error.popString(), is(SOURCE));
+		assertThat(Codec.BINARY.decodeSequenceNumber(error.pop()), is(1337L));
+		assertThat(error.popString(), is(Protocol.BUSY));
+	}
+
+	@Test
+	public void errorToLegacyRequestShouldEchoSequenceNumberAsString() {
+		ZMsg error = protocol.error(protocol.request(DESTINATION, UUID.randomUUID(), 7), Protocol.BUSY);
+
+		assertThat(error, hasSize(5));
+		assertThat(error.popString(), is(DESTINATION));
+		assertThat(error.popString(), is("ERROR"));
+		assertThat(error.popString(), is(SOURCE));
+		assertThat(error.popString(), is("7"));
+		assertThat(error.popString(), is(Protocol.BUSY));
+	}
+
+	@Test
+	public void errorToRequestWithoutSequenceNumberShouldOnlyCarryMessage() {
+		ZMsg error = protocol.error(protocol.request(DESTINATION, Arrays.asList(UUID.randomUUID(), UUID.randomUUID())), Protocol.BUSY);
+
+		assertThat(error, hasSize(4));
+		assertThat(error.popString(), is(DESTINATION));
+		assertThat(error.popString(), is("ERROR"));
+		assertThat(error.popString(), is(SOURCE));
+		assertThat(error.popString(), is(Protocol.BUSY));
+	}
 }
@@ -1,36 +1,60 @@
 package com.carmatech.zeromq.client.pull;
 
 import static com.carmatech.zeromq.api.Command.ERROR;
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
 import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.PROVIDER;
 import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.toZmqString;
 import static com.google.common.util.concurrent.Uninterruptibles.joinUninterruptibly;
 import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.zeromq.ZMsg;
 
+import com.carmatech.zeromq.api.IBufferProvider;
+import com.carmatech.zeromq.api.Providers;
 import com.carmatech.zeromq.server.IServer;
+import com.carmatech.zeromq.server.pull.AdmissionControl;
 import com.carmatech.zeromq.server.pull.MultithreadedPullServer;
 import com.carmatech.zeromq.server.pull.PullServer;
+import com.carmatech.zeromq.utilities.Duration;
 import com.carmatech.zeromq.utilities.LocalHost;
 import com.carmatech.zeromq.utilities.Ports;
+import com.carmatech.zeromq.utilities.Transport;
+import com.carmatech.zeromq.utilities.TransportProfile;
 import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class ClientTest {
 	private final FakeTicker fakeTicker = new FakeTicker();
 	private final Client client = new Client(fakeTicker);
 
-	private final Integer[] ports = Ports.reserve(2).toArray(new Integer[2]);
+	private final Integer[] ports = Ports.reserve(3).toArray(new Integer[3]);
 
 	private final int portSimpleServer1 = ports[0];
 	private final IServer simpleServer1 = new PullServer(portSimpleServer1, PROVIDER);
@@ -40,6 +64,8 @@ public class ClientTest {
 	private final IServer multithreadedServer1 = new MultithreadedPullServer(portMultithreadedServer1, PROVIDER);
 	private final Thread threadMultithreadedServer1 = new Thread(multithreadedServer1, "multithreaded-server-1");
 
+	private final int portBufferServer1 = ports[2];
+
 	@Before
 	public void setUp() {
 		fakeTicker.setAutoIncrementStep(10, TimeUnit.MILLISECONDS);
@@ -68,6 +94,441 @@ public class ClientTest {
 		assertThat(reply.popString(), is(toZmqString(uuid)));
 	}
 
+	@Test
+	public void sendMultiRequestToResponsiveSimpleServerShouldReturnExpectedReplies() {
+		threadSimpleServer1.start();
+		client.connect("tcp://localhost:" + portSimpleServer1);
+
+		UUID uuid1 = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		ZMsg reply = client.request(Arrays.asList(uuid1, uuid2));
+		assertThat(reply, is(not(nullValue())));
+		assertThat(reply.popString(), is("OK"));
+		assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+		assertThat(reply.popString(), is(uuid1.toString()));
+		assertThat(reply.popString(), is(toZmqString(uuid1)));
+		assertThat(reply.popString(), is(uuid2.toString()));
+		assertThat(reply.popString(), is(toZmqString(uuid2)));
+	}
+
+	@Test
+	public void sendRequestToServerWithBufferProviderShouldReturnExpectedReply() {
+		final IServer bufferServer = new PullServer(portBufferServer1, BUFFER_PROVIDER);
+		final Thread bufferServerThread = new Thread(bufferServer, "buffer-server");
+		bufferServerThread.start();
+		try {
+			client.connect("tcp://localhost:" + portBufferServer1);
+
+			UUID uuid = UUID.randomUUID();
+			ZMsg reply = client.request(uuid);
+			assertThat(reply.popString(), is("OK"));
+			assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+			assertThat(reply.popString(), is(uuid.toString()));
+			assertThat(reply.popString(), is(toZmqString(uuid)));
+		} finally {
+			closeQuietly(bufferServer);
+			joinUninterruptibly(bufferServerThread);
+		}
+	}
+
+	@Test
+	public void requestForMissingUuidsShouldListThemAfterNotFound() {
+		final UUID missing = UUID.randomUUID();
+		final IBufferProvider provider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				return uuid.equals(missing) ? null : BUFFER_PROVIDER.apply(uuid);
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				BUFFER_PROVIDER.release(uuid, buffer);
+			}
+		};
+		final IServer bufferServer = new PullServer(portBufferServer1, provider);
+		final Thread bufferServerThread = new Thread(bufferServer, "buffer-server");
+		bufferServerThread.start();
+		try {
+			client.connect("tcp://localhost:" + portBufferServer1);
+
+			ZMsg notFound = client.request(missing);
+			assertThat(notFound.popString(), is("NOT_FOUND"));
+			assertThat(notFound.popString(), is(LocalHost.HOST_AND_IP));
+			assertThat(notFound.popString(), is(missing.toString()));
+			assertThat(notFound.isEmpty(), is(true));
+
+			UUID found = UUID.randomUUID();
+			ZMsg partial = client.request(Arrays.asList(missing, found));
+			assertThat(partial.popString(), is("OK"));
+			assertThat(partial.popString(), is(LocalHost.HOST_AND_IP));
+			assertThat(partial.popString(), is(found.toString()));
+			assertThat(partial.popString(), is(toZmqString(found)));
+			assertThat(partial.popString(), is("NOT_FOUND"));
+			assertThat(partial.popString(), is(missing.toString()));
+			assertThat(partial.isEmpty(), is(true));
+		} finally {
+			closeQuietly(bufferServer);
+			joinUninterruptibly(bufferServerThread);
+		}
+	}
+
+	@Test
+	public void sendRequestToServerWithAsyncProviderShouldReturnExpectedReply() {
+		final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+		final IServer asyncServer = new PullServer(portBufferServer1, Providers.async(BUFFER_PROVIDER, executor));
+		final Thread asyncServerThread = new Thread(asyncServer, "async-server");
+		asyncServerThread.start();
+		try {
+			client.connect("tcp://localhost:" + portBufferServer1);
+
+			for (int i = 0; i < 3; ++i) {
+				UUID uuid = UUID.randomUUID();
+				ZMsg reply = client.request(uuid);
+				assertThat(reply.popString(), is("OK"));
+				assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+				assertThat(reply.popString(), is(uuid.toString()));
+				assertThat(reply.popString(), is(toZmqString(uuid)));
+			}
+		} finally {
+			closeQuietly(asyncServer);
+			joinUninterruptibly(asyncServerThread);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void manyOutstandingRequestsShouldEachCompleteWithTheirOwnReply() {
+		final Client pipelinedClient = new Client(); // Real time: many replies in a row would otherwise expire requests.
+		threadSimpleServer1.start();
+		try {
+			pipelinedClient.connect("tcp://localhost:" + portSimpleServer1);
+
+			List<UUID> uuids = new ArrayList<UUID>();
+			List<ListenableFuture<ZMsg>> replies = new ArrayList<ListenableFuture<ZMsg>>();
+			for (int i = 0; i < 100; ++i) {
+				UUID uuid = UUID.randomUUID();
+				uuids.add(uuid);
+				replies.add(pipelinedClient.requestAsync(uuid));
+			}
+
+			for (int i = 0; i < uuids.size(); ++i) {
+				ZMsg reply = Futures.getUnchecked(replies.get(i));
+				assertThat(reply.popString(), is("OK"));
+				assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+				assertThat(reply.popString(), is(uuids.get(i).toString()));
+				assertThat(reply.popString(), is(toZmqString(uuids.get(i))));
+			}
+		} finally {
+			closeQuietly(pipelinedClient);
+		}
+	}
+
+	@Test
+	public void requestsBeyondWindowShouldWaitForRoomAndCompleteOutOfOrder() {
+		final Client pipelinedClient = new Client(ClientOptions.DEFAULT.withMaxRequestsInFlight(2));
+		final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+		final IServer asyncServer = new PullServer(portBufferServer1, Providers.async(BUFFER_PROVIDER, executor));
+		final Thread asyncServerThread = new Thread(asyncServer, "async-server");
+		asyncServerThread.start();
+		try {
+			pipelinedClient.connect("tcp://localhost:" + portBufferServer1);
+
+			List<UUID> uuids = new ArrayList<UUID>();
+			List<ListenableFuture<ZMsg>> replies = new ArrayList<ListenableFuture<ZMsg>>();
+			for (int i = 0; i < 20; ++i) {
+				UUID uuid = UUID.randomUUID();
+				uuids.add(uuid);
+				replies.add(pipelinedClient.requestAsync(Arrays.asList(uuid, uuid)));
+			}
+
+			for (int i = 0; i < uuids.size(); ++i) {
+				ZMsg reply = Futures.getUnchecked(replies.get(i));
+				assertThat(reply.popString(), is("OK"));
+				assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+				assertThat(reply.popString(), is(uuids.get(i).toString()));
+				assertThat(reply.popString(), is(toZmqString(uuids.get(i))));
+			}
+		} finally {
+			closeQuietly(pipelinedClient);
+			closeQuietly(asyncServer);
+			joinUninterruptibly(asyncServerThread);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void blockingLookupsShouldRunConcurrentlyInThreadPerRequestMode() {
+		final int concurrency = 16;
+		final CountDownLatch allBlocked = new CountDownLatch(concurrency);
+		final IBufferProvider blockingProvider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				allBlocked.countDown(); // Replies only if all lookups block at once.
+				Uninterruptibles.awaitUninterruptibly(allBlocked, 10, TimeUnit.SECONDS);
+				return BUFFER_PROVIDER.apply(uuid);
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				BUFFER_PROVIDER.release(uuid, buffer);
+			}
+		};
+
+		final Client pipelinedClient = new Client();
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		final IServer server = new PullServer(portBufferServer1, blockingProvider, executor);
+		final Thread serverThread = new Thread(server, "thread-per-request-server");
+		serverThread.start();
+		try {
+			pipelinedClient.connect("tcp://localhost:" + portBufferServer1);
+
+			List<ListenableFuture<ZMsg>> replies = new ArrayList<ListenableFuture<ZMsg>>();
+			for (int i = 0; i < concurrency; ++i)
+				replies.add(pipelinedClient.requestAsync(UUID.randomUUID()));
+
+			for (final ListenableFuture<ZMsg> reply : replies)
+				assertThat(Futures.getUnchecked(reply).popString(), is("OK"));
+			assertThat(allBlocked.getCount(), is(0L));
+		} finally {
+			closeQuietly(pipelinedClient);
+			closeQuietly(server);
+			joinUninterruptibly(serverThread);
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void requestRejectedByBusyServerShouldFailOverToNextServer() {
+		final Client realTimeClient = new Client();
+		final AdmissionControl noRoom = new AdmissionControl(0, 1);
+		final PullServer busyServer = new PullServer(portBufferServer1, BUFFER_PROVIDER, noRoom);
+		final Thread busyServerThread = new Thread(busyServer, "busy-server");
+		busyServerThread.start();
+		threadMultithreadedServer1.start();
+		try {
+			realTimeClient.connect("tcp://localhost:" + portBufferServer1);
+			realTimeClient.connect("tcp://localhost:" + portMultithreadedServer1);
+
+			UUID uuid = UUID.randomUUID();
+			ZMsg reply = realTimeClient.request(uuid);
+			assertThat(reply.popString(), is("OK"));
+			assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+			assertThat(reply.popString(), is(uuid.toString()));
+			assertThat(reply.popString(), is(toZmqString(uuid)));
+			assertThat(noRoom.rejected(), is(greaterThan(0L)));
+		} finally {
+			closeQuietly(realTimeClient);
+			closeQuietly(busyServer);
+			joinUninterruptibly(busyServerThread);
+		}
+	}
+
+	@Test
+	public void requestRejectedByBusyServerShouldFailOverToNextServerWhateverTheSelection() {
+		final Client hashingClient = new Client(ClientOptions.DEFAULT.withSelection(ServerSelection.CONSISTENT_HASH));
+		final AdmissionControl noRoom = new AdmissionControl(0, 1);
+		final PullServer busyServer = new PullServer(portBufferServer1, BUFFER_PROVIDER, noRoom);
+		final Thread busyServerThread = new Thread(busyServer, "busy-server");
+		busyServerThread.start();
+		threadMultithreadedServer1.start();
+		try {
+			hashingClient.connect("tcp://localhost:" + portBufferServer1);
+			hashingClient.connect("tcp://localhost:" + portMultithreadedServer1);
+
+			for (int i = 0; i < 10; ++i) { // Some of which hash to the busy server.
+				final UUID uuid = UUID.randomUUID();
+				final ZMsg reply = hashingClient.request(uuid);
+				assertThat(reply.popString(), is("OK"));
+				assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+				assertThat(reply.popString(), is(uuid.toString()));
+				assertThat(reply.popString(), is(toZmqString(uuid)));
+			}
+			assertThat(noRoom.rejected(), is(greaterThan(0L)));
+		} finally {
+			closeQuietly(hashingClient);
+			closeQuietly(busyServer);
+			joinUninterruptibly(busyServerThread);
+		}
+	}
+
+	@Test
+	public void requestToStalledServerShouldBeHedgedToNextServer() {
+		final CountDownLatch unstall = new CountDownLatch(1);
+		final IBufferProvider stalledProvider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				Uninterruptibles.awaitUninterruptibly(unstall, 10, TimeUnit.SECONDS);
+				return BUFFER_PROVIDER.apply(uuid);
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				BUFFER_PROVIDER.release(uuid, buffer);
+			}
+		};
+
+		final HedgingPolicy hedging = HedgingPolicy.after(new Duration(100, TimeUnit.MILLISECONDS), 1.0);
+		final Client hedgingClient = new Client(ClientOptions.DEFAULT.withHedging(hedging));
+		final IServer stalledServer = new PullServer(portBufferServer1, stalledProvider);
+		final Thread stalledServerThread = new Thread(stalledServer, "stalled-server");
+		stalledServerThread.start();
+		threadMultithreadedServer1.start();
+		try {
+			hedgingClient.connect("tcp://localhost:" + portBufferServer1);
+			hedgingClient.connect("tcp://localhost:" + portMultithreadedServer1);
+
+			UUID uuid = UUID.randomUUID();
+			ZMsg reply = hedgingClient.request(uuid);
+			assertThat(reply.popString(), is("OK"));
+			assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+			assertThat(reply.popString(), is(uuid.toString()));
+			assertThat(reply.popString(), is(toZmqString(uuid)));
+			assertThat(unstall.getCount(), is(1L)); // Replied to by the next server, while the first one still stalls.
+			assertThat(hedging.hedged(), is(1L));
+		} finally {
+			unstall.countDown();
+			closeQuietly(hedgingClient);
+			closeQuietly(stalledServer);
+			joinUninterruptibly(stalledServerThread);
+		}
+	}
+
+	@Test
+	public void roundRobinClientShouldSpreadRequestsOverServers() {
+		final AtomicInteger lookups = new AtomicInteger();
+		final IBufferProvider countingProvider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				lookups.incrementAndGet();
+				return BUFFER_PROVIDER.apply(uuid);
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				BUFFER_PROVIDER.release(uuid, buffer);
+			}
+		};
+
+		final Client roundRobinClient = new Client(ClientOptions.DEFAULT.withSelection(ServerSelection.ROUND_ROBIN));
+		final IServer countingServer = new PullServer(portBufferServer1, countingProvider);
+		final Thread countingServerThread = new Thread(countingServer, "counting-server");
+		countingServerThread.start();
+		threadSimpleServer1.start();
+		try {
+			roundRobinClient.connect("tcp://localhost:" + portBufferServer1);
+			roundRobinClient.connect("tcp://localhost:" + portSimpleServer1);
+
+			for (int i = 0; i < 10; ++i)
+				assertThat(roundRobinClient.request(UUID.randomUUID()).popString(), is("OK"));
+			assertThat(lookups.get(), is(5));
+		} finally {
+			closeQuietly(roundRobinClient);
+			closeQuietly(countingServer);
+			joinUninterruptibly(countingServerThread);
+		}
+	}
+
+	@Test
+	public void repeatedRequestsShouldBeRepliedToFromNearCache() {
+		final AtomicInteger lookups = new AtomicInteger();
+		final IBufferProvider countingProvider = new IBufferProvider() {
+			@Override
+			public ByteBuffer apply(final UUID uuid) {
+				lookups.incrementAndGet();
+				return BUFFER_PROVIDER.apply(uuid);
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				BUFFER_PROVIDER.release(uuid, buffer);
+			}
+		};
+
+		final NearCache nearCache = new NearCache(1024 * 1024, new Duration(1, TimeUnit.MINUTES));
+		final Client cachingClient = new Client(ClientOptions.DEFAULT.withNearCache(nearCache));
+		final IServer countingServer = new PullServer(portBufferServer1, countingProvider);
+		final Thread countingServerThread = new Thread(countingServer, "counting-server");
+		countingServerThread.start();
+		try {
+			cachingClient.connect("tcp://localhost:" + portBufferServer1);
+
+			UUID uuid = UUID.randomUUID();
+			for (int i = 0; i < 3; ++i) {
+				ZMsg reply = cachingClient.request(uuid);
+				assertThat(reply.popString(), is("OK"));
+				assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+				assertThat(reply.popString(), is(uuid.toString()));
+				assertThat(reply.popString(), is(toZmqString(uuid)));
+			}
+			assertThat(lookups.get(), is(1));
+			assertThat(nearCache.stats().hitCount(), is(2L));
+
+			nearCache.invalidate(uuid);
+			assertThat(cachingClient.request(uuid).popString(), is("OK"));
+			assertThat(lookups.get(), is(2));
+		} finally {
+			closeQuietly(cachingClient);
+			closeQuietly(countingServer);
+			joinUninterruptibly(countingServerThread);
+		}
+	}
+
+	@Test
+	public void clientSharingServerContextShouldRequestOverInproc() {
+		final TransportProfile inproc = TransportProfile.DEFAULT.withTransports(Transport.TCP, Transport.INPROC);
+		final PullServer colocatedServer = new PullServer(portBufferServer1, BUFFER_PROVIDER, new AdmissionControl(), inproc);
+		final Thread colocatedServerThread = new Thread(colocatedServer, "colocated-server");
+		colocatedServerThread.start();
+		final Client colocatedClient = new Client(colocatedServer.context(), ClientOptions.DEFAULT.withTransport(inproc));
+		try {
+			colocatedClient.connect("tcp://localhost:" + portBufferServer1);
+
+			UUID uuid = UUID.randomUUID();
+			ZMsg reply = colocatedClient.request(uuid);
+			assertThat(reply.popString(), is("OK"));
+			assertThat(reply.popString(), is(LocalHost.HOST_AND_IP));
+			assertThat(reply.popString(), is(uuid.toString()));
+			assertThat(reply.popString(), is(toZmqString(uuid)));
+		} finally {
+			closeQuietly(colocatedClient);
+			closeQuietly(colocatedServer);
+			joinUninterruptibly(colocatedServerThread);
+		}
+	}
+
+	@Test
+	public void streamFromResponsiveSimpleServerShouldReturnExpectedPayloadChunkByChunk() throws IOException {
+		threadSimpleServer1.start();
+		client.connect("tcp://localhost:" + portSimpleServer1);
+
+		UUID uuid = UUID.randomUUID();
+		InputStream stream = client.stream(uuid, 5, 2);
+		try {
+			assertThat(IOUtils.toByteArray(stream), is(PROVIDER.apply(uuid)));
+		} finally {
+			stream.close();
+		}
+
+		// Client is ready for further requests once the stream is consumed:
+		ZMsg reply = client.request(uuid);
+		assertThat(reply.popString(), is("OK"));
+	}
+
+	@Test
+	public void closingStreamBeforeItsEndShouldCancelTransfer() throws IOException {
+		threadSimpleServer1.start();
+		client.connect("tcp://localhost:" + portSimpleServer1);
+
+		UUID uuid = UUID.randomUUID();
+		InputStream stream = client.stream(uuid, 4, 2);
+		assertThat(stream.read(), is(PROVIDER.apply(uuid)[0] & 0xFF));
+		stream.close();
+		assertThat(stream.read(), is(-1));
+
+		ZMsg reply = client.request(uuid);
+		assertThat(reply.popString(), is("OK"));
+	}
+
 	@Test
 	@Ignore("Issues with running the multithreaded server in a background thread.")
 	public void sendRequestToResponsiveMulithreadedServerShouldReturnExpectedReply() {
@@ -0,0 +1,91 @@
+package com.carmatech.zeromq.client.pull;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.carmatech.zeromq.utilities.MillisecondsTicker;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.testing.FakeTicker;
+
+public class ConsistentHashRingTest {
+	private static final int KEYS = 10_000;
+
+	private final MillisecondsTicker ticker = new MillisecondsTicker(new FakeTicker());
+	private final ServerProxy server1 = new ServerProxy("tcp://server1:1337", 2_000, 6_000, ticker);
+	private final ServerProxy server2 = new ServerProxy("tcp://server2:1337", 2_000, 6_000, ticker);
+	private final ServerProxy server3 = new ServerProxy("tcp://server3:1337", 2_000, 6_000, ticker);
+	private final List<ServerProxy> servers = Arrays.asList(server1, server2, server3);
+
+	private final ConsistentHashRing ring = new ConsistentHashRing(ConsistentHashRing.DEFAULT_VIRTUAL_NODES, ConsistentHashRing.DEFAULT_LOAD_FACTOR);
+
+	@Test
+	public void sameUuidShouldAlwaysGoToSameServerWhateverTheOrderOfServers() {
+		UUID uuid = UUID.randomUUID();
+		ServerProxy server = ring.select(servers, uuid);
+
+		assertThat(ring.select(servers, uuid), is(sameInstance(server)));
+		assertThat(ring.select(Arrays.asList(server3, server1, server2), uuid), is(sameInstance(server)));
+	}
+
+	@Test
+	public void uuidsShouldSpreadEvenlyOverServers() {
+		Multiset<ServerProxy> selected = HashMultiset.create();
+		for (int i = 0; i < KEYS; ++i)
+			selected.add(ring.select(servers, UUID.randomUUID()));
+
+		for (final ServerProxy server : servers) {
+			assertThat(selected.count(server), is(greaterThan(KEYS / 5)));
+			assertThat(selected.count(server), is(lessThan(KEYS / 2)));
+		}
+	}
+
+	@Test
+	public void onlyUnresponsiveServersUuidsShouldMoveAndComeBackOnceResponsive() {
+		List<UUID> uuids = new ArrayList<UUID>();
+		List<ServerProxy> before = new ArrayList<ServerProxy>();
+		for (int i = 0; i < 1_000; ++i) {
+			UUID uuid = UUID.randomUUID();
+			uuids.add(uuid);
+			before.add(ring.select(servers, uuid));
+		}
+
+		List<ServerProxy> withoutServer2 = Arrays.asList(server1, server3);
+		for (int i = 0; i < uuids.size(); ++i) {
+			ServerProxy after = ring.select(withoutServer2, uuids.get(i));
+			if (before.get(i) == server2)
+				assertThat(after, is(not(sameInstance(server2))));
+			else
+				assertThat(after, is(sameInstance(before.get(i))));
+		}
+
+		for (int i = 0; i < uuids.size(); ++i)
+			assertThat(ring.select(servers, uuids.get(i)), is(sameInstance(before.get(i))));
+	}
+
+	@Test
+	public void uuidsOfOverloadedServerShouldSpillOverToNextServers() {
+		UUID uuid = UUID.randomUUID();
+		ServerProxy server = ring.select(servers, uuid);
+		for (int i = 0; i < 10; ++i)
+			server.sent(); // Average is 10 / 3: capacity is 5.
+
+		assertThat(ring.select(servers, uuid), is(not(sameInstance(server))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void loadFactorOfOneShouldThrowIllegalArgumentException() {
+		new ConsistentHashRing(ConsistentHashRing.DEFAULT_VIRTUAL_NODES, 1.0);
+	}
+}
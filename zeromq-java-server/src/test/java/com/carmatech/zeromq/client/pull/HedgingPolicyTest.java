@@ -0,0 +1,86 @@
+package com.carmatech.zeromq.client.pull;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.carmatech.zeromq.utilities.Duration;
+
+public class HedgingPolicyTest {
+	private static final Duration MIN_THRESHOLD = new Duration(10, TimeUnit.MILLISECONDS);
+
+	@Test
+	public void noneShouldNeverHedge() {
+		HedgingPolicy none = HedgingPolicy.NONE;
+		for (int i = 0; i < 10; ++i)
+			none.sent();
+
+		assertThat(none.isEnabled(), is(false));
+		assertThat(none.thresholdInMillis(), is(Long.MAX_VALUE));
+		assertThat(none.tryHedge(), is(false));
+	}
+
+	@Test
+	public void fixedThresholdShouldIgnoreObservedLatencies() {
+		HedgingPolicy hedging = HedgingPolicy.after(new Duration(50, TimeUnit.MILLISECONDS), 0.1);
+		for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; ++i)
+			hedging.replied(1_000L);
+
+		assertThat(hedging.thresholdInMillis(), is(50L));
+	}
+
+	@Test
+	public void percentileThresholdShouldFollowObservedLatenciesOnceEnoughAreRecorded() {
+		HedgingPolicy hedging = HedgingPolicy.atPercentile(0.95, MIN_THRESHOLD, 0.1);
+		for (int i = 1; i < HedgingPolicy.MIN_SAMPLES; ++i)
+			hedging.replied(i);
+		assertThat(hedging.thresholdInMillis(), is(10L)); // Not enough samples yet.
+
+		hedging.replied(100L);
+		assertThat(hedging.thresholdInMillis(), is(95L)); // Within the histogram's precision.
+	}
+
+	@Test
+	public void percentileThresholdShouldNeverBeBelowMinimumThreshold() {
+		HedgingPolicy hedging = HedgingPolicy.atPercentile(0.95, MIN_THRESHOLD, 0.1);
+		for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; ++i)
+			hedging.replied(1L);
+
+		assertThat(hedging.thresholdInMillis(), is(10L));
+	}
+
+	@Test
+	public void hedgesShouldBeCappedToFractionOfRequests() {
+		HedgingPolicy hedging = HedgingPolicy.after(MIN_THRESHOLD, 0.25);
+		int hedges = 0;
+		for (int i = 0; i < 100; ++i) {
+			hedging.sent();
+			if (hedging.tryHedge())
+				++hedges;
+		}
+
+		assertThat(hedges, is(25));
+		assertThat(hedging.hedged(), is(25L));
+		assertThat(hedging.requests(), is(100L));
+	}
+
+	@Test
+	public void unusedHedgesShouldOnlyBeSavedUpToSmallBurst() {
+		HedgingPolicy hedging = HedgingPolicy.after(MIN_THRESHOLD, 1.0);
+		for (int i = 0; i < 1_000; ++i)
+			hedging.sent();
+
+		int hedges = 0;
+		while (hedging.tryHedge())
+			++hedges;
+		assertThat(hedges, is(10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fractionAboveOneShouldThrowIllegalArgumentException() {
+		HedgingPolicy.after(MIN_THRESHOLD, 1.5);
+	}
+}
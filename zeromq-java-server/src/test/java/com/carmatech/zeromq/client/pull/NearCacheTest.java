@@ -0,0 +1,154 @@
+package com.carmatech.zeromq.client.pull;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.testing.FakeTicker;
+
+public class NearCacheTest {
+	private static final String SOURCE = "source";
+	private static final Duration TTL = new Duration(5, TimeUnit.SECONDS);
+
+	@Rule
+	public final ExpectedException exception = ExpectedException.none();
+
+	private final FakeTicker ticker = new FakeTicker();
+	private final NearCache cache = new NearCache(1024, TTL, ticker);
+
+	@Test
+	public void payloadsRepliedWithShouldBeRepliedToLocally() {
+		UUID uuid1 = UUID.randomUUID();
+		UUID uuid2 = UUID.randomUUID();
+		cache.filler(cache.invalidations()).apply(reply(uuid1, "payload 1", uuid2, "payload 2"));
+
+		ZMsg reply = cache.reply(Arrays.asList(uuid2, uuid1), SOURCE);
+		assertThat(reply.popString(), is("OK"));
+		assertThat(reply.popString(), is(SOURCE));
+		assertThat(reply.popString(), is(uuid2.toString()));
+		assertThat(reply.popString(), is("payload 2"));
+		assertThat(reply.popString(), is(uuid1.toString()));
+		assertThat(reply.popString(), is("payload 1"));
+	}
+
+	@Test
+	public void requestsNotFullyCachedShouldGoToServers() {
+		UUID uuid = UUID.randomUUID();
+		cache.filler(cache.invalidations()).apply(reply(uuid, "payload"));
+
+		assertThat(cache.reply(Arrays.asList(uuid, UUID.randomUUID()), SOURCE), is(nullValue()));
+	}
+
+	@Test
+	public void notFoundUuidsShouldNotBeCached() {
+		UUID found = UUID.randomUUID();
+		UUID missing = UUID.randomUUID();
+		ZMsg reply = reply(found, "payload");
+		reply.add("NOT_FOUND");
+		reply.add(missing.toString());
+		cache.filler(cache.invalidations()).apply(reply);
+
+		assertThat(cache.size(), is(1L));
+		assertThat(cache.reply(Collections.singletonList(missing), SOURCE), is(nullValue()));
+	}
+
+	@Test
+	public void fillingShouldNotConsumeReply() {
+		ZMsg reply = reply(UUID.randomUUID(), "payload");
+
+		assertThat(cache.filler(cache.invalidations()).apply(reply).size(), is(4));
+	}
+
+	@Test
+	public void refreshShouldReplaceCachedPayloadsOnly() {
+		UUID cached = UUID.randomUUID();
+		UUID notCached = UUID.randomUUID();
+		cache.filler(cache.invalidations()).apply(reply(cached, "old"));
+
+		cache.refresh(cached, "new".getBytes());
+		cache.refresh(notCached, "new".getBytes());
+
+		ZMsg reply = cache.reply(Collections.singletonList(cached), SOURCE);
+		assertThat(reply.getLast().toString(), is("new"));
+		assertThat(cache.size(), is(1L));
+	}
+
+	@Test
+	public void invalidatedPayloadsShouldGoToServers() {
+		UUID uuid = UUID.randomUUID();
+		cache.filler(cache.invalidations()).apply(reply(uuid, "payload"));
+		cache.invalidate(uuid);
+
+		assertThat(cache.reply(Collections.singletonList(uuid), SOURCE), is(nullValue()));
+	}
+
+	@Test
+	public void repliesToRequestsSentBeforeInvalidationShouldNotBeCached() {
+		UUID uuid = UUID.randomUUID();
+		long invalidationsAtRequest = cache.invalidations();
+		cache.invalidate(uuid); // E.g. published while the request was in flight.
+		cache.filler(invalidationsAtRequest).apply(reply(uuid, "stale"));
+
+		assertThat(cache.reply(Collections.singletonList(uuid), SOURCE), is(nullValue()));
+	}
+
+	@Test
+	public void repliesRacingWithRefreshShouldNotBeCached() {
+		final UUID uuid = UUID.randomUUID();
+		ZMsg reply = reply(uuid);
+		reply.add(new ZFrame("stale") {
+			@Override
+			public byte[] getData() {
+				cache.refresh(uuid, "new".getBytes()); // Published while filling: nothing cached yet to replace.
+				return super.getData();
+			}
+		});
+		cache.filler(cache.invalidations()).apply(reply);
+
+		assertThat(cache.reply(Collections.singletonList(uuid), SOURCE), is(nullValue()));
+	}
+
+	@Test
+	public void refreshWithNullPayloadShouldThrowNullPointerException() {
+		exception.expect(NullPointerException.class);
+		cache.refresh(UUID.randomUUID(), null);
+	}
+
+	@Test
+	public void payloadsShouldExpireAfterTtl() {
+		UUID uuid = UUID.randomUUID();
+		cache.filler(cache.invalidations()).apply(reply(uuid, "payload"));
+
+		ticker.advance(5, TimeUnit.SECONDS);
+		assertThat(cache.reply(Collections.singletonList(uuid), SOURCE), is(nullValue()));
+	}
+
+	@Test
+	public void noneShouldNeverReply() {
+		UUID uuid = UUID.randomUUID();
+		NearCache.NONE.filler(NearCache.NONE.invalidations()).apply(reply(uuid, "payload"));
+
+		assertThat(NearCache.NONE.reply(Collections.singletonList(uuid), SOURCE), is(nullValue()));
+	}
+
+	private static ZMsg reply(final Object... uuidsAndPayloads) {
+		ZMsg reply = new ZMsg();
+		reply.add("OK");
+		reply.add(SOURCE);
+		for (final Object frame : uuidsAndPayloads)
+			reply.add(frame.toString());
+		return reply;
+	}
+}
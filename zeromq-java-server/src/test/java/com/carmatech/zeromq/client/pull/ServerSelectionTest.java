@@ -0,0 +1,118 @@
+package com.carmatech.zeromq.client.pull;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.carmatech.zeromq.utilities.MillisecondsTicker;
+import com.google.common.testing.FakeTicker;
+
+public class ServerSelectionTest {
+	private static final UUID KEY = UUID.randomUUID();
+
+	private final MillisecondsTicker ticker = new MillisecondsTicker(new FakeTicker());
+	private final ServerProxy server1 = new ServerProxy("tcp://server1:1337", 2_000, 6_000, ticker);
+	private final ServerProxy server2 = new ServerProxy("tcp://server2:1337", 2_000, 6_000, ticker);
+	private final ServerProxy server3 = new ServerProxy("tcp://server3:1337", 2_000, 6_000, ticker);
+	private final List<ServerProxy> servers = Arrays.asList(server1, server2, server3);
+
+	@Test
+	public void firstActiveShouldAlwaysSelectFirstServer() {
+		IServerSelector selector = ServerSelection.FIRST_ACTIVE.newSelector();
+		server1.sent();
+
+		assertThat(selector.select(servers, KEY), is(sameInstance(server1)));
+		assertThat(selector.select(servers, KEY), is(sameInstance(server1)));
+	}
+
+	@Test
+	public void roundRobinShouldSelectEachServerInTurn() {
+		IServerSelector selector = ServerSelection.ROUND_ROBIN.newSelector();
+		ServerProxy first = selector.select(servers, KEY);
+		ServerProxy second = selector.select(servers, KEY);
+		ServerProxy third = selector.select(servers, KEY);
+
+		assertThat(servers.containsAll(Arrays.asList(first, second, third)) && first != second && second != third && first != third, is(true));
+		assertThat(selector.select(servers, KEY), is(sameInstance(first)));
+	}
+
+	@Test
+	public void leastOutstandingShouldSelectServerWithFewestRequestsInFlight() {
+		IServerSelector selector = ServerSelection.LEAST_OUTSTANDING.newSelector();
+		server1.sent();
+		server2.sent();
+		server2.sent();
+
+		assertThat(selector.select(servers, KEY), is(sameInstance(server3)));
+		server3.sent();
+		server3.sent();
+		assertThat(selector.select(servers, KEY), is(sameInstance(server1)));
+	}
+
+	@Test
+	public void ewmaLatencyShouldSteerAwayFromSlowServers() {
+		IServerSelector selector = ServerSelection.EWMA_LATENCY.newSelector();
+		complete(server1, 500L);
+		complete(server2, 10L);
+		complete(server3, 1_000L);
+
+		assertThat(selector.select(servers, KEY), is(sameInstance(server2)));
+	}
+
+	@Test
+	public void ewmaLatencyShouldWeighLatencyByRequestsInFlight() {
+		IServerSelector selector = ServerSelection.EWMA_LATENCY.newSelector();
+		complete(server1, 20L);
+		complete(server2, 10L);
+		complete(server3, 1_000L);
+		for (int i = 0; i < 4; ++i)
+			server2.sent();
+
+		assertThat(selector.select(servers, KEY), is(sameInstance(server1)));
+	}
+
+	@Test
+	public void powerOfTwoChoicesShouldSelectCheaperOfTwoServers() {
+		IServerSelector selector = ServerSelection.POWER_OF_TWO_CHOICES.newSelector();
+		List<ServerProxy> twoServers = Arrays.asList(server1, server2);
+		complete(server1, 1_000L);
+		complete(server2, 10L);
+
+		for (int i = 0; i < 10; ++i)
+			assertThat(selector.select(twoServers, KEY), is(sameInstance(server2)));
+	}
+
+	@Test
+	public void powerOfTwoChoicesShouldNeverSelectMostExpensiveServerOfThree() {
+		IServerSelector selector = ServerSelection.POWER_OF_TWO_CHOICES.newSelector();
+		complete(server1, 10L);
+		complete(server2, 20L);
+		complete(server3, 1_000L);
+
+		for (int i = 0; i < 100; ++i)
+			assertThat(selector.select(servers, KEY) == server3, is(false));
+	}
+
+	@Test
+	public void completedRequestsShouldNoLongerBeInFlight() {
+		server1.sent();
+		server1.sent();
+		server1.completed(100L);
+
+		assertThat(server1.inFlight(), is(1));
+		assertThat(server1.latencyInMillis(), is(20.0));
+	}
+
+	private static void complete(final ServerProxy server, final long latencyInMillis) {
+		for (int i = 0; i < 50; ++i) {
+			server.sent();
+			server.completed(latencyInMillis);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.carmatech.zeromq.server;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IBufferProvider;
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class ServerMetricsTest {
+	private static final long PAYLOAD_SIZE = BUFFER_PROVIDER.apply(UUID.randomUUID()).remaining();
+
+	private final IProtocol protocol = new Protocol("tcp://localhost:1337");
+	private final ServerMetrics metrics = new ServerMetrics();
+
+	@Test
+	public void receivedMessagesShouldBeCountedPerCommand() {
+		metrics.received(protocol.ping("client"));
+		metrics.received(protocol.ping("client"));
+		metrics.received(protocol.request("client", UUID.randomUUID(), 1L, Codec.BINARY));
+		metrics.received(new ZMsg());
+
+		assertThat(metrics.getReceived(), hasEntry("PING", 2L));
+		assertThat(metrics.getReceived(), hasEntry("REQUEST", 1L));
+		assertThat(metrics.getReceived(), hasEntry("UNKNOWN", 1L));
+		assertThat(metrics.getReceived().size(), is(3));
+	}
+
+	@Test
+	public void instrumentedProviderShouldRecordLookupsAndPayloadSizes() {
+		IBufferProvider provider = metrics.instrument(BUFFER_PROVIDER);
+		provider.apply(UUID.randomUUID());
+		provider.apply(UUID.randomUUID());
+
+		assertThat(metrics.getProviderNanos(), hasEntry("count", 2L));
+		assertThat(metrics.getPayloadBytes(), hasEntry("count", 2L));
+		assertThat(metrics.getPayloadBytes(), hasEntry("max", PAYLOAD_SIZE));
+	}
+
+	@Test
+	public void queuedProviderShouldRecordQueueWaitOncePerLookup() {
+		ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+		try {
+			IAsyncProvider provider = metrics.queued(metrics.instrument(BUFFER_PROVIDER), executor);
+			ByteBuffer payload = Futures.getUnchecked(provider.apply(UUID.randomUUID()));
+
+			assertThat((long) payload.remaining(), is(PAYLOAD_SIZE));
+			assertThat(metrics.getQueueWaitNanos(), hasEntry("count", 1L));
+			assertThat(metrics.getProviderNanos(), hasEntry("count", 1L));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void snapshotShouldFlattenAllMetrics() {
+		metrics.received(protocol.ping("client"));
+		metrics.payload(42);
+
+		assertThat(metrics.snapshot(), hasEntry("received.PING", 1L));
+		assertThat(metrics.snapshot(), hasEntry("payloadBytes.p50", 42L));
+		assertThat(metrics.snapshot(), hasEntry("queueWaitNanos.count", 0L));
+	}
+
+	@Test
+	public void registeredMetricsShouldBeReadableThroughJmx() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.carmatech.zeromq:type=ServerMetricsTest,port=1337");
+		metrics.received(protocol.ping("client"));
+
+		metrics.register("ServerMetricsTest", 1337);
+		try {
+			TabularData received = (TabularData) server.getAttribute(name, "Received");
+			assertThat(received.size(), is(1));
+		} finally {
+			metrics.unregister();
+		}
+		assertThat(server.isRegistered(name), is(false));
+	}
+}
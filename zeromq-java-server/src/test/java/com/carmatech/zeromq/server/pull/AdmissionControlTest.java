@@ -0,0 +1,62 @@
+package com.carmatech.zeromq.server.pull;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.BUFFER_PROVIDER;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.IBufferProvider;
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+
+public class AdmissionControlTest {
+	private static final int PAYLOAD_SIZE = BUFFER_PROVIDER.apply(UUID.randomUUID()).remaining();
+
+	private final IProtocol protocol = new Protocol("tcp://localhost:1337");
+	private final AdmissionControl admission = new AdmissionControl(2, 2 * PAYLOAD_SIZE);
+	private final IBufferProvider provider = admission.meter(BUFFER_PROVIDER);
+
+	@Test
+	public void requestsShouldBeAdmittedUpToMaxQueueDepth() {
+		assertThat(admission.admit(request(), 1), is(true));
+		assertThat(admission.admit(request(), 2), is(false));
+		assertThat(admission.rejected(), is(1L));
+	}
+
+	@Test
+	public void requestsShouldBeRejectedWhileTooManyBytesAreInFlight() {
+		UUID uuid = UUID.randomUUID();
+		ByteBuffer payload1 = provider.apply(uuid);
+		ByteBuffer payload2 = provider.apply(uuid); // Same UUID, counted once per request.
+		assertThat(admission.bytesInFlight(), is(2L * PAYLOAD_SIZE));
+		assertThat(admission.admit(request(), 0), is(false));
+
+		provider.release(uuid, payload1);
+		assertThat(admission.bytesInFlight(), is((long) PAYLOAD_SIZE));
+		assertThat(admission.admit(request(), 0), is(true));
+
+		provider.release(uuid, payload2);
+		provider.release(uuid, payload2); // Released twice: only counted once.
+		assertThat(admission.bytesInFlight(), is(0L));
+	}
+
+	@Test
+	public void pingShouldBeAdmittedWhateverTheBudget() {
+		ZMsg ping = protocol.ping("client");
+		assertThat(admission.admit(ping, Integer.MAX_VALUE), is(true));
+		assertThat(admission.rejected(), is(0L));
+	}
+
+	/**
+	 * @return a request as received by the server, the client's identity in place of the destination.
+	 */
+	private ZMsg request() {
+		return protocol.request("client", UUID.randomUUID(), 1L, Codec.BINARY);
+	}
+}
@@ -0,0 +1,162 @@
+package com.carmatech.zeromq.server.pull;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.PROVIDER;
+import static com.google.common.util.concurrent.Uninterruptibles.joinUninterruptibly;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.Command;
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+import com.carmatech.zeromq.server.ServerMetrics;
+
+public class LoadBalancingBrokerTest {
+	private static final int TIMEOUT_IN_MILLIS = 5_000;
+
+	private final ZContext context = new ZContext();
+	private final String frontendEndpoint = "inproc://broker-frontend-" + hashCode();
+	private final String backendEndpoint = "inproc://broker-backend-" + hashCode();
+
+	private final Socket frontend = context.createSocket(ZMQ.ROUTER);
+	private final Socket backend = context.createSocket(ZMQ.ROUTER);
+	private final IProtocol protocol = new Protocol("tcp://localhost:1337");
+	private final AdmissionControl admission = new AdmissionControl(1, Long.MAX_VALUE);
+	private final ServerMetrics metrics = new ServerMetrics();
+	private final LoadBalancingBroker broker = new LoadBalancingBroker(frontend, backend, protocol, admission, metrics, new ReplyCache(), context);
+	private final Thread brokerThread = new Thread(broker, "broker");
+
+	private final Socket client = context.createSocket(ZMQ.DEALER);
+	private final Socket worker1 = context.createSocket(ZMQ.DEALER);
+	private final Socket worker2 = context.createSocket(ZMQ.DEALER);
+
+	@Before
+	public void setUp() {
+		frontend.bind(frontendEndpoint);
+		backend.bind(backendEndpoint);
+		brokerThread.start();
+
+		for (final Socket socket : new Socket[] { client, worker1, worker2 })
+			socket.setReceiveTimeOut(TIMEOUT_IN_MILLIS);
+		client.connect(frontendEndpoint);
+		worker1.connect(backendEndpoint);
+		worker2.connect(backendEndpoint);
+	}
+
+	@After
+	public void tearDown() {
+		broker.stop(); // It closes its sockets before it stops, rather than them being closed from this thread.
+		joinUninterruptibly(brokerThread);
+		context.destroy();
+	}
+
+	@Test
+	public void stoppedBrokerShouldStopItsWorkers() {
+		LoadBalancingBroker.ready(worker1, 1);
+		LoadBalancingBroker.ready(worker2, 2);
+		broker.stop();
+
+		assertThat(LoadBalancingBroker.isStop(ZMsg.recvMsg(worker1)), is(true));
+		assertThat(LoadBalancingBroker.isStop(ZMsg.recvMsg(worker2)), is(true));
+	}
+
+	@Test
+	public void requestsShouldOnlyGoToIdleWorkers() {
+		LoadBalancingBroker.ready(worker1, 1);
+		client.send("A");
+		ZMsg requestA = ZMsg.recvMsg(worker1);
+		assertThat(requestA.getLast().toString(), is("A"));
+
+		LoadBalancingBroker.ready(worker2, 1);
+		client.send("B"); // Worker 1 is still busy with A.
+		ZMsg requestB = ZMsg.recvMsg(worker2);
+		assertThat(requestB.getLast().toString(), is("B"));
+
+		client.send("C"); // Both workers are busy: C waits at the broker...
+		requestB.getLast().reset("reply to B");
+		requestB.send(worker2); // ...until worker 2 replies.
+		assertThat(client.recvStr(), is("reply to B"));
+		assertThat(ZMsg.recvMsg(worker2).getLast().toString(), is("C"));
+
+		assertThat(worker1.recv(ZMQ.DONTWAIT), is(nullValue()));
+	}
+
+	@Test
+	public void requestBeyondQueueDepthShouldBeRejectedRightAwayAsBusy() {
+		UUID uuid = UUID.randomUUID();
+		send(protocol.request("server", uuid, 1L, Codec.BINARY)); // No worker: waits at the broker.
+		send(protocol.request("server", uuid, 2L, Codec.BINARY)); // Beyond queue depth of 1.
+
+		ZMsg error = ZMsg.recvMsg(client);
+		assertThat(error.pop().getData(), is(new byte[] { Command.ERROR.opcode() }));
+		assertThat(error.popString(), is("tcp://localhost:1337"));
+		assertThat(Codec.BINARY.decodeSequenceNumber(error.pop()), is(2L));
+		assertThat(error.popString(), is(Protocol.BUSY));
+		assertThat(admission.rejected(), is(1L));
+
+		LoadBalancingBroker.ready(worker1, 1);
+		ZMsg request = ZMsg.recvMsg(worker1); // Queued request is still served.
+		assertThat(protocol.reply(request, PROVIDER).peekLast().getData(), is(PROVIDER.apply(uuid)));
+	}
+
+	@Test
+	public void pingShouldBeAnsweredByBrokerWhileWorkersAreBusy() {
+		send(protocol.request("server", UUID.randomUUID(), 1L, Codec.BINARY)); // No worker: waits at the broker, queue is full.
+		send(protocol.ping("server"));
+
+		ZMsg pong = ZMsg.recvMsg(client);
+		assertThat(pong.popString(), is("PONG"));
+		assertThat(pong.popString(), is("tcp://localhost:1337"));
+		assertThat(admission.rejected(), is(0L));
+
+		LoadBalancingBroker.ready(worker1, 2);
+		ZMsg.recvMsg(worker1); // Only the request reaches workers.
+		assertThat(worker1.recv(ZMQ.DONTWAIT), is(nullValue()));
+	}
+
+	@Test
+	public void statsShouldBeAnsweredByBrokerWithMetricsAndAdmission() {
+		send(protocol.ping("server"));
+		ZMsg.recvMsg(client).destroy();
+		send(protocol.stats("server"));
+
+		ZMsg stats = ZMsg.recvMsg(client);
+		assertThat(stats.popString(), is("STATS"));
+		assertThat(stats.popString(), is("tcp://localhost:1337"));
+		assertThat(stats.popString(), is("received.PING"));
+		assertThat(stats.popString(), is("1"));
+		assertThat(stats.popString(), is("received.STATS"));
+		assertThat(stats.popString(), is("1"));
+		assertThat(stats.popString(), is("sent.PONG"));
+		assertThat(stats.popString(), is("1"));
+		assertThat(stats.peekLast().toString(), is("0")); // admission.bytesInFlight
+	}
+
+	/**
+	 * Send the request as a client's ROUTER socket would, without the destination frame used for routing.
+	 */
+	private void send(final ZMsg request) {
+		request.pop().destroy();
+		request.send(client);
+	}
+
+	@Test
+	public void workerWithSeveralSlotsShouldTakeAsManyRequestsAtOnce() {
+		LoadBalancingBroker.ready(worker1, 2);
+		client.send("A");
+		client.send("B");
+		assertThat(ZMsg.recvMsg(worker1).getLast().toString(), is("A"));
+		assertThat(ZMsg.recvMsg(worker1).getLast().toString(), is("B"));
+	}
+}
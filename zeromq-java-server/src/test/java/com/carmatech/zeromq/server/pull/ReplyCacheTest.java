@@ -0,0 +1,153 @@
+package com.carmatech.zeromq.server.pull;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.PROVIDER;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.IAsyncProvider;
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Function;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class ReplyCacheTest {
+	private static final String CLIENT = "client";
+	private static final int MAX_ENTRY_BYTES = 1024;
+	private static final Duration TTL = new Duration(10, TimeUnit.SECONDS);
+
+	private final IProtocol protocol = new Protocol("tcp://localhost:1337");
+	private final FakeTicker ticker = new FakeTicker();
+	private final ReplyCache cache = new ReplyCache(1024 * 1024, MAX_ENTRY_BYTES, TTL, ticker);
+
+	@Test
+	public void newRequestShouldNotBeDuplicate() {
+		assertThat(cache.duplicateOf(request(UUID.randomUUID(), 42L)), is(nullValue()));
+	}
+
+	@Test
+	public void duplicateOfRequestInFlightShouldBeDropped() {
+		UUID uuid = UUID.randomUUID();
+		cache.duplicateOf(request(uuid, 42L));
+
+		assertThat(cache.duplicateOf(request(uuid, 42L)).isEmpty(), is(true));
+		assertThat(cache.dropped(), is(1L));
+		assertThat(cache.replayed(), is(0L));
+	}
+
+	@Test
+	public void duplicateOfRequestRepliedToShouldBeRepliedToWithCopyOfReply() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg request = request(uuid, 42L);
+		cache.duplicateOf(request);
+		ZMsg reply = protocol.reply(request, PROVIDER);
+		cache.replied(reply);
+
+		ZMsg replayed = cache.duplicateOf(request(uuid, 42L));
+		assertThat(replayed, is(notNullValue()));
+		assertThat(replayed.toString(), is(reply.toString()));
+		assertThat(cache.replayed(), is(1L));
+
+		replayed.destroy(); // The cached reply is NOT affected.
+		assertThat(cache.duplicateOf(request(uuid, 42L)).toString(), is(reply.toString()));
+	}
+
+	@Test
+	public void requestsFromOtherClientsOrWithOtherSequenceNumbersShouldNotBeDuplicates() {
+		UUID uuid = UUID.randomUUID();
+		cache.duplicateOf(request(uuid, 42L));
+
+		assertThat(cache.duplicateOf(request(uuid, 43L)), is(nullValue()));
+		assertThat(cache.duplicateOf(protocol.request("other client", uuid, 42L, Codec.BINARY)), is(nullValue()));
+	}
+
+	@Test
+	public void repliesOverMaximumEntrySizeShouldNotBeCachedNorCopied() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg request = request(uuid, 42L);
+		cache.duplicateOf(request);
+		ZMsg reply = protocol.reply(request, new Function<UUID, byte[]>() {
+			@Override
+			public byte[] apply(final UUID uuid) {
+				return new byte[MAX_ENTRY_BYTES + 1];
+			}
+		});
+		cache.replied(reply);
+
+		assertThat(cache.duplicateOf(request(uuid, 42L)), is(nullValue())); // Replied to again, rather than dropped.
+	}
+
+	@Test
+	public void errorsShouldNotBeCached() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg request = request(uuid, 42L);
+		cache.duplicateOf(request);
+		cache.replied(protocol.error(request, Protocol.BUSY));
+
+		assertThat(cache.duplicateOf(request(uuid, 42L)), is(nullValue()));
+	}
+
+	@Test
+	public void requestWhoseAsyncLookupFailedShouldNotBeInFlightAnymore() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg request = request(uuid, 42L);
+		cache.duplicateOf(request);
+		cache.replied(Futures.getUnchecked(protocol.reply(request, new IAsyncProvider() {
+			@Override
+			public ListenableFuture<ByteBuffer> apply(final UUID uuid) {
+				return Futures.immediateFailedFuture(new IllegalStateException("Store is down."));
+			}
+
+			@Override
+			public void release(final UUID uuid, final ByteBuffer buffer) {
+				// No-op.
+			}
+		})));
+
+		assertThat(cache.duplicateOf(request(uuid, 42L)), is(nullValue())); // Replied to again, rather than dropped.
+	}
+
+	@Test
+	public void multiRequestsShouldBeDeduplicatedToo() {
+		ZMsg request = protocol.request(CLIENT, Arrays.asList(UUID.randomUUID(), UUID.randomUUID()), 42L, Codec.STRING);
+		cache.duplicateOf(request.duplicate());
+
+		assertThat(cache.duplicateOf(request).isEmpty(), is(true));
+	}
+
+	@Test
+	public void requestsWithoutSequenceNumberShouldNeverBeDuplicates() {
+		UUID uuid = UUID.randomUUID();
+		cache.duplicateOf(protocol.request(CLIENT, uuid));
+
+		assertThat(cache.duplicateOf(protocol.request(CLIENT, uuid)), is(nullValue()));
+	}
+
+	@Test
+	public void repliesShouldExpireAfterTtl() {
+		UUID uuid = UUID.randomUUID();
+		ZMsg request = request(uuid, 42L);
+		cache.duplicateOf(request);
+		cache.replied(protocol.reply(request, PROVIDER));
+
+		ticker.advance(10, TimeUnit.SECONDS);
+		assertThat(cache.duplicateOf(request(uuid, 42L)), is(nullValue()));
+	}
+
+	private ZMsg request(final UUID uuid, final long sequenceNumber) {
+		return protocol.request(CLIENT, uuid, sequenceNumber, Codec.BINARY);
+	}
+}
@@ -0,0 +1,142 @@
+package com.carmatech.zeromq.store;
+
+import static com.carmatech.zeromq.utilities.ProtocolPayloadUtilities.PROVIDER;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import com.carmatech.zeromq.api.Codec;
+import com.carmatech.zeromq.api.IProtocol;
+import com.carmatech.zeromq.api.Protocol;
+
+public class SegmentStoreTest {
+	private static final int SEGMENT_SIZE = 100;
+	private static final int MAX_ENTRIES = 16;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Rule
+	public final ExpectedException exception = ExpectedException.none();
+
+	private File directory;
+	private SegmentStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = folder.newFolder("store");
+		store = new SegmentStore(directory, SEGMENT_SIZE, MAX_ENTRIES);
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+	}
+
+	@Test
+	public void storedPayloadShouldBeServedFromMappedSegmentWithoutHeapCopy() throws IOException {
+		UUID uuid = UUID.randomUUID();
+		store.put(uuid, PROVIDER.apply(uuid));
+
+		ByteBuffer payload = store.apply(uuid);
+		assertThat(payload.isDirect(), is(true));
+		assertThat(payload.isReadOnly(), is(true));
+		assertThat(payload, is(ByteBuffer.wrap(PROVIDER.apply(uuid))));
+	}
+
+	@Test
+	public void unknownUuidShouldHaveNoPayload() {
+		assertThat(store.apply(UUID.randomUUID()), is(nullValue()));
+	}
+
+	@Test
+	public void storingUuidAgainShouldReplaceItsPayload() throws IOException {
+		UUID uuid = UUID.randomUUID();
+		store.put(uuid, new byte[] { 1, 2, 3 });
+		store.put(uuid, new byte[] { 4, 5 });
+
+		assertThat(store.apply(uuid), is(ByteBuffer.wrap(new byte[] { 4, 5 })));
+		assertThat(store.size(), is(1L));
+	}
+
+	@Test
+	public void payloadsShouldRollOverToNewSegments() throws IOException {
+		UUID[] uuids = new UUID[10]; // 10 payloads of 32 bytes: 4 segments of 100 bytes.
+		for (int i = 0; i < uuids.length; ++i) {
+			uuids[i] = UUID.randomUUID();
+			store.put(uuids[i], PROVIDER.apply(uuids[i]));
+		}
+
+		for (final UUID uuid : uuids)
+			assertThat(store.apply(uuid), is(ByteBuffer.wrap(PROVIDER.apply(uuid))));
+		assertThat(new File(directory, "segment-00003.dat").exists(), is(true));
+	}
+
+	@Test
+	public void reopenedStoreShouldServeAndAppendWithoutRebuildingIndex() throws IOException {
+		UUID uuid1 = UUID.randomUUID();
+		store.put(uuid1, PROVIDER.apply(uuid1));
+		store.close();
+
+		store = new SegmentStore(directory, 1, 1); // Sizes of the existing store prevail.
+		assertThat(store.apply(uuid1), is(ByteBuffer.wrap(PROVIDER.apply(uuid1))));
+
+		UUID uuid2 = UUID.randomUUID();
+		store.put(uuid2, PROVIDER.apply(uuid2));
+		assertThat(store.apply(uuid1), is(ByteBuffer.wrap(PROVIDER.apply(uuid1))));
+		assertThat(store.apply(uuid2), is(ByteBuffer.wrap(PROVIDER.apply(uuid2))));
+		assertThat(store.size(), is(2L));
+	}
+
+	@Test
+	public void payloadBiggerThanSegmentShouldBeRejected() throws IOException {
+		exception.expect(IllegalArgumentException.class);
+		store.put(UUID.randomUUID(), new byte[SEGMENT_SIZE + 1]);
+	}
+
+	@Test
+	public void fullStoreShouldRejectNewEntries() throws IOException {
+		for (int i = 0; i < MAX_ENTRIES; ++i)
+			store.put(UUID.randomUUID(), new byte[1]);
+
+		exception.expect(IllegalStateException.class);
+		store.put(UUID.randomUUID(), new byte[1]);
+	}
+
+	@Test
+	public void storeShouldPlugIntoProtocolAsProvider() throws IOException {
+		UUID uuid = UUID.randomUUID();
+		store.put(uuid, PROVIDER.apply(uuid));
+		IProtocol protocol = new Protocol("tcp://localhost:1337");
+
+		ZContext context = new ZContext();
+		try {
+			Socket server = context.createSocket(ZMQ.PAIR);
+			server.bind("inproc://segment-store-test");
+			Socket client = context.createSocket(ZMQ.PAIR);
+			client.connect("inproc://segment-store-test");
+
+			protocol.reply(protocol.request("client", uuid, 1L, Codec.BINARY), store).send(server);
+			ZMsg reply = ZMsg.recvMsg(client);
+			assertThat(reply.peekLast().getData(), is(PROVIDER.apply(uuid)));
+		} finally {
+			context.destroy();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.carmatech.zeromq.utilities;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class HistogramTest {
+	private final Histogram histogram = new Histogram();
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void emptyHistogramShouldReportZeros() {
+		assertThat(histogram.count(), is(0L));
+		assertThat(histogram.mean(), is(0L));
+		assertThat(histogram.percentile(0.99), is(0L));
+		assertThat(histogram.max(), is(0L));
+	}
+
+	@Test
+	public void smallValuesShouldBeCountedExactly() {
+		for (long value = 0; value < 16; ++value)
+			histogram.record(value);
+
+		assertThat(histogram.count(), is(16L));
+		assertThat(histogram.sum(), is(120L));
+		assertThat(histogram.percentile(0.5), is(7L));
+		assertThat(histogram.percentile(1), is(15L));
+	}
+
+	@Test
+	public void percentilesShouldBeWithinPrecisionOfRecordedValues() {
+		for (long value = 1; value <= 1_000_000; ++value)
+			histogram.record(value * 1_000);
+
+		assertThat(histogram.percentile(0.5), is(allOf(greaterThanOrEqualTo(500_000_000L), lessThanOrEqualTo(562_500_000L))));
+		assertThat(histogram.percentile(0.99), is(allOf(greaterThanOrEqualTo(990_000_000L), lessThanOrEqualTo(1_000_000_000L))));
+		assertThat(histogram.max(), is(1_000_000_000L));
+		assertThat(histogram.mean(), is(500_000_500L));
+	}
+
+	@Test
+	public void extremeValuesShouldBeRecorded() {
+		histogram.record(-1);
+		histogram.record(Long.MAX_VALUE);
+
+		assertThat(histogram.percentile(0), is(0L));
+		assertThat(histogram.percentile(1), is(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void quantileAboveOneShouldThrowIllegalArgumentException() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Quantile must be between 0 and 1, but was [1.5].");
+		histogram.percentile(1.5);
+	}
+}
@@ -0,0 +1,60 @@
+package com.carmatech.zeromq.utilities;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.zeromq.ZContext;
+
+public class LocalEndpointsTest {
+	private static final int PORT = 1337;
+	private static final String IDENTITY = Transport.TCP.connectEndpoint(PORT);
+
+	private final ZContext serverContext = new ZContext();
+	private final ZContext otherContext = new ZContext();
+
+	@After
+	public void tearDown() {
+		LocalEndpoints.unregister(IDENTITY);
+		serverContext.destroy();
+		otherContext.destroy();
+	}
+
+	@Test
+	public void socketSharingServerContextShouldConnectOverInproc() {
+		register(Transport.TCP, Transport.IPC, Transport.INPROC);
+		assertThat(LocalEndpoints.preferred(IDENTITY, ZContext.shadow(serverContext)), is("inproc://zeromq-java-server-1337"));
+	}
+
+	@Test
+	public void socketOfAnotherContextShouldConnectOverIpc() {
+		register(Transport.TCP, Transport.IPC, Transport.INPROC);
+		assertThat(LocalEndpoints.preferred(IDENTITY, otherContext), is("ipc://zeromq-java-server-1337"));
+	}
+
+	@Test
+	public void serverOnlyBoundToTcpShouldBeConnectedToThroughItsIdentity() {
+		register(Transport.TCP);
+		assertThat(LocalEndpoints.preferred(IDENTITY, serverContext), is(IDENTITY));
+	}
+
+	@Test
+	public void unknownOrUnregisteredServerShouldBeConnectedToThroughItsIdentity() {
+		assertThat(LocalEndpoints.preferred("tcp://remote:1337", serverContext), is("tcp://remote:1337"));
+
+		register(Transport.INPROC);
+		LocalEndpoints.unregister(IDENTITY);
+		assertThat(LocalEndpoints.preferred(IDENTITY, serverContext), is(IDENTITY));
+	}
+
+	private void register(final Transport... transports) {
+		final Map<Transport, String> endpoints = new EnumMap<Transport, String>(Transport.class);
+		for (final Transport transport : transports)
+			endpoints.put(transport, transport.connectEndpoint(PORT));
+		LocalEndpoints.register(IDENTITY, serverContext, endpoints);
+	}
+}
@@ -5,6 +5,7 @@ import java.util.UUID;
 
 import org.zeromq.ZMQ;
 
+import com.carmatech.zeromq.api.IBufferProvider;
 import com.google.common.base.Function;
 
 public final class ProtocolPayloadUtilities {
@@ -19,6 +20,24 @@ public final class ProtocolPayloadUtilities {
 		}
 	};
 
+	/**
+	 * Same payloads as {@link #PROVIDER}, in direct buffers.
+	 */
+	public static final IBufferProvider BUFFER_PROVIDER = new IBufferProvider() {
+		@Override
+		public ByteBuffer apply(final UUID uuid) {
+			final byte[] payload = toBytes(uuid);
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length);
+			buffer.put(payload).flip();
+			return buffer;
+		}
+
+		@Override
+		public void release(final UUID uuid, final ByteBuffer buffer) {
+			// No-op.
+		}
+	};
+
 	public static String toZmqString(UUID uuid) {
 		return toString(toBytes(uuid)).toUpperCase();
 	}
@@ -0,0 +1,77 @@
+package com.carmatech.zeromq.utilities;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+
+public class TransportProfileTest {
+	private final ZContext context = new ZContext();
+
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@After
+	public void tearDown() {
+		context.destroy();
+	}
+
+	@Test
+	public void defaultIoThreadsShouldBeSizedFromCores() {
+		assertThat(TransportProfile.DEFAULT.ioThreads(), is(greaterThanOrEqualTo(1)));
+		assertThat(TransportProfile.DEFAULT.ioThreads(), is(Math.max(1, Runtime.getRuntime().availableProcessors() / 4)));
+	}
+
+	@Test
+	public void withMethodsShouldReturnModifiedCopies() {
+		TransportProfile profile = TransportProfile.DEFAULT.withIoThreads(8).withHighWaterMarks(10_000, 20_000);
+
+		assertThat(profile, is(not(sameInstance(TransportProfile.DEFAULT))));
+		assertThat(profile.ioThreads(), is(8));
+		assertThat(profile.sendHighWaterMark(), is(10_000));
+		assertThat(profile.receiveHighWaterMark(), is(20_000));
+		assertThat(profile.backlog(), is(TransportProfile.DEFAULT_BACKLOG));
+		assertThat(TransportProfile.DEFAULT.sendHighWaterMark(), is(TransportProfile.DEFAULT_HIGH_WATER_MARK));
+	}
+
+	@Test
+	public void transportsShouldDefaultToTcpOnly() {
+		assertThat(TransportProfile.DEFAULT.transports(), contains(Transport.TCP));
+		assertThat(TransportProfile.DEFAULT.withTransports(Transport.INPROC, Transport.TCP).withIoThreads(2).transports(),
+				contains(Transport.TCP, Transport.INPROC));
+	}
+
+	@Test
+	public void configureShouldSetAllSocketOptions() {
+		TransportProfile profile = TransportProfile.DEFAULT.withHighWaterMarks(10_000, 20_000).withBufferSizes(1 << 20, 2 << 20).withBacklog(512)
+				.withReconnectIntervals(new Duration(50, TimeUnit.MILLISECONDS), new Duration(2, TimeUnit.SECONDS));
+		Socket socket = profile.configure(context.createSocket(ZMQ.ROUTER));
+
+		assertThat(socket.getSndHWM(), is(10_000L));
+		assertThat(socket.getRcvHWM(), is(20_000L));
+		assertThat(socket.getSendBufferSize(), is((long) 1 << 20));
+		assertThat(socket.getReceiveBufferSize(), is((long) 2 << 20));
+		assertThat(socket.getBacklog(), is(512L));
+		assertThat(socket.getReconnectIVL(), is(50L));
+		assertThat(socket.getReconnectIVLMax(), is(2_000L));
+	}
+
+	@Test
+	public void zeroIoThreadsShouldThrowIllegalArgumentException() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Number of I/O threads must be strictly positive, but was [0].");
+		TransportProfile.DEFAULT.withIoThreads(0);
+	}
+}
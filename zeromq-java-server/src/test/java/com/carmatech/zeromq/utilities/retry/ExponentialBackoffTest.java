@@ -0,0 +1,74 @@
+package com.carmatech.zeromq.utilities.retry;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.carmatech.zeromq.utilities.Duration;
+import com.google.common.base.Supplier;
+
+public class ExponentialBackoffTest {
+	private static final Duration INITIAL = new Duration(100L, TimeUnit.MILLISECONDS);
+	private static final Duration MAX = new Duration(1L, TimeUnit.SECONDS);
+
+	private final IRetryPolicy backoff = new ExponentialBackoff(INITIAL, MAX, 6);
+
+	@Rule
+	public final ExpectedException exception = ExpectedException.none();
+
+	@Test
+	public void delaysShouldDoubleUpToMaximumDelay() {
+		assertThat(backoff.nextAttemptInMillis(), is(100L));
+		assertThat(backoff.nextAttemptInMillis(), is(200L));
+		assertThat(backoff.nextAttemptInMillis(), is(400L));
+		assertThat(backoff.nextAttemptInMillis(), is(800L));
+		assertThat(backoff.nextAttemptInMillis(), is(1_000L));
+		assertThat(backoff.nextAttemptInMillis(), is(1_000L));
+		assertThat(backoff.attempts(), is(6));
+		assertThat(backoff.hasNextAttempt(), is(false));
+	}
+
+	@Test
+	public void resetShouldStartOverFromInitialDelay() {
+		backoff.nextAttemptInMillis();
+		backoff.nextAttemptInMillis();
+		backoff.reset();
+
+		assertThat(backoff.attempts(), is(0));
+		assertThat(backoff.nextAttemptInMillis(), is(100L));
+	}
+
+	@Test
+	public void manyAttemptsShouldNotOverflow() {
+		IRetryPolicy unbounded = new ExponentialBackoff(INITIAL, new Duration(Long.MAX_VALUE, TimeUnit.MILLISECONDS), Integer.MAX_VALUE);
+		for (int i = 0; i < 100; ++i)
+			assertThat(unbounded.nextAttemptInMillis() > 0, is(true));
+	}
+
+	@Test
+	public void supplierShouldSupplyNewPolicies() {
+		Supplier<IRetryPolicy> supplier = ExponentialBackoff.supplier(INITIAL, MAX, 6);
+		IRetryPolicy first = supplier.get();
+		first.nextAttemptInMillis();
+
+		assertThat(supplier.get(), is(not(sameInstance(first))));
+		assertThat(supplier.get().attempts(), is(0));
+	}
+
+	@Test
+	public void nextAttemptInMillisShouldThrowIllegalStateExceptionOnceAttemptsAreExhausted() {
+		IRetryPolicy once = new ExponentialBackoff(INITIAL, MAX, 1);
+		once.nextAttemptInMillis();
+
+		exception.expect(IllegalStateException.class);
+		exception.expectMessage("Number of attempts (1) exhausted.");
+		once.nextAttemptInMillis();
+	}
+}